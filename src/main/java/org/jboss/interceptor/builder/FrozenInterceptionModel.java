@@ -0,0 +1,326 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.interceptor.builder;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import org.jboss.interceptor.spi.metadata.InterceptorMetadata;
+import org.jboss.interceptor.spi.model.InterceptionType;
+import org.jboss.interceptor.spi.model.StatelessInterceptorsModel;
+
+/**
+ * An immutable snapshot of an {@link InterceptionModelImpl}, as returned by {@link InterceptionModelBuilder#build()}.
+ * The interceptors of each interception type are resolved when the snapshot is taken, with the global interceptors
+ * already merged into or excluded from the interceptors of each method, so that lookups neither merge nor allocate
+ * lists. The methods without interceptors or exclusions of their own share the lists of the global interceptors.
+ *
+ * Everything but the intercepted entity is held by {@link Bindings}, which are interned: the models of all the
+ * entities with structurally identical bindings share the same {@link Bindings} instance, and thereby the same lists.
+ *
+ * Being immutable, the model can be shared between threads without synchronization.
+ */
+final class FrozenInterceptionModel<T, I> implements StatelessInterceptorsModel<T, I>, Serializable
+{
+   private static final long serialVersionUID = 1L;
+
+   private static final Interner<Bindings<?>> bindingsInterner = Interners.newWeakInterner();
+
+   private final T interceptedEntity;
+
+   private final Bindings<I> bindings;
+
+   private FrozenInterceptionModel(T interceptedEntity, Bindings<I> bindings)
+   {
+      this.interceptedEntity = interceptedEntity;
+      this.bindings = bindings;
+   }
+
+   static <T, I> FrozenInterceptionModel<T, I> of(InterceptionModelImpl<T, I> interceptionModel)
+   {
+      return new FrozenInterceptionModel<T, I>(interceptionModel.getInterceptedEntity(), intern(new Bindings<I>(interceptionModel)));
+   }
+
+   /**
+    * @return a new {@link InterceptionModelImpl} with the same bindings as this model, which changes independently
+    * of it
+    */
+   InterceptionModelImpl<T, I> copy()
+   {
+      InterceptionModelImpl<T, I> interceptionModel = new InterceptionModelImpl<T, I>(interceptedEntity);
+      interceptionModel.registerInterceptors(bindings.allInterceptors);
+      for (InterceptionType interceptionType : InterceptionType.values())
+      {
+         List<InterceptorMetadata<I>> interceptors = bindings.interceptors.get(interceptionType.ordinal());
+         if (!interceptors.isEmpty())
+         {
+            interceptionModel.appendInterceptors(interceptionType, null, interceptors);
+         }
+      }
+      for (Map.Entry<MethodSignature, List<List<InterceptorMetadata<I>>>> entry : bindings.methodInterceptors.entrySet())
+      {
+         MethodSignature methodSignature = entry.getKey();
+         boolean ignoringGlobals = bindings.methodsIgnoringGlobals.contains(methodSignature);
+         if (ignoringGlobals)
+         {
+            interceptionModel.excludeGlobalInterceptors(methodSignature);
+         }
+         for (InterceptionType interceptionType : InterceptionType.values())
+         {
+            if (!interceptionType.isLifecycleCallback())
+            {
+               // unless excluded, the global interceptors come first in the interceptors of the method
+               List<InterceptorMetadata<I>> interceptors = entry.getValue().get(interceptionType.ordinal());
+               int globalInterceptorCount = ignoringGlobals ? 0 : bindings.interceptors.get(interceptionType.ordinal()).size();
+               if (interceptors.size() > globalInterceptorCount)
+               {
+                  interceptionModel.appendInterceptors(interceptionType, methodSignature, interceptors.subList(globalInterceptorCount, interceptors.size()));
+               }
+            }
+         }
+      }
+      if (bindings.excludingDefaultInterceptorsGlobally)
+      {
+         interceptionModel.excludeDefaultInterceptorsGlobally();
+      }
+      interceptionModel.getMethodsIgnoringDefaults().addAll(bindings.methodsIgnoringDefaults);
+      interceptionModel.getStatelessInterceptors().addAll(bindings.statelessInterceptors);
+      return interceptionModel;
+   }
+
+   @SuppressWarnings("unchecked")
+   private static <I> Bindings<I> intern(Bindings<I> bindings)
+   {
+      return (Bindings<I>) bindingsInterner.intern(bindings);
+   }
+
+   /**
+    * @return true if this model shares its interceptor bindings with the given one, which is the case if both have
+    * been built with the same interceptors and exclusions
+    */
+   boolean isSharingBindings(FrozenInterceptionModel<?, ?> interceptionModel)
+   {
+      return bindings == interceptionModel.bindings;
+   }
+
+   public List<InterceptorMetadata<I>> getInterceptors(InterceptionType interceptionType)
+   {
+      return getInterceptors(interceptionType, null);
+   }
+
+   public List<InterceptorMetadata<I>> getInterceptors(InterceptionType interceptionType, MethodSignature methodSignature)
+   {
+      if (interceptionType.isLifecycleCallback())
+      {
+         if (methodSignature != null)
+         {
+            throw new IllegalArgumentException("On a lifecycle callback, the associated method must be null");
+         }
+         return bindings.interceptors.get(interceptionType.ordinal());
+      }
+      if (methodSignature == null)
+      {
+         throw new IllegalArgumentException("Around-invoke and around-timeout interceptors are defined only for a given method");
+      }
+      List<List<InterceptorMetadata<I>>> interceptorsOfMethod = bindings.methodInterceptors.get(methodSignature);
+      return (interceptorsOfMethod != null ? interceptorsOfMethod : bindings.interceptors).get(interceptionType.ordinal());
+   }
+
+   public Set<InterceptorMetadata<I>> getAllInterceptors()
+   {
+      return bindings.allInterceptors;
+   }
+
+   public boolean isExcludingDefaultInterceptorsGlobally()
+   {
+      return bindings.excludingDefaultInterceptorsGlobally;
+   }
+
+   public boolean isExcludingDefaultInterceptors(MethodSignature methodSignature)
+   {
+      return bindings.methodsIgnoringDefaults.contains(methodSignature);
+   }
+
+   public boolean isExcludingGlobalInterceptors(MethodSignature methodSignature)
+   {
+      return bindings.methodsIgnoringGlobals.contains(methodSignature);
+   }
+
+   public boolean isStateless(InterceptorMetadata<?> interceptor)
+   {
+      return bindings.statelessInterceptors.contains(interceptor);
+   }
+
+   public T getInterceptedEntity()
+   {
+      return interceptedEntity;
+   }
+
+   /**
+    * The interceptor bindings of a model, which are compared structurally. Interceptors are compared as the model
+    * itself compares them, i.e. through {@link InterceptorMetadata#equals(Object)}.
+    */
+   private static final class Bindings<I> implements Serializable
+   {
+      private static final long serialVersionUID = 1L;
+
+      /**
+       * The interceptors of each interception type, by ordinal: the lifecycle callback interceptors, and the global
+       * interceptors of the other types
+       */
+      private final List<List<InterceptorMetadata<I>>> interceptors;
+
+      /**
+       * The interceptors of each interception type, by ordinal, for the methods which differ from the global ones
+       */
+      private final Map<MethodSignature, List<List<InterceptorMetadata<I>>>> methodInterceptors;
+
+      private final Set<InterceptorMetadata<I>> allInterceptors;
+
+      private final boolean excludingDefaultInterceptorsGlobally;
+
+      private final Set<MethodSignature> methodsIgnoringGlobals;
+
+      private final Set<MethodSignature> methodsIgnoringDefaults;
+
+      private final Set<InterceptorMetadata<?>> statelessInterceptors;
+
+      private transient int hashCode;
+
+      Bindings(InterceptionModelImpl<?, I> interceptionModel)
+      {
+         // equal lists are shared, as most methods have the same interceptors
+         Map<List<InterceptorMetadata<I>>, List<InterceptorMetadata<I>>> frozenLists = new HashMap<List<InterceptorMetadata<I>>, List<InterceptorMetadata<I>>>();
+         List<List<InterceptorMetadata<I>>> interceptors = newInterceptorLists();
+         for (InterceptionType interceptionType : InterceptionType.values())
+         {
+            if (interceptionType.isLifecycleCallback())
+            {
+               interceptors.set(interceptionType.ordinal(), freeze(interceptionModel.getInterceptors(interceptionType), frozenLists));
+            }
+            else
+            {
+               interceptors.set(interceptionType.ordinal(), freeze(interceptionModel.getGlobalInterceptors(interceptionType), frozenLists));
+            }
+         }
+         this.interceptors = Collections.unmodifiableList(interceptors);
+         this.methodInterceptors = new HashMap<MethodSignature, List<List<InterceptorMetadata<I>>>>();
+         for (MethodSignature methodSignature : interceptionModel.getConfiguredMethods())
+         {
+            List<List<InterceptorMetadata<I>>> interceptorsOfMethod = newInterceptorLists();
+            for (InterceptionType interceptionType : InterceptionType.values())
+            {
+               if (!interceptionType.isLifecycleCallback())
+               {
+                  interceptorsOfMethod.set(interceptionType.ordinal(), freeze(interceptionModel.getInterceptors(interceptionType, methodSignature), frozenLists));
+               }
+            }
+            methodInterceptors.put(methodSignature, Collections.unmodifiableList(interceptorsOfMethod));
+         }
+         this.allInterceptors = Collections.unmodifiableSet(new LinkedHashSet<InterceptorMetadata<I>>(interceptionModel.getAllInterceptors()));
+         this.excludingDefaultInterceptorsGlobally = interceptionModel.isExcludingDefaultInterceptorsGlobally();
+         this.methodsIgnoringGlobals = freeze(interceptionModel.getMethodsIgnoringGlobals());
+         this.methodsIgnoringDefaults = freeze(interceptionModel.getMethodsIgnoringDefaults());
+         this.statelessInterceptors = freeze(interceptionModel.getStatelessInterceptors());
+      }
+
+      /**
+       * @return a list with a null element for each interception type, to be replaced by its interceptors
+       */
+      private static <I> List<List<InterceptorMetadata<I>>> newInterceptorLists()
+      {
+         return new ArrayList<List<InterceptorMetadata<I>>>(Collections.<List<InterceptorMetadata<I>>>nCopies(InterceptionType.values().length, null));
+      }
+
+      private static <E> List<E> freeze(List<E> list, Map<List<E>, List<E>> frozenLists)
+      {
+         if (list.isEmpty())
+         {
+            return Collections.<E>emptyList();
+         }
+         List<E> frozenList = frozenLists.get(list);
+         if (frozenList == null)
+         {
+            frozenList = Collections.unmodifiableList(new ArrayList<E>(list));
+            frozenLists.put(frozenList, frozenList);
+         }
+         return frozenList;
+      }
+
+      private static <E> Set<E> freeze(Set<E> set)
+      {
+         return set.isEmpty() ? Collections.<E>emptySet() : Collections.unmodifiableSet(new HashSet<E>(set));
+      }
+
+      @Override
+      public boolean equals(Object o)
+      {
+         if (this == o)
+         {
+            return true;
+         }
+         if (!(o instanceof Bindings))
+         {
+            return false;
+         }
+         Bindings<?> that = (Bindings<?>) o;
+         // the order of all the interceptors matters, as it is the order of their instances
+         return hashCode() == that.hashCode()
+               && excludingDefaultInterceptorsGlobally == that.excludingDefaultInterceptorsGlobally
+               && interceptors.equals(that.interceptors)
+               && methodInterceptors.equals(that.methodInterceptors)
+               && new ArrayList<InterceptorMetadata<I>>(allInterceptors).equals(new ArrayList<Object>(that.allInterceptors))
+               && methodsIgnoringGlobals.equals(that.methodsIgnoringGlobals)
+               && methodsIgnoringDefaults.equals(that.methodsIgnoringDefaults)
+               && statelessInterceptors.equals(that.statelessInterceptors);
+      }
+
+      @Override
+      public int hashCode()
+      {
+         // computed lazily, as the hash codes of the interceptors may change across serialization
+         int hashCode = this.hashCode;
+         if (hashCode == 0)
+         {
+            hashCode = interceptors.hashCode();
+            hashCode = 31 * hashCode + methodInterceptors.hashCode();
+            hashCode = 31 * hashCode + allInterceptors.hashCode();
+            hashCode = 31 * hashCode + (excludingDefaultInterceptorsGlobally ? 1 : 0);
+            hashCode = 31 * hashCode + methodsIgnoringGlobals.hashCode();
+            hashCode = 31 * hashCode + methodsIgnoringDefaults.hashCode();
+            hashCode = 31 * hashCode + statelessInterceptors.hashCode();
+            this.hashCode = hashCode;
+         }
+         return hashCode;
+      }
+
+      private Object readResolve() throws ObjectStreamException
+      {
+         return intern(this);
+      }
+   }
+}
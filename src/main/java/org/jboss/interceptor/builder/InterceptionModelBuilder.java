@@ -31,6 +31,8 @@ public class InterceptionModelBuilder<T, I>
 
    private T interceptedEntity;
 
+   private InterceptionModel<T, I> builtModel;
+
    private InterceptionModelBuilder(T interceptedEntity)
    {
       this.interceptedEntity = interceptedEntity;
@@ -59,7 +61,28 @@ public class InterceptionModelBuilder<T, I>
 
    public static <T, I> InterceptionModelBuilder<T, I> changeBuilderFor(BuildableInterceptionModel<T, I> interceptionModel)
    {
-      return new InterceptionModelBuilder(interceptionModel);
+      return new InterceptionModelBuilder<T, I>(interceptionModel);
+   }
+
+   /**
+    * Returns a builder for changing the given model. The models returned by {@link #build()} are immutable, so the
+    * builder works on a copy of them, and the given model itself is left unchanged.
+    *
+    * @param interceptionModel - a model returned by {@link #build()}, or a {@link BuildableInterceptionModel}
+    * @return the builder
+    * @throws IllegalArgumentException if the model can be neither changed nor copied
+    */
+   public static <T, I> InterceptionModelBuilder<T, I> changeBuilderFor(InterceptionModel<T, I> interceptionModel)
+   {
+      if (interceptionModel instanceof FrozenInterceptionModel)
+      {
+         return new InterceptionModelBuilder<T, I>(((FrozenInterceptionModel<T, I>) interceptionModel).copy());
+      }
+      if (interceptionModel != null && !(interceptionModel instanceof BuildableInterceptionModel))
+      {
+         throw new IllegalArgumentException("Cannot change the interception model " + interceptionModel);
+      }
+      return new InterceptionModelBuilder<T, I>((BuildableInterceptionModel<T, I>) interceptionModel);
    }
 
    public T getInterceptedEntity()
@@ -67,9 +90,20 @@ public class InterceptionModelBuilder<T, I>
       return interceptedEntity;
    }
 
+   /**
+    * Returns the model built so far. If the builder works on the default {@link InterceptionModelImpl}, the model
+    * is an immutable snapshot of it: the changes made through the builder afterwards are only reflected by the
+    * models built later. The same model is returned until the builder is changed.
+    *
+    * @return the interception model
+    */
    public InterceptionModel<T, I> build()
    {
-      return interceptionModel;
+      if (builtModel == null)
+      {
+         builtModel = interceptionModel instanceof InterceptionModelImpl ? FrozenInterceptionModel.of((InterceptionModelImpl<T, I>) interceptionModel) : interceptionModel;
+      }
+      return builtModel;
    }
 
    public MethodInterceptorDescriptor interceptAll()
@@ -110,6 +144,24 @@ public class InterceptionModelBuilder<T, I>
    public void ignoreGlobalInterceptors(MethodSignature m)
    {
       this.interceptionModel.excludeGlobalInterceptors(m);
+      this.builtModel = null;
+   }
+
+   /**
+    * Declares interceptors as stateless: all the instances intercepted under the model share a single instance of
+    * each of them. Only supported by the builders working on the default {@link InterceptionModelImpl}.
+    *
+    * @param interceptors
+    * @throws UnsupportedOperationException if the builder works on another {@link BuildableInterceptionModel}
+    */
+   public void markStateless(InterceptorMetadata<?>... interceptors)
+   {
+      if (!(interceptionModel instanceof InterceptionModelImpl))
+      {
+         throw new UnsupportedOperationException("Stateless interceptors are not supported by " + interceptionModel.getClass().getName());
+      }
+      ((InterceptionModelImpl<T, I>) interceptionModel).markStateless(interceptors);
+      this.builtModel = null;
    }
 
    public final class MethodInterceptorDescriptor
@@ -130,6 +182,7 @@ public class InterceptionModelBuilder<T, I>
          {
             InterceptionModelBuilder.this.interceptionModel.appendInterceptors(interceptionType, methodSignature, interceptors);
          }
+         InterceptionModelBuilder.this.builtModel = null;
       }
    }
 
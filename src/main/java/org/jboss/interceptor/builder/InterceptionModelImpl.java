@@ -20,6 +20,7 @@ package org.jboss.interceptor.builder;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -31,6 +32,7 @@ import java.util.Set;
 import org.jboss.interceptor.spi.metadata.InterceptorMetadata;
 import org.jboss.interceptor.spi.metadata.MethodMetadata;
 import org.jboss.interceptor.spi.model.InterceptionType;
+import org.jboss.interceptor.spi.model.StatelessInterceptorsModel;
 
 /**
  * Default implementation of an {@link BuildableInterceptionModel}, produced by the {@link InterceptionModelBuilder}.
@@ -38,7 +40,7 @@ import org.jboss.interceptor.spi.model.InterceptionType;
  * @author <a href="mailto:mariusb@redhat.com">Marius Bogoevici</a>
  */
 
-public class InterceptionModelImpl<T, I> implements BuildableInterceptionModel<T, I>
+public class InterceptionModelImpl<T, I> implements BuildableInterceptionModel<T, I>, StatelessInterceptorsModel<T, I>
 {
 
    private boolean excludeDefaultsGlobally;
@@ -53,6 +55,8 @@ public class InterceptionModelImpl<T, I> implements BuildableInterceptionModel<T
 
    private Set<InterceptorMetadata<I>> allInterceptors = new LinkedHashSet<InterceptorMetadata<I>>();
 
+   private Set<InterceptorMetadata<?>> statelessInterceptors = new HashSet<InterceptorMetadata<?>>();
+
    private T interceptedEntity;
 
    public InterceptionModelImpl(T interceptedEntity)
@@ -143,6 +147,11 @@ public class InterceptionModelImpl<T, I> implements BuildableInterceptionModel<T
 
 
    public void appendInterceptors(InterceptionType interceptionType, MethodSignature method, InterceptorMetadata<I>... interceptors)
+   {
+      appendInterceptors(interceptionType, method, Arrays.asList(interceptors));
+   }
+
+   void appendInterceptors(InterceptionType interceptionType, MethodSignature method, List<InterceptorMetadata<I>> interceptors)
    {
       if (null == method)
       {
@@ -172,18 +181,29 @@ public class InterceptionModelImpl<T, I> implements BuildableInterceptionModel<T
          }
          appendInterceptorClassesToList(interceptionType, interceptorsList, interceptors);
       }
-      allInterceptors.addAll(Arrays.asList(interceptors));
+      allInterceptors.addAll(interceptors);
+   }
+
+   /**
+    * Marks interceptors as stateless, so that their instances can be shared
+    *
+    * @param interceptors - the stateless interceptors
+    * @see StatelessInterceptorsModel#isStateless(InterceptorMetadata)
+    */
+   public void markStateless(InterceptorMetadata<?>... interceptors)
+   {
+      statelessInterceptors.addAll(Arrays.asList(interceptors));
    }
 
-   private void appendInterceptorClassesToList(InterceptionType interceptionType, List<InterceptorMetadata<I>> interceptorsList, InterceptorMetadata<I>... interceptors)
+   private void appendInterceptorClassesToList(InterceptionType interceptionType, List<InterceptorMetadata<I>> interceptorsList, List<InterceptorMetadata<I>> interceptors)
    {
       validateDuplicateInterceptors(interceptionType, interceptorsList, interceptors);
-      interceptorsList.addAll(Arrays.asList(interceptors));
+      interceptorsList.addAll(interceptors);
    }
 
-   private void validateDuplicateInterceptors(InterceptionType interceptionType, List<InterceptorMetadata<I>> interceptorsList, InterceptorMetadata<I>... interceptors)
+   private void validateDuplicateInterceptors(InterceptionType interceptionType, List<InterceptorMetadata<I>> interceptorsList, List<InterceptorMetadata<I>> interceptors)
    {
-      for (InterceptorMetadata interceptor : interceptors)
+      for (InterceptorMetadata<I> interceptor : interceptors)
       {
          if (interceptorsList.contains(interceptor))
          {
@@ -209,4 +229,56 @@ public class InterceptionModelImpl<T, I> implements BuildableInterceptionModel<T
    {
       return methodsIgnoringGlobals.contains(methodSignature);
    }
+
+   public boolean isStateless(InterceptorMetadata<?> interceptor)
+   {
+      return statelessInterceptors.contains(interceptor);
+   }
+
+   /**
+    * @return the global interceptors of the given type, which also apply to the methods not excluding them
+    */
+   List<InterceptorMetadata<I>> getGlobalInterceptors(InterceptionType interceptionType)
+   {
+      List<InterceptorMetadata<I>> interceptors = globalInterceptors.get(interceptionType);
+      return interceptors != null ? interceptors : Collections.<InterceptorMetadata<I>>emptyList();
+   }
+
+   /**
+    * @return the methods which have interceptors or exclusions of their own
+    */
+   Set<MethodSignature> getConfiguredMethods()
+   {
+      Set<MethodSignature> configuredMethods = new HashSet<MethodSignature>();
+      for (Map<MethodSignature, List<InterceptorMetadata<I>>> interceptorsByMethod : methodBoundInterceptors.values())
+      {
+         configuredMethods.addAll(interceptorsByMethod.keySet());
+      }
+      configuredMethods.addAll(methodsIgnoringGlobals);
+      configuredMethods.addAll(methodsIgnoringDefaults);
+      return configuredMethods;
+   }
+
+   /**
+    * Registers interceptors ahead of their bindings, so that {@link #getAllInterceptors()} keeps the given order
+    */
+   void registerInterceptors(Collection<InterceptorMetadata<I>> interceptors)
+   {
+      allInterceptors.addAll(interceptors);
+   }
+
+   Set<InterceptorMetadata<?>> getStatelessInterceptors()
+   {
+      return statelessInterceptors;
+   }
+
+   Set<MethodSignature> getMethodsIgnoringGlobals()
+   {
+      return methodsIgnoringGlobals;
+   }
+
+   Set<MethodSignature> getMethodsIgnoringDefaults()
+   {
+      return methodsIgnoringDefaults;
+   }
 }
@@ -0,0 +1,84 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.interceptor.proxy;
+
+import java.lang.reflect.Method;
+
+import javax.interceptor.InvocationContext;
+
+/**
+ * Executes the stages of an {@link InterceptionChainPlan} compiled into a single class: stage <code>i</code> invokes
+ * the <code>i</code>-th interceptor method of the plan and the last stage, whose index is the size of the plan,
+ * invokes the target method it has been compiled for with the parameters of the invocation context.
+ *
+ * Implementations are generated, and are stateless: the state of an invocation is kept by the
+ * {@link CompiledInterceptionChain} that calls them. The stages that the generated code cannot invoke directly
+ * are delegated to the invokers resolved by the plan.
+ *
+ * This class is public only because the implementations are defined in the packages of the intercepted classes.
+ */
+public abstract class CompiledChainInvoker
+{
+   private InterceptionChainPlan chainPlan;
+
+   private Method targetMethod;
+
+   private TargetMethodInvoker targetMethodInvoker;
+
+   protected CompiledChainInvoker()
+   {
+   }
+
+   void bind(InterceptionChainPlan chainPlan, Method targetMethod, TargetMethodInvoker targetMethodInvoker)
+   {
+      this.chainPlan = chainPlan;
+      this.targetMethod = targetMethod;
+      this.targetMethodInvoker = targetMethodInvoker;
+   }
+
+   InterceptionChainPlan getChainPlan()
+   {
+      return chainPlan;
+   }
+
+   /**
+    * @param stage - the index of the interceptor method to invoke, or the size of the plan for the target method
+    * @param interceptorInstances - the interceptor instances, in the order of the indexed interceptors of the plan
+    * @param target - the target instance
+    * @param invocationContext
+    * @return the result of the stage
+    * @throws Throwable
+    */
+   public abstract Object invoke(int stage, Object[] interceptorInstances, Object target, InvocationContext invocationContext) throws Throwable;
+
+   /**
+    * Invokes an interceptor method through the invoker resolved by the plan
+    */
+   protected final Object invokeStep(int stage, Object[] interceptorInstances, Object target, InvocationContext invocationContext) throws Exception
+   {
+      InterceptionChainPlan.Step step = chainPlan.getStep(stage);
+      return step.invoke(step.getInstance(target, interceptorInstances), invocationContext);
+   }
+
+   /**
+    * Invokes the target method through the invoker resolved by the plan
+    */
+   protected final Object invokeTarget(Object target, InvocationContext invocationContext) throws Throwable
+   {
+      return SimpleInterceptionChain.invokeTarget(targetMethodInvoker, target, targetMethod, invocationContext);
+   }
+}
@@ -0,0 +1,75 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.interceptor.proxy;
+
+import java.lang.reflect.Method;
+
+import javax.interceptor.InvocationContext;
+
+import org.jboss.interceptor.spi.context.InterceptionChain;
+
+/**
+ * An {@link InterceptionChain} that executes a compiled plan: each call to
+ * {@link #invokeNextInterceptor(InvocationContext)} jumps to the next stage of the {@link CompiledChainInvoker}
+ * generated for the plan.
+ *
+ * @see InterceptionChainPlan#newChain(Object[], Object, Method)
+ */
+final class CompiledInterceptionChain implements PlannedInterceptionChain
+{
+   private final CompiledChainInvoker chainInvoker;
+
+   private final int size;
+
+   private final Object[] interceptorInstances;
+
+   private final Object target;
+
+   private int currentStage;
+
+   CompiledInterceptionChain(CompiledChainInvoker chainInvoker, int size, Object[] interceptorInstances, Object target)
+   {
+      this.chainInvoker = chainInvoker;
+      this.size = size;
+      this.interceptorInstances = interceptorInstances;
+      this.target = target;
+   }
+
+   public InterceptionChainPlan getChainPlan()
+   {
+      return chainInvoker.getChainPlan();
+   }
+
+   public Object invokeNextInterceptor(InvocationContext invocationContext) throws Throwable
+   {
+      int stage = currentStage;
+      currentStage = stage + 1;
+      try
+      {
+         return chainInvoker.invoke(stage, interceptorInstances, target, invocationContext);
+      }
+      finally
+      {
+         currentStage = stage;
+      }
+   }
+
+   public boolean hasNextInterceptor()
+   {
+      return currentStage < size;
+   }
+}
@@ -31,6 +31,10 @@ public class DefaultInvocationContextFactory implements InvocationContextFactory
 {
    public InvocationContext newInvocationContext(InterceptionChain chain, Object o, Method method, Object[] args)
    {
+      if (method == null)
+      {
+         return new LifecycleInvocationContext(chain, o);
+      }
       return new InterceptorInvocationContext(chain, o, method, args);
    }
 
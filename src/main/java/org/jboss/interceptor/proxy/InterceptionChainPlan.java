@@ -0,0 +1,804 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.interceptor.proxy;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.interceptor.InvocationContext;
+
+import com.google.common.collect.MapMaker;
+import org.jboss.interceptor.builder.MethodReference;
+import org.jboss.interceptor.spi.context.InterceptionChain;
+import org.jboss.interceptor.spi.metadata.InterceptorMetadata;
+import org.jboss.interceptor.spi.metadata.MethodMetadata;
+import org.jboss.interceptor.spi.model.InterceptionType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An immutable, precomputed sequence of interceptor method invocations for a given {@link InterceptionType}
+ * (and method, for around-invoke and around-timeout interception). Plans are built once and can be shared
+ * by all the {@link SimpleInterceptionChain}s that execute them.
+ *
+ * The invokers of the interceptor methods and of the target method are resolved when the plan is built, using
+ * the {@link InvocationBackend} of choice. Backends may also compile the whole plan of an intercepted method into
+ * a {@link CompiledChainInvoker}, which is then used by the chains executing the plan.
+ *
+ * Chains may end with a method other than the one the plan has been built for, typically the super-accessor that
+ * a subclassing proxy generates for the intercepted method. The invoker and the compiled form of the plan for each
+ * such method, as for the intercepted method itself, are resolved on first use and kept by the plan.
+ *
+ * The invokers of the interceptor methods are created, and the interceptor methods resolved, on their first use.
+ * Tiered plans start out with reflective invokers, and are promoted to a plan using the backend of choice once they
+ * have been executed a given number of times; the promotion creates the invokers of the promoted plan upfront. A
+ * plan that cannot be promoted keeps executing with its reflective invokers.
+ *
+ * The steps of a plan are interned: all the plans which invoke the same interceptor methods, on the same interceptor
+ * instances and through the same backend, share the same steps, whichever class or method they have been built for.
+ */
+public final class InterceptionChainPlan
+{
+   private static final Logger log = LoggerFactory.getLogger(InterceptionChainPlan.class);
+
+   private static final Step[] NO_STEPS = new Step[0];
+
+   private static final ConcurrentMap<StepSequence, Step[]> internedSteps = new MapMaker().weakValues().makeMap();
+
+   private static final ConcurrentMap<LifecyclePlanKey, InterceptionChainPlan> internedLifecyclePlans = new MapMaker().weakValues().makeMap();
+
+   private final InterceptionType interceptionType;
+
+   private final Step[] steps;
+
+   private final int[] interceptorIndices;
+
+   private final Method targetMethod;
+
+   private final InvocationBackend invocationBackend;
+
+   private volatile Map<Method, TargetMethodBinding> targetMethodBindings;
+
+   private final InvocationBackend promotionBackend;
+
+   private final int compileThreshold;
+
+   private final AtomicInteger executionsBeforePromotion;
+
+   // this plan itself if the promotion has failed
+   private volatile InterceptionChainPlan promotedPlan;
+
+   // computed on first use, possibly more than once by concurrent invocations, which then compute equal validators
+   private volatile ParameterValidator parameterValidator;
+
+   private InterceptionChainPlan(InterceptionType interceptionType, Step[] steps, Method targetMethod, InvocationBackend invocationBackend, InvocationBackend promotionBackend, int compileThreshold)
+   {
+      this.interceptionType = interceptionType;
+      this.steps = steps;
+      this.interceptorIndices = collectInterceptorIndices(steps);
+      this.targetMethod = targetMethod;
+      this.invocationBackend = invocationBackend;
+      this.targetMethodBindings = Collections.emptyMap();
+      this.promotionBackend = promotionBackend;
+      this.compileThreshold = compileThreshold;
+      this.executionsBeforePromotion = promotionBackend == null ? null : new AtomicInteger(compileThreshold);
+   }
+
+   /**
+    * Builds the plan for invoking the given interceptors, in order. The target class interceptor, if any, must be
+    * included in the list as well.
+    *
+    * @param interceptionType
+    * @param interceptors
+    * @return the chain plan
+    */
+   public static InterceptionChainPlan of(InterceptionType interceptionType, List<? extends InterceptorMetadata<?>> interceptors)
+   {
+      return of(interceptionType, interceptors, null, null, InvocationBackend.DEFAULT);
+   }
+
+   /**
+    * Builds the plan for invoking the given interceptors, in order, followed by the interceptor methods of the
+    * target class.
+    *
+    * @param interceptionType
+    * @param interceptors
+    * @param targetClassInterceptorMetadata - may be null
+    * @return the chain plan
+    */
+   public static InterceptionChainPlan of(InterceptionType interceptionType, List<? extends InterceptorMetadata<?>> interceptors, InterceptorMetadata<?> targetClassInterceptorMetadata)
+   {
+      return of(interceptionType, interceptors, targetClassInterceptorMetadata, null, InvocationBackend.DEFAULT);
+   }
+
+   /**
+    * Builds the plan for invoking the given interceptors, in order, followed by the interceptor methods of the
+    * target class and by the target method. The chains executing the plan are expected to provide the interceptor
+    * instances in the order of the given interceptor list.
+    *
+    * @param interceptionType
+    * @param interceptors
+    * @param targetClassInterceptorMetadata - may be null
+    * @param targetMethod - the intercepted method, null for lifecycle callbacks
+    * @param invocationBackend - the mechanism used for invoking the interceptor methods and the target method
+    * @return the chain plan
+    */
+   public static InterceptionChainPlan of(InterceptionType interceptionType, List<? extends InterceptorMetadata<?>> interceptors, InterceptorMetadata<?> targetClassInterceptorMetadata, Method targetMethod, InvocationBackend invocationBackend)
+   {
+      return of(interceptionType, interceptors, targetClassInterceptorMetadata, targetMethod, invocationBackend, interceptors);
+   }
+
+   /**
+    * Builds the plan for invoking the given interceptors, in order, followed by the interceptor methods of the
+    * target class and by the target method. The chains executing the plan are expected to provide the interceptor
+    * instances in the order of the indexed interceptors, which must contain all the given interceptors.
+    *
+    * @param interceptionType
+    * @param interceptors
+    * @param targetClassInterceptorMetadata - may be null
+    * @param targetMethod - the intercepted method, null for lifecycle callbacks
+    * @param invocationBackend - the mechanism used for invoking the interceptor methods and the target method
+    * @param indexedInterceptors - the interceptors, in the order of their instances
+    * @return the chain plan
+    */
+   public static InterceptionChainPlan of(InterceptionType interceptionType, List<? extends InterceptorMetadata<?>> interceptors, InterceptorMetadata<?> targetClassInterceptorMetadata, Method targetMethod, InvocationBackend invocationBackend, List<? extends InterceptorMetadata<?>> indexedInterceptors)
+   {
+      return of(interceptionType, interceptors, targetClassInterceptorMetadata, targetMethod, invocationBackend, indexedInterceptors, 0);
+   }
+
+   /**
+    * Builds the plan for invoking the given interceptors, in order, followed by the interceptor methods of the
+    * target class and by the target method. If a compile threshold is given, the plan is tiered: it is executed
+    * through reflective invokers until {@link #getExecutablePlan()} has been called that many times, and then
+    * promoted to a plan using the given backend.
+    *
+    * @param interceptionType
+    * @param interceptors
+    * @param targetClassInterceptorMetadata - may be null
+    * @param targetMethod - the intercepted method, null for lifecycle callbacks
+    * @param invocationBackend - the mechanism used for invoking the interceptor methods and the target method
+    * @param indexedInterceptors - the interceptors, in the order of their instances
+    * @param compileThreshold - the number of executions before promotion, or 0 for using the backend from the start
+    * @return the chain plan
+    */
+   public static InterceptionChainPlan of(InterceptionType interceptionType, List<? extends InterceptorMetadata<?>> interceptors, InterceptorMetadata<?> targetClassInterceptorMetadata, Method targetMethod, InvocationBackend invocationBackend, List<? extends InterceptorMetadata<?>> indexedInterceptors, int compileThreshold)
+   {
+      return of(interceptionType, interceptors, targetClassInterceptorMetadata, targetMethod, invocationBackend, indexInterceptors(indexedInterceptors), compileThreshold);
+   }
+
+   /**
+    * Assigns each interceptor the index of its instance, which is its position in the given list.
+    *
+    * @param indexedInterceptors - the interceptors, in the order of their instances
+    * @return the index of each interceptor
+    */
+   static Map<InterceptorMetadata<?>, Integer> indexInterceptors(List<? extends InterceptorMetadata<?>> indexedInterceptors)
+   {
+      Map<InterceptorMetadata<?>, Integer> interceptorIndices = new HashMap<InterceptorMetadata<?>, Integer>();
+      for (int i = indexedInterceptors.size() - 1; i >= 0; i--)
+      {
+         // the first occurrence wins, as it would for List.indexOf()
+         interceptorIndices.put(indexedInterceptors.get(i), i);
+      }
+      return interceptorIndices;
+   }
+
+   /**
+    * Same as {@link #of(InterceptionType, List, InterceptorMetadata, Method, InvocationBackend, List, int)}, for
+    * interceptors whose indices have been assigned upfront by {@link #indexInterceptors(List)}.
+    */
+   static InterceptionChainPlan of(InterceptionType interceptionType, List<? extends InterceptorMetadata<?>> interceptors, InterceptorMetadata<?> targetClassInterceptorMetadata, Method targetMethod, InvocationBackend invocationBackend, Map<InterceptorMetadata<?>, Integer> interceptorIndices, int compileThreshold)
+   {
+      if (compileThreshold < 0)
+      {
+         throw new IllegalArgumentException("Compile threshold must not be negative: " + compileThreshold);
+      }
+      InvocationBackend initialBackend = compileThreshold > 0 ? InvocationBackend.REFLECTION : invocationBackend;
+      List<Object> stepComponents = new ArrayList<Object>();
+      for (InterceptorMetadata<?> interceptor : interceptors)
+      {
+         Integer interceptorIndex = interceptorIndices.get(interceptor);
+         if (interceptorIndex == null)
+         {
+            throw new IllegalArgumentException("No instance index for interceptor " + interceptor.getInterceptorReference());
+         }
+         addStepComponents(stepComponents, interceptionType, interceptor, interceptorIndex);
+      }
+      if (targetClassInterceptorMetadata != null)
+      {
+         addStepComponents(stepComponents, interceptionType, targetClassInterceptorMetadata, Step.TARGET_INSTANCE);
+      }
+      Step[] stepArray = internSteps(new StepSequence(stepComponents.toArray(), initialBackend));
+      if (compileThreshold > 0)
+      {
+         return new InterceptionChainPlan(interceptionType, stepArray, targetMethod, initialBackend, invocationBackend, compileThreshold);
+      }
+      return new InterceptionChainPlan(interceptionType, stepArray, targetMethod, invocationBackend, null, 0);
+   }
+
+   private TargetMethodBinding bind(Method method)
+   {
+      CompiledChainInvoker compiledChainInvoker = steps.length > 0 ? invocationBackend.compile(this, method) : null;
+      TargetMethodBinding binding = new TargetMethodBinding(method, invocationBackend.getTargetMethodInvoker(method), compiledChainInvoker);
+      if (compiledChainInvoker != null)
+      {
+         compiledChainInvoker.bind(this, binding.method, binding.invoker);
+      }
+      return binding;
+   }
+
+   private static void addStepComponents(List<Object> stepComponents, InterceptionType interceptionType, InterceptorMetadata<?> interceptor, int interceptorIndex)
+   {
+      for (MethodMetadata method : interceptor.getInterceptorMethods(interceptionType))
+      {
+         stepComponents.add(interceptor);
+         stepComponents.add(interceptorIndex);
+         stepComponents.add(method);
+      }
+   }
+
+   /**
+    * @return the steps of the given sequence, created by the first plan which needed them
+    */
+   private static Step[] internSteps(StepSequence stepSequence)
+   {
+      if (stepSequence.stepComponents.length == 0)
+      {
+         return NO_STEPS;
+      }
+      Step[] steps = internedSteps.get(stepSequence);
+      if (steps == null)
+      {
+         steps = stepSequence.createSteps();
+         Step[] existingSteps = internedSteps.putIfAbsent(stepSequence, steps);
+         if (existingSteps != null)
+         {
+            return existingSteps;
+         }
+      }
+      return steps;
+   }
+
+   private static int[] collectInterceptorIndices(Step[] steps)
+   {
+      int[] interceptorIndices = new int[steps.length];
+      int count = 0;
+      for (Step step : steps)
+      {
+         if (step.interceptorIndex != Step.TARGET_INSTANCE && !contains(interceptorIndices, count, step.interceptorIndex))
+         {
+            interceptorIndices[count++] = step.interceptorIndex;
+         }
+      }
+      Arrays.sort(interceptorIndices, 0, count);
+      if (count == interceptorIndices.length)
+      {
+         return interceptorIndices;
+      }
+      int[] result = new int[count];
+      System.arraycopy(interceptorIndices, 0, result, 0, count);
+      return result;
+   }
+
+   private static boolean contains(int[] values, int count, int value)
+   {
+      for (int i = 0; i < count; i++)
+      {
+         if (values[i] == value)
+         {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   /**
+    * Returns the plan to use instead of this lifecycle callback plan: the first plan built with the same steps,
+    * backends and compile threshold, which is then shared by the descriptors of all the classes having the same
+    * lifecycle callback interceptors. Plans for intercepted methods are not shared, as they are bound to their method.
+    *
+    * @return the interned plan
+    */
+   InterceptionChainPlan intern()
+   {
+      if (targetMethod != null)
+      {
+         throw new IllegalStateException("Only lifecycle callback plans can be interned");
+      }
+      LifecyclePlanKey key = new LifecyclePlanKey(this);
+      InterceptionChainPlan internedPlan = internedLifecyclePlans.putIfAbsent(key, this);
+      return internedPlan != null ? internedPlan : this;
+   }
+
+   public static InterceptionChainPlan empty(InterceptionType interceptionType)
+   {
+      return of(interceptionType, Collections.<InterceptorMetadata<?>>emptyList());
+   }
+
+   public InterceptionType getInterceptionType()
+   {
+      return interceptionType;
+   }
+
+   public int size()
+   {
+      return steps.length;
+   }
+
+   public boolean isEmpty()
+   {
+      return steps.length == 0;
+   }
+
+   /**
+    * @return the intercepted method, or null for lifecycle callbacks
+    */
+   public Method getTargetMethod()
+   {
+      return targetMethod;
+   }
+
+   /**
+    * @return the validator of the parameters set by the interceptors on the invocations of the intercepted method
+    */
+   ParameterValidator getParameterValidator()
+   {
+      ParameterValidator parameterValidator = this.parameterValidator;
+      if (parameterValidator == null)
+      {
+         parameterValidator = new ParameterValidator(targetMethod);
+         this.parameterValidator = parameterValidator;
+      }
+      return parameterValidator;
+   }
+
+   /**
+    * Returns the plan that executes the next invocation, and counts the invocation if this plan is tiered. Tiered
+    * plans return themselves until the compile threshold is reached, and their promoted plan afterwards. The
+    * promoted plan is built by the invocation that reaches the threshold, while the concurrent invocations keep
+    * executing this plan, and is then published atomically. If the promotion fails, this plan is returned from
+    * then on, and the promotion is not attempted again.
+    *
+    * @return the plan to execute
+    */
+   public InterceptionChainPlan getExecutablePlan()
+   {
+      if (executionsBeforePromotion == null)
+      {
+         return this;
+      }
+      InterceptionChainPlan promotedPlan = this.promotedPlan;
+      if (promotedPlan != null)
+      {
+         return promotedPlan;
+      }
+      if (executionsBeforePromotion.decrementAndGet() == 0)
+      {
+         promotedPlan = promoteOrKeep();
+         this.promotedPlan = promotedPlan;
+         return promotedPlan;
+      }
+      return this;
+   }
+
+   /**
+    * @return true if this plan is tiered and has been promoted
+    */
+   boolean isPromoted()
+   {
+      InterceptionChainPlan promotedPlan = this.promotedPlan;
+      return promotedPlan != null && promotedPlan != this;
+   }
+
+   /**
+    * Promotes this plan, if it is tiered, without waiting for the compile threshold to be reached.
+    */
+   void promoteEagerly()
+   {
+      // the invocations only promote the plan when they take the counter to zero, which they no longer can
+      if (executionsBeforePromotion != null && executionsBeforePromotion.getAndSet(0) > 0)
+      {
+         promotedPlan = promoteOrKeep();
+      }
+   }
+
+   /**
+    * @return the promoted plan, or this plan if the promotion fails, which must not fail the invocation that
+    * happens to trigger it
+    */
+   private InterceptionChainPlan promoteOrKeep()
+   {
+      try
+      {
+         return promote();
+      }
+      catch (Throwable t)
+      {
+         log.warn("Cannot promote the " + interceptionType + " chain plan" + (targetMethod != null ? " of " + targetMethod : "")
+               + " to the " + promotionBackend + " backend, it will keep using the " + invocationBackend + " backend", t);
+         return this;
+      }
+   }
+
+   private InterceptionChainPlan promote()
+   {
+      Object[] stepComponents = new Object[steps.length * 3];
+      for (int i = 0; i < steps.length; i++)
+      {
+         Step step = steps[i];
+         stepComponents[3 * i] = step.interceptor;
+         stepComponents[3 * i + 1] = step.interceptorIndex;
+         stepComponents[3 * i + 2] = step.method;
+      }
+      Step[] promotedSteps = internSteps(new StepSequence(stepComponents, promotionBackend));
+      // the promoted invokers are generated here rather than on their first use, so that a failure keeps this plan
+      for (Step promotedStep : promotedSteps)
+      {
+         promotedStep.getInvoker();
+      }
+      return new InterceptionChainPlan(interceptionType, promotedSteps, targetMethod, promotionBackend, null, 0);
+   }
+
+   /**
+    * @return true if the plan has been compiled into a {@link CompiledChainInvoker}
+    */
+   public boolean isCompiled()
+   {
+      TargetMethodBinding binding = getTargetMethodBinding(targetMethod);
+      return binding != null && binding.compiledChainInvoker != null;
+   }
+
+   /**
+    * @return the interceptor method invocations of the plan, in order
+    */
+   public List<Step> getSteps()
+   {
+      return Collections.unmodifiableList(Arrays.asList(steps));
+   }
+
+   /**
+    * @return the indices of the interceptor instances used by the plan, in ascending order. The array must not be
+    * modified.
+    */
+   int[] getInterceptorIndices()
+   {
+      return interceptorIndices;
+   }
+
+   /**
+    * @return the invoker of the given method, which ends the chains of this plan, or null if there is no such method
+    */
+   TargetMethodInvoker getTargetMethodInvoker(Method targetMethod)
+   {
+      TargetMethodBinding binding = getTargetMethodBinding(targetMethod);
+      return binding != null ? binding.invoker : null;
+   }
+
+   private TargetMethodBinding getTargetMethodBinding(Method method)
+   {
+      if (method == null)
+      {
+         return null;
+      }
+      TargetMethodBinding binding = targetMethodBindings.get(method);
+      if (binding == null)
+      {
+         // resolved without locking: concurrent first invocations may each resolve a binding, the first one is kept
+         binding = bind(method);
+         synchronized (this)
+         {
+            TargetMethodBinding existingBinding = targetMethodBindings.get(method);
+            if (existingBinding != null)
+            {
+               return existingBinding;
+            }
+            // copy on write, as a plan ends with its intercepted method or with the super-accessors of a few proxy classes
+            Map<Method, TargetMethodBinding> newTargetMethodBindings = new IdentityHashMap<Method, TargetMethodBinding>(targetMethodBindings);
+            newTargetMethodBindings.put(method, binding);
+            targetMethodBindings = newTargetMethodBindings;
+         }
+      }
+      return binding;
+   }
+
+   /**
+    * Creates a chain that executes this plan, driving the compiled form of the plan for the given target method
+    * if there is one, or walking the steps of the plan otherwise. Empty plans need no chain, see
+    * {@link #invokeTarget(Object, Method, Object[])}.
+    *
+    * @param interceptorInstances - the interceptor instances, in the order of the indexed interceptors of the plan
+    * @param target
+    * @param targetMethod - the method invoked at the end of the chain, either the intercepted method or a method
+    * that invokes its implementation directly (e.g. the super-accessor of a subclassing proxy)
+    * @return a new interception chain
+    */
+   public InterceptionChain newChain(Object[] interceptorInstances, Object target, Method targetMethod)
+   {
+      TargetMethodBinding binding = getTargetMethodBinding(targetMethod);
+      if (binding != null && binding.compiledChainInvoker != null)
+      {
+         return new CompiledInterceptionChain(binding.compiledChainInvoker, steps.length, interceptorInstances, target);
+      }
+      // the binding has just been looked up, so the chain does not look up the target method invoker again
+      return new SimpleInterceptionChain(this, interceptorInstances, target, targetMethod, binding != null ? binding.invoker : null);
+   }
+
+   /**
+    * Creates a chain for executing this plan which ends with the given invoker, instead of the target method invoker
+    * resolved by the plan.
+    *
+    * @param interceptorInstances
+    * @param target
+    * @param targetMethod
+    * @param targetMethodInvoker
+    * @return the chain
+    */
+   InterceptionChain newChain(Object[] interceptorInstances, Object target, Method targetMethod, TargetMethodInvoker targetMethodInvoker)
+   {
+      return new SimpleInterceptionChain(this, interceptorInstances, target, targetMethod, targetMethodInvoker);
+   }
+
+   /**
+    * Invokes the target method without going through a chain, which is possible if the plan has no steps.
+    *
+    * @param target
+    * @param targetMethod
+    * @param parameters
+    * @return the result of the target method, or null if there is no target method
+    */
+   public Object invokeTarget(Object target, Method targetMethod, Object[] parameters) throws Throwable
+   {
+      return SimpleInterceptionChain.invokeTarget(getTargetMethodInvoker(targetMethod), target, targetMethod, parameters);
+   }
+
+   Step getStep(int position)
+   {
+      return steps[position];
+   }
+
+   /**
+    * Identifies the steps of a plan: the interceptor, instance index and interceptor method of each step, and the
+    * backend through which the interceptor methods are invoked
+    */
+   private static final class StepSequence
+   {
+      private final Object[] stepComponents;
+
+      private final InvocationBackend invocationBackend;
+
+      private final int hashCode;
+
+      StepSequence(Object[] stepComponents, InvocationBackend invocationBackend)
+      {
+         this.stepComponents = stepComponents;
+         this.invocationBackend = invocationBackend;
+         this.hashCode = 31 * Arrays.hashCode(stepComponents) + invocationBackend.hashCode();
+      }
+
+      Step[] createSteps()
+      {
+         Step[] steps = new Step[stepComponents.length / 3];
+         for (int i = 0; i < steps.length; i++)
+         {
+            steps[i] = new Step((InterceptorMetadata<?>) stepComponents[3 * i], (Integer) stepComponents[3 * i + 1], (MethodMetadata) stepComponents[3 * i + 2], invocationBackend);
+         }
+         return steps;
+      }
+
+      @Override
+      public boolean equals(Object o)
+      {
+         if (this == o)
+         {
+            return true;
+         }
+         if (!(o instanceof StepSequence))
+         {
+            return false;
+         }
+         StepSequence that = (StepSequence) o;
+         return hashCode == that.hashCode && invocationBackend == that.invocationBackend && Arrays.equals(stepComponents, that.stepComponents);
+      }
+
+      @Override
+      public int hashCode()
+      {
+         return hashCode;
+      }
+   }
+
+   private static final class LifecyclePlanKey
+   {
+      private final InterceptionType interceptionType;
+
+      private final Step[] steps;
+
+      private final InvocationBackend invocationBackend;
+
+      private final InvocationBackend promotionBackend;
+
+      private final int compileThreshold;
+
+      LifecyclePlanKey(InterceptionChainPlan chainPlan)
+      {
+         this.interceptionType = chainPlan.interceptionType;
+         this.steps = chainPlan.steps;
+         this.invocationBackend = chainPlan.invocationBackend;
+         this.promotionBackend = chainPlan.promotionBackend;
+         this.compileThreshold = chainPlan.compileThreshold;
+      }
+
+      @Override
+      public boolean equals(Object o)
+      {
+         if (!(o instanceof LifecyclePlanKey))
+         {
+            return false;
+         }
+         LifecyclePlanKey that = (LifecyclePlanKey) o;
+         // steps are interned, so they are compared by identity
+         return interceptionType == that.interceptionType && steps == that.steps && invocationBackend == that.invocationBackend
+               && promotionBackend == that.promotionBackend && compileThreshold == that.compileThreshold;
+      }
+
+      @Override
+      public int hashCode()
+      {
+         return 31 * (31 * interceptionType.hashCode() + System.identityHashCode(steps)) + invocationBackend.hashCode();
+      }
+   }
+
+   /**
+    * The invokers of a method that ends the chains of the plan.
+    */
+   private static final class TargetMethodBinding
+   {
+      private final Method method;
+
+      private final TargetMethodInvoker invoker;
+
+      private final CompiledChainInvoker compiledChainInvoker;
+
+      TargetMethodBinding(Method method, TargetMethodInvoker invoker, CompiledChainInvoker compiledChainInvoker)
+      {
+         this.method = method;
+         this.invoker = invoker;
+         this.compiledChainInvoker = compiledChainInvoker;
+      }
+   }
+
+   /**
+    * A single interceptor method invocation from the plan. The interceptor method is only resolved, and its invoker
+    * created, when the step is first invoked, so that building a plan does not load the classes of metadata which
+    * is {@link MethodMetadata#isDeferringReflection() deferring reflection}.
+    */
+   public static final class Step
+   {
+      static final int TARGET_INSTANCE = -1;
+
+      private final InterceptorMetadata<?> interceptor;
+
+      private final int interceptorIndex;
+
+      private final MethodMetadata method;
+
+      private final InvocationBackend invocationBackend;
+
+      // created on first use, possibly more than once by concurrent invocations, which then create equivalent invokers
+      private volatile InterceptorMethodInvoker invoker;
+
+      private final boolean targetClass;
+
+      private final boolean acceptingInvocationContext;
+
+      Step(InterceptorMetadata<?> interceptor, int interceptorIndex, MethodMetadata method, InvocationBackend invocationBackend)
+      {
+         this.interceptor = interceptor;
+         this.interceptorIndex = interceptorIndex;
+         this.method = method;
+         this.invocationBackend = invocationBackend;
+         this.targetClass = interceptor.isTargetClass();
+         this.acceptingInvocationContext = countParameters(method) == 1;
+      }
+
+      private static int countParameters(MethodMetadata method)
+      {
+         MethodReference methodReference = method.getMethodReference();
+         if (methodReference != null)
+         {
+            return methodReference.getMethodSignature().getArgumentTypeNames().length;
+         }
+         return method.getJavaMethod().getParameterTypes().length;
+      }
+
+      public InterceptorMetadata<?> getInterceptor()
+      {
+         return interceptor;
+      }
+
+      /**
+       * @return the index of the interceptor instance, or -1 if the method is invoked on the target instance
+       */
+      public int getInterceptorIndex()
+      {
+         return interceptorIndex;
+      }
+
+      public MethodMetadata getMethod()
+      {
+         return method;
+      }
+
+      /**
+       * @return true if the interceptor method belongs to the target class itself
+       */
+      public boolean isTargetClass()
+      {
+         return targetClass;
+      }
+
+      /**
+       * @return false for the lifecycle callbacks defined on the target class, which take no arguments
+       */
+      public boolean isAcceptingInvocationContext()
+      {
+         return acceptingInvocationContext;
+      }
+
+      /**
+       * @return the instance on which the interceptor method must be invoked
+       */
+      Object getInstance(Object target, Object[] interceptorInstances)
+      {
+         return targetClass ? target : interceptorInstances[interceptorIndex];
+      }
+
+      /**
+       * @return the invoker of the interceptor method, which is created and the method resolved on the first call
+       */
+      InterceptorMethodInvoker getInvoker()
+      {
+         InterceptorMethodInvoker invoker = this.invoker;
+         if (invoker == null)
+         {
+            invoker = invocationBackend.getInterceptorMethodInvoker(method.getJavaMethod());
+            this.invoker = invoker;
+         }
+         return invoker;
+      }
+
+      Object invoke(Object instance, InvocationContext invocationContext) throws Exception
+      {
+         return getInvoker().invoke(instance, invocationContext);
+      }
+
+      @Override
+      public String toString()
+      {
+         return method.toString();
+      }
+   }
+}
@@ -0,0 +1,637 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.interceptor.proxy;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.collect.MapMaker;
+import org.jboss.interceptor.builder.MethodSignature;
+import org.jboss.interceptor.reader.InterceptorMetadataUtils;
+import org.jboss.interceptor.reader.cache.MetadataCachingReader;
+import org.jboss.interceptor.spi.instance.InterceptorInstantiator;
+import org.jboss.interceptor.spi.metadata.ClassMetadata;
+import org.jboss.interceptor.spi.metadata.InterceptorMetadata;
+import org.jboss.interceptor.spi.model.InterceptionModel;
+import org.jboss.interceptor.spi.model.InterceptionType;
+import org.jboss.interceptor.spi.model.InterceptionTypeRegistry;
+import org.jboss.interceptor.spi.model.StatelessInterceptorsModel;
+import org.jboss.interceptor.util.InterceptionUtils;
+import org.jboss.interceptor.util.ReflectionUtils;
+
+/**
+ * Describes how the instances of a given class are intercepted under a given {@link InterceptionModel}. It holds
+ * the target class interceptor metadata, the index of the interceptors of the model, the {@link InterceptionChainPlan}s
+ * for the lifecycle callbacks, computed upfront, and the plans for the intercepted methods, computed on first
+ * invocation and looked up by {@link Method} identity afterwards.
+ *
+ * A descriptor is immutable from the point of view of its clients and is meant to be shared by all the
+ * {@link InterceptorMethodHandler}s created for the same class and model, which only need to hold the interceptor
+ * instances, in the order given by {@link #getInterceptors()}. The descriptors are shared between all the handlers
+ * and proxy creators that ask for the same class, model, backend, reader and compile threshold, for as long as any
+ * of them uses the descriptor: they are registered through weak references, and so are their classes, models and
+ * readers, so that a descriptor goes away along with the class loader of the classes it describes. Since plans are
+ * computed once, the model is expected not to change after the first proxy has been created for it. The interceptors declared stateless by
+ * the model are instantiated once per descriptor, and their instances are shared by all the handlers.
+ *
+ * If a compile threshold is set, the plans are tiered: they start out with reflective invokers and are promoted to
+ * the invocation backend once they have been executed that many times, so that no invoker is generated for the
+ * methods that are seldom invoked.
+ *
+ * The lifecycle callback plans are shared with the descriptors of the other classes with the same lifecycle callback
+ * interceptors, provided that their target class interceptor metadata comes from the same
+ * {@link MetadataCachingReader}.
+ *
+ * The model of live instances can be replaced through an {@link InterceptionDescriptorReference}.
+ *
+ * Descriptors are serialized as a reference to their class, model, backend and compile threshold, and computed
+ * again on deserialization.
+ */
+public class InterceptionDescriptor implements Serializable
+{
+   private static final long serialVersionUID = 1L;
+
+   private static final ConcurrentMap<DescriptorKey, DescriptorReference> descriptors = new ConcurrentHashMap<DescriptorKey, DescriptorReference>();
+
+   private static final ReferenceQueue<InterceptionDescriptor> referenceQueue = new ReferenceQueue<InterceptionDescriptor>();
+
+   private final ClassMetadata<?> targetClassMetadata;
+
+   private final InterceptionModel<ClassMetadata<?>, ?> interceptionModel;
+
+   private final InterceptorMetadata<?> targetClassInterceptorMetadata;
+
+   private final InvocationBackend invocationBackend;
+
+   private final int compileThreshold;
+
+   private final List<InterceptorMetadata<?>> interceptors;
+
+   private final Map<InterceptorMetadata<?>, Integer> interceptorIndices;
+
+   private final InterceptionChainPlan[] lifecycleChainPlans;
+
+   /**
+    * Whether the interceptor at each index is stateless, or null if none is
+    */
+   private final boolean[] statelessInterceptors;
+
+   /**
+    * The instances of the stateless interceptors, at their index, for each instantiator which has created some, or
+    * null if no interceptor is stateless. The instantiators are weakly referenced.
+    */
+   private final ConcurrentMap<InterceptorInstantiator<?, ?>, Object[]> sharedInterceptorInstances;
+
+   private volatile Map<Method, InterceptionChainPlan> methodChainPlans;
+
+   private volatile Map<Method, MethodDispatch> methodDispatches;
+
+   InterceptionDescriptor(ClassMetadata<?> targetClassMetadata, InterceptionModel<ClassMetadata<?>, ?> interceptionModel, InvocationBackend invocationBackend, InterceptorMetadata<?> targetClassInterceptorMetadata)
+   {
+      this(targetClassMetadata, interceptionModel, invocationBackend, 0, targetClassInterceptorMetadata);
+   }
+
+   InterceptionDescriptor(ClassMetadata<?> targetClassMetadata, InterceptionModel<ClassMetadata<?>, ?> interceptionModel, InvocationBackend invocationBackend, int compileThreshold, InterceptorMetadata<?> targetClassInterceptorMetadata)
+   {
+      this.targetClassMetadata = targetClassMetadata;
+      this.interceptionModel = interceptionModel;
+      this.invocationBackend = invocationBackend;
+      this.compileThreshold = compileThreshold;
+      this.targetClassInterceptorMetadata = targetClassInterceptorMetadata;
+      this.interceptors = Collections.unmodifiableList(new ArrayList<InterceptorMetadata<?>>(interceptionModel.getAllInterceptors()));
+      this.interceptorIndices = InterceptionChainPlan.indexInterceptors(interceptors);
+      this.statelessInterceptors = findStatelessInterceptors(interceptionModel, interceptors);
+      this.sharedInterceptorInstances = statelessInterceptors != null ? new MapMaker().weakKeys().<InterceptorInstantiator<?, ?>, Object[]>makeMap() : null;
+      this.lifecycleChainPlans = new InterceptionChainPlan[InterceptionType.values().length];
+      for (InterceptionType interceptionType : InterceptionType.values())
+      {
+         if (interceptionType.isLifecycleCallback())
+         {
+            lifecycleChainPlans[interceptionType.ordinal()] = InterceptionChainPlan.of(interceptionType, interceptionModel.getInterceptors(interceptionType), targetClassInterceptorMetadata, null, invocationBackend, interceptorIndices, compileThreshold).intern();
+         }
+      }
+      this.methodChainPlans = new IdentityHashMap<Method, InterceptionChainPlan>();
+      this.methodDispatches = new IdentityHashMap<Method, MethodDispatch>();
+   }
+
+   private static boolean[] findStatelessInterceptors(InterceptionModel<ClassMetadata<?>, ?> interceptionModel, List<InterceptorMetadata<?>> interceptors)
+   {
+      if (!(interceptionModel instanceof StatelessInterceptorsModel))
+      {
+         return null;
+      }
+      StatelessInterceptorsModel<ClassMetadata<?>, ?> statelessInterceptorsModel = (StatelessInterceptorsModel<ClassMetadata<?>, ?>) interceptionModel;
+      boolean[] statelessInterceptors = null;
+      for (int i = 0; i < interceptors.size(); i++)
+      {
+         if (statelessInterceptorsModel.isStateless(interceptors.get(i)))
+         {
+            if (statelessInterceptors == null)
+            {
+               statelessInterceptors = new boolean[interceptors.size()];
+            }
+            statelessInterceptors[i] = true;
+         }
+      }
+      return statelessInterceptors;
+   }
+
+   /**
+    * Returns the descriptor for the given class and model.
+    *
+    * @param targetClassMetadata
+    * @param interceptionModel
+    * @return the interception descriptor
+    */
+   public static InterceptionDescriptor of(ClassMetadata<?> targetClassMetadata, InterceptionModel<ClassMetadata<?>, ?> interceptionModel)
+   {
+      return of(targetClassMetadata, interceptionModel, InvocationBackend.DEFAULT);
+   }
+
+   /**
+    * Returns the descriptor for the given class, model and invocation backend.
+    *
+    * @param targetClassMetadata
+    * @param interceptionModel
+    * @param invocationBackend
+    * @return the interception descriptor
+    */
+   public static InterceptionDescriptor of(ClassMetadata<?> targetClassMetadata, InterceptionModel<ClassMetadata<?>, ?> interceptionModel, InvocationBackend invocationBackend)
+   {
+      return of(targetClassMetadata, interceptionModel, invocationBackend, null);
+   }
+
+   /**
+    * Returns the descriptor for the given class, model and invocation backend. The target class interceptor
+    * metadata is obtained from the given reader, so that it is shared with the other users of the reader.
+    *
+    * @param targetClassMetadata
+    * @param interceptionModel
+    * @param invocationBackend
+    * @param metadataCachingReader - may be null, in which case the target class metadata is read directly
+    * @return the interception descriptor
+    */
+   public static InterceptionDescriptor of(ClassMetadata<?> targetClassMetadata, InterceptionModel<ClassMetadata<?>, ?> interceptionModel, InvocationBackend invocationBackend, MetadataCachingReader metadataCachingReader)
+   {
+      return of(targetClassMetadata, interceptionModel, invocationBackend, metadataCachingReader, 0);
+   }
+
+   /**
+    * Returns the descriptor for the given class, model, invocation backend and compile threshold, which is computed
+    * unless a descriptor of the same class, model, backend, reader and compile threshold is still in use.
+    *
+    * @param targetClassMetadata
+    * @param interceptionModel
+    * @param invocationBackend
+    * @param metadataCachingReader - may be null, in which case the target class metadata is read directly
+    * @param compileThreshold - the number of executions after which the plans are promoted to the invocation backend, or 0 for no tiering
+    * @return the interception descriptor
+    */
+   public static InterceptionDescriptor of(ClassMetadata<?> targetClassMetadata, InterceptionModel<ClassMetadata<?>, ?> interceptionModel, InvocationBackend invocationBackend, MetadataCachingReader metadataCachingReader, int compileThreshold)
+   {
+      removeReclaimedDescriptors();
+      DescriptorKey key = new DescriptorKey(targetClassMetadata, interceptionModel, invocationBackend, metadataCachingReader, compileThreshold);
+      DescriptorReference descriptorReference = descriptors.get(key);
+      InterceptionDescriptor descriptor = descriptorReference != null ? descriptorReference.get() : null;
+      if (descriptor != null)
+      {
+         return descriptor;
+      }
+      InterceptorMetadata<?> targetClassInterceptorMetadata = metadataCachingReader != null ?
+            metadataCachingReader.getTargetClassInterceptorMetadata(targetClassMetadata) : InterceptorMetadataUtils.readMetadataForTargetClass(targetClassMetadata);
+      descriptor = new InterceptionDescriptor(targetClassMetadata, interceptionModel, invocationBackend, compileThreshold, targetClassInterceptorMetadata);
+      DescriptorReference newDescriptorReference = new DescriptorReference(descriptor, key);
+      // of the descriptors computed concurrently for the same key, the one registered first is used
+      while (true)
+      {
+         descriptorReference = descriptors.putIfAbsent(key, newDescriptorReference);
+         if (descriptorReference == null)
+         {
+            return descriptor;
+         }
+         InterceptionDescriptor registeredDescriptor = descriptorReference.get();
+         if (registeredDescriptor != null)
+         {
+            return registeredDescriptor;
+         }
+         if (descriptors.replace(key, descriptorReference, newDescriptorReference))
+         {
+            return descriptor;
+         }
+      }
+   }
+
+   private static void removeReclaimedDescriptors()
+   {
+      Reference<? extends InterceptionDescriptor> reference;
+      while ((reference = referenceQueue.poll()) != null)
+      {
+         DescriptorReference descriptorReference = (DescriptorReference) reference;
+         descriptors.remove(descriptorReference.key, descriptorReference);
+      }
+   }
+
+   public ClassMetadata<?> getTargetClassMetadata()
+   {
+      return targetClassMetadata;
+   }
+
+   public InterceptionModel<ClassMetadata<?>, ?> getInterceptionModel()
+   {
+      return interceptionModel;
+   }
+
+   public InterceptorMetadata<?> getTargetClassInterceptorMetadata()
+   {
+      return targetClassInterceptorMetadata;
+   }
+
+   public InvocationBackend getInvocationBackend()
+   {
+      return invocationBackend;
+   }
+
+   public int getCompileThreshold()
+   {
+      return compileThreshold;
+   }
+
+   /**
+    * @return the interceptors of the model, in the order in which their instances are expected by the chains
+    */
+   public List<InterceptorMetadata<?>> getInterceptors()
+   {
+      return interceptors;
+   }
+
+   /**
+    * @param interceptor - an interceptor of the model
+    * @return the index of the instance of the interceptor in the arrays created by {@link #createInterceptorInstances(InterceptorInstantiator)}
+    * @throws IllegalArgumentException if the interceptor does not belong to the model
+    */
+   public int getInterceptorIndex(InterceptorMetadata<?> interceptor)
+   {
+      Integer interceptorIndex = interceptorIndices.get(interceptor);
+      if (interceptorIndex == null)
+      {
+         throw new IllegalArgumentException("No instance index for interceptor " + interceptor.getInterceptorReference());
+      }
+      return interceptorIndex;
+   }
+
+   /**
+    * Creates the interceptor instances for a new intercepted instance, in the order given by {@link #getInterceptors()}.
+    * Stateless interceptors are not instantiated again: the instances created for the first intercepted instance
+    * by the same instantiator are reused.
+    *
+    * @param interceptorInstantiator
+    * @return the interceptor instances
+    */
+   public Object[] createInterceptorInstances(InterceptorInstantiator<?, ?> interceptorInstantiator)
+   {
+      Object[] interceptorInstances = new Object[interceptors.size()];
+      for (int i = 0; i < interceptorInstances.length; i++)
+      {
+         interceptorInstances[i] = createInterceptorInstance(i, interceptorInstantiator);
+      }
+      return interceptorInstances;
+   }
+
+   /**
+    * Creates the instance of a single interceptor for a new intercepted instance, or returns the shared one if the
+    * interceptor is stateless.
+    *
+    * @param interceptorIndex - the index of the interceptor in {@link #getInterceptors()}
+    * @param interceptorInstantiator
+    * @return the interceptor instance
+    */
+   public Object createInterceptorInstance(int interceptorIndex, InterceptorInstantiator<?, ?> interceptorInstantiator)
+   {
+      if (statelessInterceptors != null && statelessInterceptors[interceptorIndex])
+      {
+         return getSharedInterceptorInstances(interceptorInstantiator)[interceptorIndex];
+      }
+      InterceptorMetadata interceptorMetadata = interceptors.get(interceptorIndex);
+      return interceptorInstantiator.createFor(interceptorMetadata.getInterceptorReference());
+   }
+
+   private Object[] getSharedInterceptorInstances(InterceptorInstantiator<?, ?> interceptorInstantiator)
+   {
+      Object[] interceptorInstances = sharedInterceptorInstances.get(interceptorInstantiator);
+      if (interceptorInstances == null)
+      {
+         synchronized (this)
+         {
+            interceptorInstances = sharedInterceptorInstances.get(interceptorInstantiator);
+            if (interceptorInstances == null)
+            {
+               interceptorInstances = new Object[interceptors.size()];
+               for (int i = 0; i < interceptorInstances.length; i++)
+               {
+                  if (statelessInterceptors[i])
+                  {
+                     InterceptorMetadata interceptorMetadata = interceptors.get(i);
+                     interceptorInstances[i] = interceptorInstantiator.createFor(interceptorMetadata.getInterceptorReference());
+                  }
+               }
+               sharedInterceptorInstances.put(interceptorInstantiator, interceptorInstances);
+            }
+         }
+      }
+      return interceptorInstances;
+   }
+
+   /**
+    * @param interceptionType - a lifecycle callback interception type
+    * @return the chain plan for the lifecycle callback
+    */
+   public InterceptionChainPlan getChainPlan(InterceptionType interceptionType)
+   {
+      if (!interceptionType.isLifecycleCallback())
+      {
+         throw new IllegalArgumentException("Around-invoke and around-timeout interceptors are defined only for a given method");
+      }
+      return lifecycleChainPlans[interceptionType.ordinal()];
+   }
+
+   /**
+    * @param interceptionType - {@link InterceptionType#AROUND_INVOKE} or {@link InterceptionType#AROUND_TIMEOUT}
+    * @param method - the intercepted method
+    * @return the chain plan for the method
+    */
+   public InterceptionChainPlan getChainPlan(InterceptionType interceptionType, Method method)
+   {
+      InterceptionChainPlan chainPlan = methodChainPlans.get(method);
+      if (chainPlan != null && chainPlan.getInterceptionType() == interceptionType)
+      {
+         return chainPlan;
+      }
+      if (interceptionType.isLifecycleCallback())
+      {
+         throw new IllegalArgumentException("On a lifecycle callback, the associated method must be null");
+      }
+      chainPlan = computeChainPlan(interceptionType, method);
+      synchronized (this)
+      {
+         // copy on write: lookups never lock and the set of intercepted methods is bounded
+         Map<Method, InterceptionChainPlan> newMethodChainPlans = new IdentityHashMap<Method, InterceptionChainPlan>(methodChainPlans);
+         newMethodChainPlans.put(method, chainPlan);
+         methodChainPlans = newMethodChainPlans;
+      }
+      return chainPlan;
+   }
+
+   private InterceptionChainPlan computeChainPlan(InterceptionType interceptionType, Method method)
+   {
+      return InterceptionChainPlan.of(interceptionType, interceptionModel.getInterceptors(interceptionType, MethodSignature.of(method)), targetClassInterceptorMetadata, method, invocationBackend, interceptorIndices, compileThreshold);
+   }
+
+   /**
+    * Computes the chain plans and the dispatch decisions of the methods that have been invoked under the given
+    * descriptor, which this one replaces. The plans whose predecessor has been promoted are promoted right away.
+    *
+    * @param previousDescriptor - a descriptor of the same class
+    */
+   void prepareChainPlans(InterceptionDescriptor previousDescriptor)
+   {
+      Map<Method, InterceptionChainPlan> preparedChainPlans = new IdentityHashMap<Method, InterceptionChainPlan>();
+      for (Map.Entry<Method, InterceptionChainPlan> entry : previousDescriptor.methodChainPlans.entrySet())
+      {
+         InterceptionChainPlan previousChainPlan = entry.getValue();
+         InterceptionChainPlan chainPlan = computeChainPlan(previousChainPlan.getInterceptionType(), entry.getKey());
+         if (previousChainPlan.isPromoted())
+         {
+            chainPlan.promoteEagerly();
+         }
+         preparedChainPlans.put(entry.getKey(), chainPlan);
+      }
+      synchronized (this)
+      {
+         // the plans computed meanwhile by this descriptor, if already in use, are kept
+         preparedChainPlans.putAll(methodChainPlans);
+         methodChainPlans = preparedChainPlans;
+         Map<Method, MethodDispatch> newMethodDispatches = new IdentityHashMap<Method, MethodDispatch>(previousDescriptor.methodDispatches);
+         newMethodDispatches.putAll(methodDispatches);
+         methodDispatches = newMethodDispatches;
+      }
+   }
+
+   /**
+    * Returns how invocations of the given method are dispatched by the {@link InterceptorMethodHandler}s of this
+    * descriptor. The decision is taken once per {@link Method}, which is also made accessible at that point.
+    *
+    * @param method - a method invoked on a proxy
+    * @return the dispatch decision for the method
+    */
+   public MethodDispatch getMethodDispatch(Method method)
+   {
+      MethodDispatch methodDispatch = methodDispatches.get(method);
+      if (methodDispatch != null)
+      {
+         return methodDispatch;
+      }
+      ReflectionUtils.ensureAccessible(method);
+      methodDispatch = MethodDispatch.of(method);
+      synchronized (this)
+      {
+         Map<Method, MethodDispatch> newMethodDispatches = new IdentityHashMap<Method, MethodDispatch>(methodDispatches);
+         newMethodDispatches.put(method, methodDispatch);
+         methodDispatches = newMethodDispatches;
+      }
+      return methodDispatch;
+   }
+
+   private Object writeReplace() throws ObjectStreamException
+   {
+      return new SerializedForm(targetClassMetadata, interceptionModel, invocationBackend, compileThreshold);
+   }
+
+   private static class SerializedForm implements Serializable
+   {
+      private static final long serialVersionUID = 1L;
+
+      private final ClassMetadata<?> targetClassMetadata;
+
+      private final InterceptionModel<ClassMetadata<?>, ?> interceptionModel;
+
+      private final InvocationBackend invocationBackend;
+
+      private final int compileThreshold;
+
+      SerializedForm(ClassMetadata<?> targetClassMetadata, InterceptionModel<ClassMetadata<?>, ?> interceptionModel, InvocationBackend invocationBackend, int compileThreshold)
+      {
+         this.targetClassMetadata = targetClassMetadata;
+         this.interceptionModel = interceptionModel;
+         this.invocationBackend = invocationBackend;
+         this.compileThreshold = compileThreshold;
+      }
+
+      private Object readResolve() throws ObjectStreamException
+      {
+         return InterceptionDescriptor.of(targetClassMetadata, interceptionModel, invocationBackend, null, compileThreshold);
+      }
+   }
+
+   /**
+    * Identifies the descriptors that can be shared. The class metadata is compared with {@link Object#equals(Object)},
+    * the model and the reader by identity. All of them are held weakly, as the registered descriptor keeps them
+    * reachable for as long as it is in use.
+    */
+   private static final class DescriptorKey
+   {
+      private final WeakReference<ClassMetadata<?>> targetClassMetadata;
+
+      private final WeakReference<InterceptionModel<ClassMetadata<?>, ?>> interceptionModel;
+
+      private final WeakReference<MetadataCachingReader> metadataCachingReader;
+
+      private final InvocationBackend invocationBackend;
+
+      private final int compileThreshold;
+
+      private final int hashCode;
+
+      DescriptorKey(ClassMetadata<?> targetClassMetadata, InterceptionModel<ClassMetadata<?>, ?> interceptionModel, InvocationBackend invocationBackend, MetadataCachingReader metadataCachingReader, int compileThreshold)
+      {
+         this.targetClassMetadata = new WeakReference<ClassMetadata<?>>(targetClassMetadata);
+         this.interceptionModel = new WeakReference<InterceptionModel<ClassMetadata<?>, ?>>(interceptionModel);
+         this.metadataCachingReader = metadataCachingReader != null ? new WeakReference<MetadataCachingReader>(metadataCachingReader) : null;
+         this.invocationBackend = invocationBackend;
+         this.compileThreshold = compileThreshold;
+         int hashCode = targetClassMetadata.hashCode();
+         hashCode = 31 * hashCode + System.identityHashCode(interceptionModel);
+         hashCode = 31 * hashCode + System.identityHashCode(metadataCachingReader);
+         hashCode = 31 * hashCode + invocationBackend.hashCode();
+         this.hashCode = 31 * hashCode + compileThreshold;
+      }
+
+      @Override
+      public boolean equals(Object o)
+      {
+         if (this == o)
+         {
+            return true;
+         }
+         if (!(o instanceof DescriptorKey))
+         {
+            return false;
+         }
+         DescriptorKey that = (DescriptorKey) o;
+         if (hashCode != that.hashCode || invocationBackend != that.invocationBackend || compileThreshold != that.compileThreshold)
+         {
+            return false;
+         }
+         // the keys whose referents have been reclaimed are only equal to themselves
+         if (metadataCachingReader == null || that.metadataCachingReader == null)
+         {
+            if (metadataCachingReader != that.metadataCachingReader)
+            {
+               return false;
+            }
+         }
+         else if (metadataCachingReader.get() == null || metadataCachingReader.get() != that.metadataCachingReader.get())
+         {
+            return false;
+         }
+         ClassMetadata<?> targetClass = targetClassMetadata.get();
+         InterceptionModel<ClassMetadata<?>, ?> model = interceptionModel.get();
+         return targetClass != null && model != null && model == that.interceptionModel.get() && targetClass.equals(that.targetClassMetadata.get());
+      }
+
+      @Override
+      public int hashCode()
+      {
+         return hashCode;
+      }
+   }
+
+   private static final class DescriptorReference extends WeakReference<InterceptionDescriptor>
+   {
+      private final DescriptorKey key;
+
+      DescriptorReference(InterceptionDescriptor descriptor, DescriptorKey key)
+      {
+         super(descriptor, referenceQueue);
+         this.key = key;
+      }
+   }
+
+   /**
+    * The way a method invoked on a proxy is handled.
+    */
+   public static enum MethodDispatch
+   {
+      /**
+       * The method is delegated to the target instance, or to the superclass for subclassing proxies
+       */
+      NOT_INTERCEPTED(null),
+      POST_CONSTRUCT(InterceptionType.POST_CONSTRUCT),
+      PRE_DESTROY(InterceptionType.PRE_DESTROY),
+      AROUND_INVOKE(InterceptionType.AROUND_INVOKE),
+      AROUND_TIMEOUT(InterceptionType.AROUND_TIMEOUT);
+
+      private final InterceptionType interceptionType;
+
+      MethodDispatch(InterceptionType interceptionType)
+      {
+         this.interceptionType = interceptionType;
+      }
+
+      /**
+       * @return the interception type applied to the method, or null if the method is not intercepted
+       */
+      public InterceptionType getInterceptionType()
+      {
+         return interceptionType;
+      }
+
+      static MethodDispatch of(Method method)
+      {
+         if (method.getDeclaringClass().equals(LifecycleMixin.class))
+         {
+            if (method.getName().equals(InterceptionUtils.POST_CONSTRUCT))
+            {
+               return POST_CONSTRUCT;
+            }
+            else if (method.getName().equals(InterceptionUtils.PRE_DESTROY))
+            {
+               return PRE_DESTROY;
+            }
+         }
+         if (!InterceptionUtils.isInterceptionCandidate(method))
+         {
+            return NOT_INTERCEPTED;
+         }
+         if (InterceptionTypeRegistry.isSupported(InterceptionType.AROUND_TIMEOUT) && method.isAnnotationPresent(InterceptionTypeRegistry.getAnnotationClass(InterceptionType.AROUND_TIMEOUT)))
+         {
+            return AROUND_TIMEOUT;
+         }
+         return AROUND_INVOKE;
+      }
+   }
+}
@@ -0,0 +1,101 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.interceptor.proxy;
+
+import org.jboss.interceptor.reader.cache.MetadataCachingReader;
+import org.jboss.interceptor.spi.metadata.ClassMetadata;
+import org.jboss.interceptor.spi.model.InterceptionModel;
+
+/**
+ * Holds the current {@link InterceptionDescriptor} of a class, through which the interception model of the
+ * instances of the class can be replaced while they are in use. The reference is shared by the
+ * {@link InterceptorMethodHandler}s created for the class, which read it once per invocation and execute the whole
+ * invocation with the descriptor they have read.
+ *
+ * A new model is published atomically, with the chain plans of the methods invoked under the previous model already
+ * computed for it, so that the invocations that follow find them ready. The invocations in progress complete with
+ * the plans of the previous model.
+ */
+public final class InterceptionDescriptorReference
+{
+   private final MetadataCachingReader metadataCachingReader;
+
+   private volatile InterceptionDescriptor interceptionDescriptor;
+
+   private int version;
+
+   public InterceptionDescriptorReference(InterceptionDescriptor interceptionDescriptor)
+   {
+      this(interceptionDescriptor, null);
+   }
+
+   /**
+    * @param interceptionDescriptor - the initial descriptor
+    * @param metadataCachingReader - the reader from which the descriptors of the new models obtain the target class interceptor metadata, may be null
+    */
+   public InterceptionDescriptorReference(InterceptionDescriptor interceptionDescriptor, MetadataCachingReader metadataCachingReader)
+   {
+      if (interceptionDescriptor == null)
+      {
+         throw new IllegalArgumentException("Interception descriptor must not be null");
+      }
+      this.interceptionDescriptor = interceptionDescriptor;
+      this.metadataCachingReader = metadataCachingReader;
+   }
+
+   /**
+    * @return the current descriptor
+    */
+   public InterceptionDescriptor get()
+   {
+      return interceptionDescriptor;
+   }
+
+   /**
+    * @return the number of models published after the initial one
+    */
+   public synchronized int getVersion()
+   {
+      return version;
+   }
+
+   /**
+    * Publishes the descriptor of the given model for the class, with the same invocation backend and compile
+    * threshold as the current one. Swapping in the current model again publishes nothing.
+    *
+    * @param interceptionModel
+    * @return the descriptor that has been replaced, or the current one if the model is the current model
+    */
+   public synchronized InterceptionDescriptor swap(InterceptionModel<ClassMetadata<?>, ?> interceptionModel)
+   {
+      if (interceptionModel == null)
+      {
+         throw new IllegalArgumentException("Interception model must not be null");
+      }
+      InterceptionDescriptor previousDescriptor = this.interceptionDescriptor;
+      if (interceptionModel == previousDescriptor.getInterceptionModel())
+      {
+         return previousDescriptor;
+      }
+      InterceptionDescriptor newDescriptor = InterceptionDescriptor.of(previousDescriptor.getTargetClassMetadata(), interceptionModel,
+            previousDescriptor.getInvocationBackend(), metadataCachingReader, previousDescriptor.getCompileThreshold());
+      newDescriptor.prepareChainPlans(previousDescriptor);
+      this.interceptionDescriptor = newDescriptor;
+      version++;
+      return previousDescriptor;
+   }
+}
@@ -44,6 +44,21 @@ public class InterceptorInvocation<T>
       this.interceptionType = interceptionType;
    }
 
+   public T getInstance()
+   {
+      return instance;
+   }
+
+   public InterceptorMetadata<?> getInterceptorMetadata()
+   {
+      return interceptorMetadata;
+   }
+
+   public InterceptionType getInterceptionType()
+   {
+      return interceptionType;
+   }
+
    public Collection<InterceptorMethodInvocation> getInterceptorMethodInvocations()
    {
       Collection<InterceptorMethodInvocation> interceptorMethodInvocations = new ArrayList<InterceptorMethodInvocation>();
@@ -5,30 +5,27 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.lang.reflect.Method;
-import java.util.ArrayList;
-import java.util.Collection;
+import java.lang.reflect.UndeclaredThrowableException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 import javassist.util.proxy.MethodHandler;
 import javassist.util.proxy.ProxyObject;
-import org.jboss.interceptor.builder.MethodSignature;
-import org.jboss.interceptor.reader.InterceptorMetadataUtils;
+import org.jboss.interceptor.proxy.javassist.ChainableMethodHandler;
+import org.jboss.interceptor.spi.context.InterceptionChain;
 import org.jboss.interceptor.spi.context.InvocationContextFactory;
 import org.jboss.interceptor.spi.instance.InterceptorInstantiator;
 import org.jboss.interceptor.spi.metadata.ClassMetadata;
 import org.jboss.interceptor.spi.metadata.InterceptorMetadata;
 import org.jboss.interceptor.spi.model.InterceptionModel;
 import org.jboss.interceptor.spi.model.InterceptionType;
-import org.jboss.interceptor.spi.model.InterceptionTypeRegistry;
-import org.jboss.interceptor.util.InterceptionUtils;
-import org.jboss.interceptor.util.ReflectionUtils;
 
 /**
  * @author Marius Bogoevici
  */
-public class InterceptorMethodHandler implements MethodHandler, Serializable
+public class InterceptorMethodHandler implements ChainableMethodHandler, Serializable
 {
    private static MethodHandler DEFAULT_METHOD_HANDLER = new MethodHandler()
    {
@@ -41,34 +38,144 @@ public class InterceptorMethodHandler implements MethodHandler, Serializable
       }
    };
 
-   private Map<InterceptorMetadata<?>, Object> interceptorHandlerInstances = new HashMap<InterceptorMetadata<?>, Object>();
-   private InterceptorMetadata<ClassMetadata<?>> targetClassInterceptorMetadata;
-   private InterceptionModel<ClassMetadata<?>, ?> interceptionModel;
+   private static final AtomicReferenceFieldUpdater<InterceptorMethodHandler, InterceptorInstances> interceptorInstancesUpdater =
+         AtomicReferenceFieldUpdater.newUpdater(InterceptorMethodHandler.class, InterceptorInstances.class, "interceptorInstances");
+
+   private volatile InterceptorInstances interceptorInstances;
+   private transient InterceptionDescriptorReference interceptionDescriptorReference;
+   private transient InterceptorInstantiator<?, ?> interceptorInstantiator;
+   private transient boolean lazyInterceptorInstantiation;
    private Object targetInstance;
    private InvocationContextFactory invocationContextFactory;
+   private boolean invokingSuperDirectly;
 
    public InterceptorMethodHandler(Object targetInstance,
                                    ClassMetadata<?> targetClassMetadata,
                                    InterceptionModel<ClassMetadata<?>, ?> interceptionModel,
                                    InterceptorInstantiator<?, ?> interceptorInstantiator,
                                    InvocationContextFactory invocationContextFactory)
+   {
+      this(targetInstance, targetClassMetadata, interceptionModel, interceptorInstantiator, invocationContextFactory, InvocationBackend.DEFAULT);
+   }
+
+   public InterceptorMethodHandler(Object targetInstance,
+                                   ClassMetadata<?> targetClassMetadata,
+                                   InterceptionModel<ClassMetadata<?>, ?> interceptionModel,
+                                   InterceptorInstantiator<?, ?> interceptorInstantiator,
+                                   InvocationContextFactory invocationContextFactory,
+                                   InvocationBackend invocationBackend)
+   {
+      this(targetInstance, InterceptionDescriptor.of(targetClassMetadata, validateInterceptionModel(interceptionModel), invocationBackend), interceptorInstantiator, invocationContextFactory);
+   }
+
+   /**
+    * Creates a handler for a class whose {@link InterceptionDescriptor} has already been resolved. The handler only
+    * creates the interceptor instances, everything else is shared through the descriptor.
+    *
+    * @param targetInstance
+    * @param interceptionDescriptor
+    * @param interceptorInstantiator
+    * @param invocationContextFactory
+    */
+   public InterceptorMethodHandler(Object targetInstance,
+                                   InterceptionDescriptor interceptionDescriptor,
+                                   InterceptorInstantiator<?, ?> interceptorInstantiator,
+                                   InvocationContextFactory invocationContextFactory)
+   {
+      this(targetInstance, interceptionDescriptor, interceptorInstantiator, invocationContextFactory, false);
+   }
+
+   /**
+    * Creates a handler for a class whose {@link InterceptionDescriptor} has already been resolved, optionally
+    * deferring the creation of each interceptor instance until the first chain that needs it is executed. The
+    * instances needed by a chain are created in the order of {@link InterceptionDescriptor#getInterceptors()}, before
+    * its first interceptor is invoked, so that all of them exist when a lifecycle callback such as
+    * <code>@PostConstruct</code> reaches them. Concurrent invocations may both create a missing instance, in which
+    * case only one of them is ever used.
+    *
+    * @param targetInstance
+    * @param interceptionDescriptor
+    * @param interceptorInstantiator
+    * @param invocationContextFactory
+    * @param lazyInterceptorInstantiation
+    */
+   public InterceptorMethodHandler(Object targetInstance,
+                                   InterceptionDescriptor interceptionDescriptor,
+                                   InterceptorInstantiator<?, ?> interceptorInstantiator,
+                                   InvocationContextFactory invocationContextFactory,
+                                   boolean lazyInterceptorInstantiation)
+   {
+      this(targetInstance, interceptionDescriptor, null, interceptorInstantiator, invocationContextFactory, lazyInterceptorInstantiation);
+   }
+
+   /**
+    * Creates a handler whose interception model can be replaced while it is in use, through the given
+    * {@link InterceptionDescriptorReference}. Each invocation is executed with the descriptor found in the reference
+    * when it starts. When the handler first finds a new descriptor, it keeps the instances of the interceptors that
+    * belong to both models and creates the instances of the other ones, right away or on first use, depending on
+    * <code>lazyInterceptorInstantiation</code>. No lifecycle callback is invoked on the interceptor instances
+    * created or dropped in the process. The reference is not serialized: a deserialized handler keeps the model
+    * that was current when it was serialized.
+    *
+    * @param targetInstance
+    * @param interceptionDescriptorReference
+    * @param interceptorInstantiator
+    * @param invocationContextFactory
+    * @param lazyInterceptorInstantiation
+    */
+   public InterceptorMethodHandler(Object targetInstance,
+                                   InterceptionDescriptorReference interceptionDescriptorReference,
+                                   InterceptorInstantiator<?, ?> interceptorInstantiator,
+                                   InvocationContextFactory invocationContextFactory,
+                                   boolean lazyInterceptorInstantiation)
+   {
+      this(targetInstance, interceptionDescriptorReference.get(), interceptionDescriptorReference, interceptorInstantiator, invocationContextFactory, lazyInterceptorInstantiation);
+   }
+
+   private InterceptorMethodHandler(Object targetInstance,
+                                    InterceptionDescriptor interceptionDescriptor,
+                                    InterceptionDescriptorReference interceptionDescriptorReference,
+                                    InterceptorInstantiator<?, ?> interceptorInstantiator,
+                                    InvocationContextFactory invocationContextFactory,
+                                    boolean lazyInterceptorInstantiation)
    {
       this.targetInstance = targetInstance;
       this.invocationContextFactory = invocationContextFactory;
-      if (interceptionModel == null)
-      {
-         throw new IllegalArgumentException("Interception model must not be null");
-      }
       if (interceptorInstantiator == null)
       {
          throw new IllegalArgumentException("Interception handler factory must not be null");
       }
-      this.interceptionModel = interceptionModel;
-      for (InterceptorMetadata interceptorMetadata : this.interceptionModel.getAllInterceptors())
+      this.interceptionDescriptorReference = interceptionDescriptorReference;
+      this.lazyInterceptorInstantiation = lazyInterceptorInstantiation;
+      if (lazyInterceptorInstantiation || interceptionDescriptorReference != null)
       {
-         interceptorHandlerInstances.put(interceptorMetadata, interceptorInstantiator.createFor(interceptorMetadata.getInterceptorReference()));
+         this.interceptorInstantiator = interceptorInstantiator;
       }
-      targetClassInterceptorMetadata = InterceptorMetadataUtils.readMetadataForTargetClass(targetClassMetadata);
+      Object[] interceptorInstances = lazyInterceptorInstantiation ?
+            new Object[interceptionDescriptor.getInterceptors().size()] : interceptionDescriptor.createInterceptorInstances(interceptorInstantiator);
+      this.interceptorInstances = new InterceptorInstances(interceptionDescriptor, interceptorInstances);
+   }
+
+   private static InterceptionModel<ClassMetadata<?>, ?> validateInterceptionModel(InterceptionModel<ClassMetadata<?>, ?> interceptionModel)
+   {
+      if (interceptionModel == null)
+      {
+         throw new IllegalArgumentException("Interception model must not be null");
+      }
+      return interceptionModel;
+   }
+
+   /**
+    * Lets the chains of a subclassing proxy end by invoking the superclass implementation through the
+    * <code>proceed</code> method supplied by javassist, instead of invoking the intercepted method on the proxy
+    * again. This is only correct if no other {@link MethodHandler} must observe the invocation after this one, i.e.
+    * if this handler is the innermost handler of the proxy. Disabled by default.
+    *
+    * @param invokingSuperDirectly
+    */
+   public void setInvokingSuperDirectly(boolean invokingSuperDirectly)
+   {
+      this.invokingSuperDirectly = invokingSuperDirectly;
    }
 
    protected boolean isProxy()
@@ -78,23 +185,41 @@ public class InterceptorMethodHandler implements MethodHandler, Serializable
 
    public Object invoke(Object self, Method thisMethod, Method proceed, Object[] args) throws Throwable
    {
-      ReflectionUtils.ensureAccessible(thisMethod);
+      return invoke(self, thisMethod, proceed, args, null, invokingSuperDirectly);
+   }
+
+   /**
+    * Handles an invocation within a {@link org.jboss.interceptor.proxy.javassist.CompositeHandler}: the chains end
+    * by passing the invocation on to the given handler, or by invoking the superclass directly if this handler is
+    * the innermost one. The lifecycle callbacks are passed on too, after the interceptors of this handler.
+    */
+   public Object invoke(Object self, Method thisMethod, Method proceed, Object[] args, MethodHandler nextHandler) throws Throwable
+   {
+      return invoke(self, thisMethod, proceed, args, nextHandler, nextHandler == null);
+   }
+
+   private Object invoke(Object self, Method thisMethod, Method proceed, Object[] args, MethodHandler nextHandler, boolean invokingSuperDirectly) throws Throwable
+   {
+      InterceptorInstances interceptorInstances = getCurrentInterceptorInstances();
+      InterceptionType interceptionType = interceptorInstances.interceptionDescriptor.getMethodDispatch(thisMethod).getInterceptionType();
       if (proceed == null)
       {
-         if (thisMethod.getName().equals(InterceptionUtils.POST_CONSTRUCT))
-         {
-            return executeInterception(isProxy() ? null : self, null, null, null, InterceptionType.POST_CONSTRUCT);
-         }
-         else if (thisMethod.getName().equals(InterceptionUtils.PRE_DESTROY))
+         if (interceptionType != null && interceptionType.isLifecycleCallback())
          {
-            return executeInterception(isProxy() ? null : self, null, null, null, InterceptionType.PRE_DESTROY);
+            return executeInterception(interceptorInstances, isProxy() ? null : self, null, null, null, interceptionType, getNextHandlerInvoker(nextHandler, self, thisMethod, null));
          }
       }
       else
       {
-         if (!InterceptionUtils.isInterceptionCandidate(thisMethod))
+         // subclassing proxies are their own target instance
+         boolean invokingSuper = invokingSuperDirectly && (!isProxy() || targetInstance == self);
+         if (interceptionType == null || interceptionType.isLifecycleCallback())
          {
-            if (isProxy())
+            if (nextHandler != null)
+            {
+               return nextHandler.invoke(self, thisMethod, proceed, args);
+            }
+            else if (isProxy() && !invokingSuper)
             {
                return thisMethod.invoke(targetInstance, args);
             }
@@ -103,41 +228,145 @@ public class InterceptorMethodHandler implements MethodHandler, Serializable
                return proceed.invoke(self, args);
             }
          }
-         if (InterceptionTypeRegistry.isSupported(InterceptionType.AROUND_TIMEOUT) && thisMethod.isAnnotationPresent(InterceptionTypeRegistry.getAnnotationClass(InterceptionType.AROUND_TIMEOUT)))
+         return executeInterception(interceptorInstances, isProxy() ? null : self, invokingSuper ? proceed : thisMethod, thisMethod, args, interceptionType, getNextHandlerInvoker(nextHandler, self, thisMethod, proceed));
+      }
+      return nextHandler != null ? nextHandler.invoke(self, thisMethod, proceed, args) : null;
+
+   }
+
+   private static TargetMethodInvoker getNextHandlerInvoker(MethodHandler nextHandler, Object self, Method thisMethod, Method proceed)
+   {
+      return nextHandler != null ? new NextHandlerInvoker(nextHandler, self, thisMethod, proceed) : null;
+   }
+
+   /**
+    * @param currentInterceptorInstances the instances for the descriptor with which the whole invocation is executed
+    * @param nextHandlerInvoker ends the chain instead of the target method, if not null
+    */
+   private Object executeInterception(InterceptorInstances currentInterceptorInstances, Object self, Method proceedingMethod, Method thisMethod, Object[] args, InterceptionType interceptionType, TargetMethodInvoker nextHandlerInvoker) throws Throwable
+   {
+      InterceptionDescriptor interceptionDescriptor = currentInterceptorInstances.interceptionDescriptor;
+      InterceptionChainPlan chainPlan = (interceptionType.isLifecycleCallback() ? interceptionDescriptor.getChainPlan(interceptionType) : interceptionDescriptor.getChainPlan(interceptionType, thisMethod)).getExecutablePlan();
+      Object target = isProxy() ? targetInstance : self;
+      // the invocation context always reports the intercepted method, even if the chain ends with its super-accessor
+      Method targetMethod = proceedingMethod;
+      if (chainPlan.isEmpty())
+      {
+         // no interceptor can observe the invocation, so neither a chain nor a context are needed
+         return nextHandlerInvoker != null ? nextHandlerInvoker.invoke(target, args) : chainPlan.invokeTarget(target, targetMethod, args);
+      }
+      Object[] interceptorInstances = getInterceptorInstances(currentInterceptorInstances, chainPlan.getInterceptorIndices());
+      InterceptionChain chain = nextHandlerInvoker != null ? chainPlan.newChain(interceptorInstances, target, targetMethod, nextHandlerInvoker) : chainPlan.newChain(interceptorInstances, target, targetMethod);
+      return chain.invokeNextInterceptor(invocationContextFactory.newInvocationContext(chain, target, thisMethod, args));
+   }
+
+   /**
+    * @return the interceptor instances for the current descriptor of the handler, which are first updated if a new
+    *         descriptor has been published through the reference of the handler
+    */
+   private InterceptorInstances getCurrentInterceptorInstances()
+   {
+      InterceptorInstances interceptorInstances = this.interceptorInstances;
+      if (interceptionDescriptorReference != null && interceptorInstances.interceptionDescriptor != interceptionDescriptorReference.get())
+      {
+         return updateInterceptorInstances();
+      }
+      return interceptorInstances;
+   }
+
+   private InterceptorInstances updateInterceptorInstances()
+   {
+      while (true)
+      {
+         // the reference is read again on each attempt, so that a handler never goes back to an older descriptor
+         InterceptionDescriptor interceptionDescriptor = interceptionDescriptorReference.get();
+         InterceptorInstances interceptorInstances = this.interceptorInstances;
+         if (interceptorInstances.interceptionDescriptor == interceptionDescriptor)
          {
-            return executeInterception(isProxy() ? null : self, thisMethod, thisMethod, args, InterceptionType.AROUND_TIMEOUT);
+            return interceptorInstances;
          }
-         else
+         InterceptorInstances updatedInterceptorInstances = interceptorInstances.update(interceptionDescriptor, lazyInterceptorInstantiation ? null : interceptorInstantiator);
+         if (interceptorInstancesUpdater.compareAndSet(this, interceptorInstances, updatedInterceptorInstances))
          {
-            return executeInterception(isProxy() ? null : self, thisMethod, thisMethod, args, InterceptionType.AROUND_INVOKE);
+            return updatedInterceptorInstances;
          }
       }
-      return null;
-
    }
 
-   private Object executeInterception(Object self, Method proceedingMethod, Method thisMethod, Object[] args, InterceptionType interceptionType) throws Throwable
+   /**
+    * @return the interceptor instances, of which at least the ones at the given indices have been created
+    */
+   private Object[] getInterceptorInstances(InterceptorInstances currentInterceptorInstances, int[] interceptorIndices)
    {
-
-      List<? extends InterceptorMetadata<?>> interceptorList = interceptionType.isLifecycleCallback() ? interceptionModel.getInterceptors(interceptionType) : interceptionModel.getInterceptors(interceptionType, MethodSignature.of(thisMethod));
-      Collection<InterceptorInvocation<?>> interceptorInvocations = new ArrayList<InterceptorInvocation<?>>();
-      for (InterceptorMetadata interceptorReference : interceptorList)
+      Object[] interceptorInstances = currentInterceptorInstances.instances;
+      if (lazyInterceptorInstantiation)
       {
-         interceptorInvocations.add(new InterceptorInvocation(interceptorHandlerInstances.get(interceptorReference), interceptorReference, interceptionType));
+         for (int interceptorIndex : interceptorIndices)
+         {
+            if (interceptorInstances[interceptorIndex] == null)
+            {
+               return createInterceptorInstances(currentInterceptorInstances, interceptorIndices);
+            }
+         }
       }
-      if (targetClassInterceptorMetadata != null && targetClassInterceptorMetadata.getInterceptorMethods(interceptionType) != null && !targetClassInterceptorMetadata.getInterceptorMethods(interceptionType).isEmpty())
+      return interceptorInstances;
+   }
+
+   private Object[] createInterceptorInstances(InterceptorInstances requiredInterceptorInstances, int[] interceptorIndices)
+   {
+      InterceptionDescriptor interceptionDescriptor = requiredInterceptorInstances.interceptionDescriptor;
+      // the instances created by a failed attempt are kept for the next one, so that each is created at most once per thread
+      Object[] createdInstances = new Object[interceptorIndices.length];
+      while (true)
       {
-         interceptorInvocations.add(new InterceptorInvocation(isProxy() ? targetInstance : self, targetClassInterceptorMetadata, interceptionType));
+         InterceptorInstances currentInterceptorInstances = this.interceptorInstances;
+         boolean replaced = currentInterceptorInstances.interceptionDescriptor != interceptionDescriptor;
+         // if the descriptor has been replaced meanwhile, the invocation still completes with the previous one
+         Object[] interceptorInstances = replaced ? requiredInterceptorInstances.instances : currentInterceptorInstances.instances;
+         Object[] newInterceptorInstances = null;
+         for (int i = 0; i < interceptorIndices.length; i++)
+         {
+            int interceptorIndex = interceptorIndices[i];
+            if (interceptorInstances[interceptorIndex] == null)
+            {
+               if (newInterceptorInstances == null)
+               {
+                  newInterceptorInstances = interceptorInstances.clone();
+               }
+               if (createdInstances[i] == null)
+               {
+                  createdInstances[i] = interceptionDescriptor.createInterceptorInstance(interceptorIndex, interceptorInstantiator);
+               }
+               newInterceptorInstances[interceptorIndex] = createdInstances[i];
+            }
+         }
+         if (newInterceptorInstances == null)
+         {
+            return interceptorInstances;
+         }
+         if (replaced || interceptorInstancesUpdater.compareAndSet(this, currentInterceptorInstances, new InterceptorInstances(interceptionDescriptor, newInterceptorInstances)))
+         {
+            return newInterceptorInstances;
+         }
       }
-      SimpleInterceptionChain chain = new SimpleInterceptionChain(interceptorInvocations, interceptionType, isProxy() ? targetInstance : self, isProxy() ? thisMethod : proceedingMethod);
-      return chain.invokeNextInterceptor(invocationContextFactory.newInvocationContext(chain, isProxy() ? targetInstance : self, isProxy() ? thisMethod : proceedingMethod, args));
    }
 
    private void writeObject(ObjectOutputStream objectOutputStream) throws IOException
    {
       try
       {
-         executeInterception(isProxy() ? targetInstance : null, null, null, null, InterceptionType.PRE_PASSIVATE);
+         InterceptorInstances currentInterceptorInstances = getCurrentInterceptorInstances();
+         executeInterception(currentInterceptorInstances, isProxy() ? targetInstance : null, null, null, null, InterceptionType.PRE_PASSIVATE, null);
+         if (lazyInterceptorInstantiation)
+         {
+            // the instantiator is not serialized, so the remaining instances cannot be created after deserialization
+            int[] allInterceptorIndices = new int[currentInterceptorInstances.instances.length];
+            for (int i = 0; i < allInterceptorIndices.length; i++)
+            {
+               allInterceptorIndices[i] = i;
+            }
+            getInterceptorInstances(currentInterceptorInstances, allInterceptorIndices);
+         }
          objectOutputStream.defaultWriteObject();
       }
       catch (Throwable throwable)
@@ -155,7 +384,7 @@ public class InterceptorMethodHandler implements MethodHandler, Serializable
          {
             ((ProxyObject) targetInstance).setHandler(DEFAULT_METHOD_HANDLER);
          }
-         executeInterception(isProxy() ? targetInstance : null, null, null, null, InterceptionType.POST_ACTIVATE);
+         executeInterception(interceptorInstances, isProxy() ? targetInstance : null, null, null, null, InterceptionType.POST_ACTIVATE, null);
       }
       catch (Throwable throwable)
       {
@@ -163,4 +392,93 @@ public class InterceptorMethodHandler implements MethodHandler, Serializable
       }
    }
 
+   /**
+    * The interceptor instances of a handler, in the order given by the descriptor they have been created for
+    */
+   private static final class InterceptorInstances implements Serializable
+   {
+      private static final long serialVersionUID = 1L;
+
+      private final InterceptionDescriptor interceptionDescriptor;
+
+      private final Object[] instances;
+
+      InterceptorInstances(InterceptionDescriptor interceptionDescriptor, Object[] instances)
+      {
+         this.interceptionDescriptor = interceptionDescriptor;
+         this.instances = instances;
+      }
+
+      /**
+       * @param newInterceptionDescriptor
+       * @param interceptorInstantiator - creates the instances of the interceptors that have none yet, or null for leaving them to be created on first use
+       * @return the instances for the new descriptor, reusing the existing instances of its interceptors
+       */
+      InterceptorInstances update(InterceptionDescriptor newInterceptionDescriptor, InterceptorInstantiator<?, ?> interceptorInstantiator)
+      {
+         List<InterceptorMetadata<?>> interceptors = interceptionDescriptor.getInterceptors();
+         Map<InterceptorMetadata<?>, Object> existingInstances = new HashMap<InterceptorMetadata<?>, Object>();
+         for (int i = 0; i < instances.length; i++)
+         {
+            if (instances[i] != null)
+            {
+               existingInstances.put(interceptors.get(i), instances[i]);
+            }
+         }
+         List<InterceptorMetadata<?>> newInterceptors = newInterceptionDescriptor.getInterceptors();
+         Object[] newInstances = new Object[newInterceptors.size()];
+         for (int i = 0; i < newInstances.length; i++)
+         {
+            newInstances[i] = existingInstances.get(newInterceptors.get(i));
+            if (newInstances[i] == null && interceptorInstantiator != null)
+            {
+               newInstances[i] = newInterceptionDescriptor.createInterceptorInstance(i, interceptorInstantiator);
+            }
+         }
+         return new InterceptorInstances(newInterceptionDescriptor, newInstances);
+      }
+   }
+
+   /**
+    * Ends a chain by passing the invocation, with the parameters set by the interceptors, on to the next handler of
+    * the proxy.
+    */
+   private static final class NextHandlerInvoker implements TargetMethodInvoker
+   {
+      private final MethodHandler nextHandler;
+
+      private final Object self;
+
+      private final Method thisMethod;
+
+      private final Method proceed;
+
+      NextHandlerInvoker(MethodHandler nextHandler, Object self, Method thisMethod, Method proceed)
+      {
+         this.nextHandler = nextHandler;
+         this.self = self;
+         this.thisMethod = thisMethod;
+         this.proceed = proceed;
+      }
+
+      public Object invoke(Object target, Object[] parameters) throws Exception
+      {
+         try
+         {
+            return nextHandler.invoke(self, thisMethod, proceed, parameters);
+         }
+         catch (Exception e)
+         {
+            throw e;
+         }
+         catch (Error e)
+         {
+            throw e;
+         }
+         catch (Throwable t)
+         {
+            throw new UndeclaredThrowableException(t);
+         }
+      }
+   }
 }
@@ -0,0 +1,36 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.interceptor.proxy;
+
+import javax.interceptor.InvocationContext;
+
+/**
+ * Invokes a given interceptor method on an interceptor instance.
+ *
+ * Implementations must not wrap the exceptions thrown by the interceptor method.
+ */
+public interface InterceptorMethodInvoker
+{
+   /**
+    * @param instance - the interceptor instance, or the target instance for interceptor methods defined on the target class
+    * @param invocationContext - null if the interceptor method does not take an {@link InvocationContext} argument
+    * @return the value returned by the interceptor method, or null if the method is void
+    * @throws Exception
+    */
+   Object invoke(Object instance, InvocationContext invocationContext) throws Exception;
+}
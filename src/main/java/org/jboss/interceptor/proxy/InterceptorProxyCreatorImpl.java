@@ -18,12 +18,15 @@
 package org.jboss.interceptor.proxy;
 
 import java.lang.reflect.Constructor;
-import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
+import javassist.util.proxy.MethodFilter;
 import javassist.util.proxy.MethodHandler;
 import javassist.util.proxy.ProxyObject;
 
-import org.jboss.interceptor.proxy.javassist.CompositeHandler;
+import org.jboss.interceptor.proxy.javassist.InterceptedMethodFilter;
+import org.jboss.interceptor.reader.cache.MetadataCachingReader;
 import org.jboss.interceptor.spi.context.InvocationContextFactory;
 import org.jboss.interceptor.spi.instance.InterceptorInstantiator;
 import org.jboss.interceptor.spi.metadata.ClassMetadata;
@@ -42,6 +45,20 @@ public class InterceptorProxyCreatorImpl implements InterceptorProxyCreator
 
    private InterceptorInstantiator<?,?> interceptorInstantiator;
 
+   private InvocationBackend invocationBackend = InvocationBackend.DEFAULT;
+
+   private MetadataCachingReader metadataCachingReader;
+
+   private int compileThreshold;
+
+   private boolean lazyInterceptorInstantiation;
+
+   private boolean interceptionModelSwapping;
+
+   private volatile Map<ClassMetadata<?>, InterceptionDescriptor> interceptionDescriptors = new HashMap<ClassMetadata<?>, InterceptionDescriptor>();
+
+   private volatile Map<ClassMetadata<?>, InterceptionDescriptorReference> interceptionDescriptorReferences = new HashMap<ClassMetadata<?>, InterceptionDescriptorReference>();
+
    public InterceptorProxyCreatorImpl(InterceptorInstantiator<?,?> interceptorInstantiator, InvocationContextFactory invocationContextFactory, InterceptionModel<ClassMetadata<?>, ?> interceptionModel)
    {
       this.interceptorInstantiator = interceptorInstantiator;
@@ -49,20 +66,130 @@ public class InterceptorProxyCreatorImpl implements InterceptorProxyCreator
       this.interceptionModel = interceptionModel;
    }
 
+   /**
+    * Selects the mechanism used for invoking interceptor and target methods by the method handlers created
+    * from now on.
+    *
+    * @param invocationBackend
+    */
+   public void setInvocationBackend(InvocationBackend invocationBackend)
+   {
+      if (invocationBackend == null)
+      {
+         throw new IllegalArgumentException("Invocation backend must not be null");
+      }
+      this.invocationBackend = invocationBackend;
+      clearInterceptionDescriptors();
+   }
+
+   public InvocationBackend getInvocationBackend()
+   {
+      return invocationBackend;
+   }
+
+   /**
+    * Sets the reader from which the target class interceptor metadata is obtained when the interception descriptor
+    * of a class is computed. If not set, the metadata is read directly from the class.
+    *
+    * @param metadataCachingReader
+    */
+   public void setMetadataCachingReader(MetadataCachingReader metadataCachingReader)
+   {
+      this.metadataCachingReader = metadataCachingReader;
+      clearInterceptionDescriptors();
+   }
+
+   /**
+    * Enables tiered execution for the method handlers created from now on: each interception chain starts out
+    * invoking the interceptor and target methods reflectively, and switches to the invokers of the invocation
+    * backend once it has been executed the given number of times. Disabled (0) by default.
+    *
+    * @param compileThreshold
+    * @see InterceptionChainPlan#getExecutablePlan()
+    */
+   public void setCompileThreshold(int compileThreshold)
+   {
+      if (compileThreshold < 0)
+      {
+         throw new IllegalArgumentException("Compile threshold must not be negative: " + compileThreshold);
+      }
+      this.compileThreshold = compileThreshold;
+      clearInterceptionDescriptors();
+   }
+
+   /**
+    * Lets the method handlers created from now on defer the creation of each interceptor instance until the first
+    * chain that needs it is executed. Disabled by default.
+    *
+    * @param lazyInterceptorInstantiation
+    * @see InterceptorMethodHandler#InterceptorMethodHandler(Object, InterceptionDescriptor, InterceptorInstantiator, InvocationContextFactory, boolean)
+    */
+   public void setLazyInterceptorInstantiation(boolean lazyInterceptorInstantiation)
+   {
+      this.lazyInterceptorInstantiation = lazyInterceptorInstantiation;
+   }
+
+   /**
+    * Lets the interception model of the instances created from now on be replaced through
+    * {@link #swapInterceptionModel(InterceptionModel)}. Their method handlers then share an
+    * {@link InterceptionDescriptorReference} per class, and their subclassing proxies override all the methods of
+    * the proxified class, since any of them may become intercepted. Disabled by default.
+    *
+    * @param interceptionModelSwapping
+    */
+   public void setInterceptionModelSwapping(boolean interceptionModelSwapping)
+   {
+      this.interceptionModelSwapping = interceptionModelSwapping;
+   }
+
+   /**
+    * Replaces the interception model, both for the instances created from now on and for the instances created
+    * while {@link #setInterceptionModelSwapping(boolean) swapping} was enabled, which switch to the new model
+    * without being recreated. Their invocations in progress complete under the previous model.
+    *
+    * @param interceptionModel
+    * @see InterceptionDescriptorReference#swap(InterceptionModel)
+    */
+   public synchronized void swapInterceptionModel(InterceptionModel<ClassMetadata<?>, ?> interceptionModel)
+   {
+      if (interceptionModel == null)
+      {
+         throw new IllegalArgumentException("Interception model must not be null");
+      }
+      this.interceptionModel = interceptionModel;
+      clearInterceptionDescriptors();
+      for (InterceptionDescriptorReference interceptionDescriptorReference : interceptionDescriptorReferences.values())
+      {
+         interceptionDescriptorReference.swap(interceptionModel);
+      }
+   }
 
    public <T> T createSubclassingProxy(ClassMetadata<T> proxifiedClass, Class<?>[] constructorTypes, Object[] constructorArguments)
    {
-      T instance = createAdvisedSubclassInstance(proxifiedClass, constructorTypes, constructorArguments);
+      // the interceptor method handler is the only one installed, so only the intercepted methods need to be overridden
+      MethodFilter methodFilter = interceptionModelSwapping ? null : new InterceptedMethodFilter(getInterceptionDescriptor(proxifiedClass));
+      T instance = createAdvisedSubclassInstance(proxifiedClass, constructorTypes, constructorArguments, methodFilter);
       MethodHandler interceptorMethodHandler = createSubclassingMethodHandler(instance, proxifiedClass);
-      ((ProxyObject)instance).setHandler(new CompositeHandler(Arrays.asList(new MethodHandler[]{interceptorMethodHandler})));
+      if (interceptorMethodHandler instanceof InterceptorMethodHandler)
+      {
+         // ... and it can invoke the superclass directly at the end of the chains, without re-entering the proxy
+         ((InterceptorMethodHandler) interceptorMethodHandler).setInvokingSuperDirectly(true);
+      }
+      // a single handler needs no CompositeHandler around it
+      ((ProxyObject)instance).setHandler(interceptorMethodHandler);
       return instance;
    }
 
    public <T> T createAdvisedSubclassInstance(ClassMetadata<T> proxifiedClass, Class<?>[] constructorParameterTypes, Object[] constructorArguments)
+   {
+      return createAdvisedSubclassInstance(proxifiedClass, constructorParameterTypes, constructorArguments, null);
+   }
+
+   private <T> T createAdvisedSubclassInstance(ClassMetadata<T> proxifiedClass, Class<?>[] constructorParameterTypes, Object[] constructorArguments, MethodFilter methodFilter)
    {
        try
        {
-           Class<T> clazz = InterceptionUtils.createProxyClass(((Class<T>) proxifiedClass.getJavaClass()), true);
+           Class<T> clazz = InterceptionUtils.createProxyClass(((Class<T>) proxifiedClass.getJavaClass()), true, methodFilter);
            Constructor<T> constructor = clazz.getConstructor(constructorParameterTypes);
            return constructor.newInstance(constructorArguments);
        }
@@ -107,14 +234,78 @@ public class InterceptorProxyCreatorImpl implements InterceptorProxyCreator
 
    public <T> MethodHandler createMethodHandler(Object target, ClassMetadata<T> proxyClass)
    {
-      return new InterceptorMethodHandler(target, proxyClass, interceptionModel, interceptorInstantiator, invocationContextFactory);
+      return createInterceptorMethodHandler(target, proxyClass);
    }
 
     public <T> MethodHandler createSubclassingMethodHandler(Object targetInstance, ClassMetadata<T> proxyClass)
     {
-       return new InterceptorMethodHandler(targetInstance,  proxyClass, interceptionModel, interceptorInstantiator, invocationContextFactory);
+       return createInterceptorMethodHandler(targetInstance, proxyClass);
     }
 
+   private InterceptorMethodHandler createInterceptorMethodHandler(Object targetInstance, ClassMetadata<?> proxyClass)
+   {
+      return interceptionModelSwapping ?
+            new InterceptorMethodHandler(targetInstance, getInterceptionDescriptorReference(proxyClass), interceptorInstantiator, invocationContextFactory, lazyInterceptorInstantiation) :
+            new InterceptorMethodHandler(targetInstance, getInterceptionDescriptor(proxyClass), interceptorInstantiator, invocationContextFactory, lazyInterceptorInstantiation);
+   }
+
+   /**
+    * @return the descriptor shared by the method handlers created for the given class under the current settings
+    */
+   private InterceptionDescriptor getInterceptionDescriptor(ClassMetadata<?> proxyClass)
+   {
+      InterceptionDescriptor interceptionDescriptor = interceptionDescriptors.get(proxyClass);
+      if (interceptionDescriptor == null)
+      {
+         synchronized (this)
+         {
+            interceptionDescriptor = interceptionDescriptors.get(proxyClass);
+            if (interceptionDescriptor == null)
+            {
+               if (interceptionModel == null)
+               {
+                  throw new IllegalArgumentException("Interception model must not be null");
+               }
+               interceptionDescriptor = InterceptionDescriptor.of(proxyClass, interceptionModel, invocationBackend, metadataCachingReader, compileThreshold);
+               // copy on write, as the set of proxified classes is bounded
+               Map<ClassMetadata<?>, InterceptionDescriptor> newInterceptionDescriptors = new HashMap<ClassMetadata<?>, InterceptionDescriptor>(interceptionDescriptors);
+               newInterceptionDescriptors.put(proxyClass, interceptionDescriptor);
+               interceptionDescriptors = newInterceptionDescriptors;
+            }
+         }
+      }
+      return interceptionDescriptor;
+   }
+
+   /**
+    * Drops the descriptors computed under the previous settings, which the handlers created so far keep using.
+    */
+   private synchronized void clearInterceptionDescriptors()
+   {
+      interceptionDescriptors = new HashMap<ClassMetadata<?>, InterceptionDescriptor>();
+   }
+
+   private InterceptionDescriptorReference getInterceptionDescriptorReference(ClassMetadata<?> proxyClass)
+   {
+      InterceptionDescriptorReference interceptionDescriptorReference = interceptionDescriptorReferences.get(proxyClass);
+      if (interceptionDescriptorReference == null)
+      {
+         // created under the lock of swapInterceptionModel(), so that it cannot miss a new model
+         synchronized (this)
+         {
+            interceptionDescriptorReference = interceptionDescriptorReferences.get(proxyClass);
+            if (interceptionDescriptorReference == null)
+            {
+               interceptionDescriptorReference = new InterceptionDescriptorReference(getInterceptionDescriptor(proxyClass), metadataCachingReader);
+               Map<ClassMetadata<?>, InterceptionDescriptorReference> newInterceptionDescriptorReferences = new HashMap<ClassMetadata<?>, InterceptionDescriptorReference>(interceptionDescriptorReferences);
+               newInterceptionDescriptorReferences.put(proxyClass, interceptionDescriptorReference);
+               interceptionDescriptorReferences = newInterceptionDescriptorReferences;
+            }
+         }
+      }
+      return interceptionDescriptorReference;
+   }
+
    private <T> Constructor<T> getNoArgConstructor(Class<T> clazz)
    {
       Constructor<T> constructor;
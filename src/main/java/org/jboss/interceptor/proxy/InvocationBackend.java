@@ -0,0 +1,105 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.interceptor.proxy;
+
+import java.lang.reflect.Method;
+
+import org.jboss.interceptor.proxy.javassist.InterceptionChainCompiler;
+import org.jboss.interceptor.proxy.javassist.InterceptorMethodInvokerGenerator;
+import org.jboss.interceptor.proxy.javassist.TargetMethodInvokerGenerator;
+
+/**
+ * The mechanism used for invoking interceptor methods and target methods from an interception chain. The invokers
+ * are resolved once, when the chain plans are computed.
+ */
+public enum InvocationBackend
+{
+   /**
+    * Interceptor and target methods are invoked through {@link Method#invoke(Object, Object[])}
+    */
+   REFLECTION
+   {
+      public InterceptorMethodInvoker getInterceptorMethodInvoker(Method method)
+      {
+         return new ReflectiveInterceptorMethodInvoker(method);
+      }
+
+      public TargetMethodInvoker getTargetMethodInvoker(Method method)
+      {
+         return new ReflectiveTargetMethodInvoker(method);
+      }
+   },
+
+   /**
+    * Interceptor and target methods are invoked through generated classes that call them directly, falling back
+    * to reflection for the methods that cannot be called directly (e.g. private methods)
+    */
+   BYTECODE
+   {
+      public InterceptorMethodInvoker getInterceptorMethodInvoker(Method method)
+      {
+         return InterceptorMethodInvokerGenerator.createInvoker(method);
+      }
+
+      public TargetMethodInvoker getTargetMethodInvoker(Method method)
+      {
+         return TargetMethodInvokerGenerator.createInvoker(method);
+      }
+   },
+
+   /**
+    * Like {@link #BYTECODE}, but the chains of the intercepted methods are additionally compiled into a single
+    * generated class per method, which invokes all the interceptor methods and the target method directly
+    */
+   COMPILED
+   {
+      public InterceptorMethodInvoker getInterceptorMethodInvoker(Method method)
+      {
+         return InterceptorMethodInvokerGenerator.createInvoker(method);
+      }
+
+      public TargetMethodInvoker getTargetMethodInvoker(Method method)
+      {
+         return TargetMethodInvokerGenerator.createInvoker(method);
+      }
+
+      public CompiledChainInvoker compile(InterceptionChainPlan chainPlan, Method targetMethod)
+      {
+         return InterceptionChainCompiler.compile(chainPlan, targetMethod);
+      }
+   };
+
+   public static final InvocationBackend DEFAULT = BYTECODE;
+
+   public abstract InterceptorMethodInvoker getInterceptorMethodInvoker(Method method);
+
+   public abstract TargetMethodInvoker getTargetMethodInvoker(Method method);
+
+   /**
+    * Compiles the plan of an intercepted method, once its invokers have been resolved.
+    *
+    * @param chainPlan
+    * @param targetMethod - the method invoked at the end of the chain, which is either the intercepted method or a
+    * method invoking its implementation directly
+    * @return the compiled form of the plan, or null if the backend does not compile plans or the plan cannot be compiled
+    */
+   public CompiledChainInvoker compile(InterceptionChainPlan chainPlan, Method targetMethod)
+   {
+      return null;
+   }
+}
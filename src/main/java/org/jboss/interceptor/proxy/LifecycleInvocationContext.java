@@ -0,0 +1,95 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.interceptor.proxy;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.interceptor.InvocationContext;
+
+import org.jboss.interceptor.spi.context.InterceptionChain;
+
+/**
+ * The {@link InvocationContext} of lifecycle callbacks, which have neither a method nor parameters. It only holds
+ * the chain and the target (24 bytes on a 64-bit JVM with compressed references), and creates the context data map
+ * only if an interceptor asks for it.
+ */
+public class LifecycleInvocationContext implements InvocationContext
+{
+   private final InterceptionChain interceptionChain;
+
+   private final Object target;
+
+   private Map<String, Object> contextData;
+
+   public LifecycleInvocationContext(InterceptionChain interceptionChain, Object target)
+   {
+      this.interceptionChain = interceptionChain;
+      this.target = target;
+   }
+
+   public Object getTarget()
+   {
+      return target;
+   }
+
+   public Method getMethod()
+   {
+      return null;
+   }
+
+   public Object[] getParameters()
+   {
+      throw new IllegalStateException("Illegal invocation to getParameters() during lifecycle invocation");
+   }
+
+   public void setParameters(Object[] params)
+   {
+      throw new IllegalStateException("Illegal invocation to setParameters() during lifecycle invocation");
+   }
+
+   public Map<String, Object> getContextData()
+   {
+      if (contextData == null)
+      {
+         contextData = new HashMap<String, Object>();
+      }
+      return contextData;
+   }
+
+   public Object getTimer()
+   {
+      return null;
+   }
+
+   public Object proceed() throws Exception
+   {
+      try
+      {
+         return interceptionChain.invokeNextInterceptor(this);
+      }
+      catch (Exception e)
+      {
+         throw e;
+      }
+      catch (Throwable t)
+      {
+         throw new InterceptorException(t);
+      }
+   }
+}
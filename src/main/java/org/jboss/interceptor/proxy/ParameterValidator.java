@@ -0,0 +1,237 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.interceptor.proxy;
+
+import java.lang.reflect.Method;
+
+import org.jboss.interceptor.spi.context.InterceptionChain;
+
+/**
+ * Validates the parameters set on an {@link InterceptorInvocationContext} against the parameter types of the
+ * intercepted method. The parameter types and their conversion rules are computed once per method, and kept by its
+ * {@link InterceptionChainPlan}, so that they go away along with the class of the method: primitive types are
+ * encoded as small integer codes, and the wrapper types accepted by each primitive parameter, through unboxing
+ * and widening, as a bitmask over those codes.
+ */
+final class ParameterValidator
+{
+   private static final int NOT_PRIMITIVE = -1;
+
+   private static final int BOOLEAN = 0;
+   private static final int BYTE = 1;
+   private static final int CHAR = 2;
+   private static final int SHORT = 3;
+   private static final int INT = 4;
+   private static final int LONG = 5;
+   private static final int FLOAT = 6;
+   private static final int DOUBLE = 7;
+
+   /**
+    * For each primitive code, the codes of the primitive types whose values can be assigned to it, itself included
+    */
+   private static final int[] ACCEPTED_CODES = new int[8];
+
+   static
+   {
+      ACCEPTED_CODES[BOOLEAN] = bits(BOOLEAN);
+      ACCEPTED_CODES[BYTE] = bits(BYTE);
+      ACCEPTED_CODES[CHAR] = bits(CHAR);
+      ACCEPTED_CODES[SHORT] = bits(SHORT, BYTE);
+      ACCEPTED_CODES[INT] = bits(INT, BYTE, SHORT, CHAR);
+      ACCEPTED_CODES[LONG] = bits(LONG, BYTE, SHORT, CHAR, INT);
+      ACCEPTED_CODES[FLOAT] = bits(FLOAT, BYTE, SHORT, CHAR, INT, LONG);
+      ACCEPTED_CODES[DOUBLE] = bits(DOUBLE, BYTE, SHORT, CHAR, INT, LONG, FLOAT);
+   }
+
+   private final Class<?>[] parameterTypes;
+
+   private final int[] acceptedCodes;
+
+   ParameterValidator(Method method)
+   {
+      this.parameterTypes = method.getParameterTypes();
+      this.acceptedCodes = new int[parameterTypes.length];
+      for (int i = 0; i < parameterTypes.length; i++)
+      {
+         int primitiveCode = getPrimitiveCode(parameterTypes[i]);
+         acceptedCodes[i] = primitiveCode == NOT_PRIMITIVE ? 0 : ACCEPTED_CODES[primitiveCode];
+      }
+   }
+
+   /**
+    * @param interceptionChain - the chain of the invocation
+    * @param method - the intercepted method
+    * @return the validator kept by the plan of the method, or a new one if the chain does not execute such a plan
+    */
+   static ParameterValidator of(InterceptionChain interceptionChain, Method method)
+   {
+      if (interceptionChain instanceof PlannedInterceptionChain)
+      {
+         InterceptionChainPlan chainPlan = ((PlannedInterceptionChain) interceptionChain).getChainPlan();
+         if (chainPlan != null && chainPlan.getTargetMethod() == method)
+         {
+            return chainPlan.getParameterValidator();
+         }
+      }
+      return new ParameterValidator(method);
+   }
+
+   /**
+    * @param params - the new parameters of the invocation
+    * @throws IllegalArgumentException if the parameters cannot be passed to the method
+    */
+   void validate(Object[] params)
+   {
+      // there is no requirement to do anything if params is null
+      // but this is theoretically possible only if the target method has no arguments
+      int newParametersCount = params == null ? 0 : params.length;
+      if (parameterTypes.length != newParametersCount)
+      {
+         throw new IllegalArgumentException("Wrong number of parameters: method has " + parameterTypes.length
+               + ", attempting to set " + newParametersCount + (params != null ? "" : " (argument was null)"));
+      }
+      if (params == null)
+      {
+         return;
+      }
+      for (int i = 0; i < params.length; i++)
+      {
+         Class<?> methodParameterClass = parameterTypes[i];
+         if (params[i] != null)
+         {
+            Class<?> newArgumentClass = params[i].getClass();
+            if (newArgumentClass == methodParameterClass)
+            {
+               // an exact match ends the validation, as it always has
+               return;
+            }
+            if (acceptedCodes[i] != 0)
+            {
+               // unboxing+widening primitive
+               int argumentCode = getWrapperCode(newArgumentClass);
+               if (argumentCode == NOT_PRIMITIVE || (acceptedCodes[i] & (1 << argumentCode)) == 0)
+               {
+                  throw incompatible(i, newArgumentClass, methodParameterClass);
+               }
+            }
+            else if (!methodParameterClass.isAssignableFrom(newArgumentClass))
+            {
+               //widening reference
+               throw incompatible(i, newArgumentClass, methodParameterClass);
+            }
+         }
+         else if (acceptedCodes[i] != 0)
+         {
+            // null is never acceptable on a primitive type
+            throw new IllegalArgumentException("Trying to set a null value on a " + methodParameterClass.getName());
+         }
+      }
+   }
+
+   private static IllegalArgumentException incompatible(int position, Class<?> newArgumentClass, Class<?> methodParameterClass)
+   {
+      return new IllegalArgumentException("Incompatible parameter type on position: " + position + " :" + newArgumentClass + " (expected type was " + methodParameterClass.getName() + ")");
+   }
+
+   private static int bits(int... codes)
+   {
+      int bits = 0;
+      for (int code : codes)
+      {
+         bits |= 1 << code;
+      }
+      return bits;
+   }
+
+   private static int getPrimitiveCode(Class<?> type)
+   {
+      if (!type.isPrimitive())
+      {
+         return NOT_PRIMITIVE;
+      }
+      if (type == int.class)
+      {
+         return INT;
+      }
+      if (type == long.class)
+      {
+         return LONG;
+      }
+      if (type == boolean.class)
+      {
+         return BOOLEAN;
+      }
+      if (type == double.class)
+      {
+         return DOUBLE;
+      }
+      if (type == char.class)
+      {
+         return CHAR;
+      }
+      if (type == float.class)
+      {
+         return FLOAT;
+      }
+      if (type == byte.class)
+      {
+         return BYTE;
+      }
+      if (type == short.class)
+      {
+         return SHORT;
+      }
+      return NOT_PRIMITIVE;
+   }
+
+   private static int getWrapperCode(Class<?> type)
+   {
+      if (type == Integer.class)
+      {
+         return INT;
+      }
+      if (type == Long.class)
+      {
+         return LONG;
+      }
+      if (type == Boolean.class)
+      {
+         return BOOLEAN;
+      }
+      if (type == Double.class)
+      {
+         return DOUBLE;
+      }
+      if (type == Character.class)
+      {
+         return CHAR;
+      }
+      if (type == Float.class)
+      {
+         return FLOAT;
+      }
+      if (type == Byte.class)
+      {
+         return BYTE;
+      }
+      if (type == Short.class)
+      {
+         return SHORT;
+      }
+      return NOT_PRIMITIVE;
+   }
+}
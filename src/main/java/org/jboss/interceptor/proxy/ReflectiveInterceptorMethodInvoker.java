@@ -0,0 +1,69 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.interceptor.proxy;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import javax.interceptor.InvocationContext;
+
+import org.jboss.interceptor.util.ReflectionUtils;
+
+/**
+ * {@link InterceptorMethodInvoker} based on {@link Method#invoke(Object, Object[])}. Used whenever a direct invoker
+ * cannot be generated, e.g. for private interceptor methods.
+ */
+public class ReflectiveInterceptorMethodInvoker implements InterceptorMethodInvoker
+{
+   private final Method method;
+
+   public ReflectiveInterceptorMethodInvoker(Method method)
+   {
+      this.method = method;
+      ReflectionUtils.ensureAccessible(method);
+   }
+
+   public Object invoke(Object instance, InvocationContext invocationContext) throws Exception
+   {
+      try
+      {
+         if (invocationContext != null)
+            return method.invoke(instance, invocationContext);
+         else
+            return method.invoke(instance);
+      }
+      catch (InvocationTargetException e)
+      {
+         if (e.getCause() instanceof Exception)
+         {
+            throw (Exception) e.getCause();
+         }
+         if (e.getCause() instanceof Error)
+         {
+            throw (Error) e.getCause();
+         }
+         throw e;
+      }
+   }
+
+   @Override
+   public String toString()
+   {
+      return "Reflective invoker for " + method;
+   }
+}
@@ -0,0 +1,64 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.interceptor.proxy;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import org.jboss.interceptor.util.ReflectionUtils;
+
+/**
+ * {@link TargetMethodInvoker} based on {@link Method#invoke(Object, Object[])}. The method is made accessible
+ * once, when the invoker is created.
+ */
+public class ReflectiveTargetMethodInvoker implements TargetMethodInvoker
+{
+   private final Method method;
+
+   public ReflectiveTargetMethodInvoker(Method method)
+   {
+      this.method = method;
+      ReflectionUtils.ensureAccessible(method);
+   }
+
+   public Object invoke(Object target, Object[] parameters) throws Exception
+   {
+      try
+      {
+         return method.invoke(target, parameters);
+      }
+      catch (InvocationTargetException e)
+      {
+         if (e.getCause() instanceof Exception)
+         {
+            throw (Exception) e.getCause();
+         }
+         if (e.getCause() instanceof Error)
+         {
+            throw (Error) e.getCause();
+         }
+         throw e;
+      }
+   }
+
+   @Override
+   public String toString()
+   {
+      return "Reflective invoker for " + method;
+   }
+}
@@ -26,6 +26,7 @@ import java.util.List;
 import javax.interceptor.InvocationContext;
 
 import org.jboss.interceptor.spi.context.InterceptionChain;
+import org.jboss.interceptor.spi.metadata.InterceptorMetadata;
 import org.jboss.interceptor.spi.model.InterceptionType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -33,10 +34,10 @@ import org.slf4j.LoggerFactory;
 /**
  * @author <a href="mailto:mariusb@redhat.com">Marius Bogoevici</a>
  */
-public class SimpleInterceptionChain implements InterceptionChain
+public class SimpleInterceptionChain implements PlannedInterceptionChain
 {
 
-   private final Logger log = LoggerFactory.getLogger(SimpleInterceptionChain.class);
+   private static final Logger log = LoggerFactory.getLogger(SimpleInterceptionChain.class);
 
    private Object target;
 
@@ -44,107 +45,179 @@ public class SimpleInterceptionChain implements InterceptionChain
 
    private int currentPosition;
 
-   private final InterceptionType interceptionType;
+   private InterceptionChainPlan chainPlan;
 
-   private List<InterceptorInvocation.InterceptorMethodInvocation> interceptorMethodInvocations;
+   private TargetMethodInvoker targetMethodInvoker;
+
+   private Object[] interceptorInstances;
 
    public SimpleInterceptionChain(Collection<InterceptorInvocation<?>> interceptorInvocations, InterceptionType interceptionType, Object target, Method targetMethod)
    {
-      this.interceptionType = interceptionType;
       this.target = target;
       this.targetMethod = targetMethod;
       this.currentPosition = 0;
-      interceptorMethodInvocations = new ArrayList<InterceptorInvocation.InterceptorMethodInvocation>();
+      List<InterceptorMetadata<?>> interceptors = new ArrayList<InterceptorMetadata<?>>();
+      this.interceptorInstances = new Object[interceptorInvocations.size()];
       for (InterceptorInvocation<?> interceptorInvocation : interceptorInvocations)
       {
-         interceptorMethodInvocations.addAll(interceptorInvocation.getInterceptorMethodInvocations());
+         interceptorInstances[interceptors.size()] = interceptorInvocation.getInstance();
+         interceptors.add(interceptorInvocation.getInterceptorMetadata());
       }
+      // a plan built for a single chain would not amortise the generation of direct invokers
+      this.chainPlan = InterceptionChainPlan.of(interceptionType, interceptors, null, null, InvocationBackend.REFLECTION);
    }
 
-   public Object invokeNextInterceptor(InvocationContext invocationContext) throws Throwable
+   /**
+    * Creates a chain that executes a precomputed plan. The interceptor instances are looked up by the index assigned
+    * to them by the plan, except for the target class interceptor methods, which are invoked on the target itself. If the plan has been
+    * built for the given target method, the target method is invoked through the invoker resolved by the plan.
+    *
+    * @param chainPlan
+    * @param interceptorInstances
+    * @param target
+    * @param targetMethod
+    */
+   public SimpleInterceptionChain(InterceptionChainPlan chainPlan, Object[] interceptorInstances, Object target, Method targetMethod)
+   {
+      reset(chainPlan, interceptorInstances, target, targetMethod);
+   }
+
+   SimpleInterceptionChain(InterceptionChainPlan chainPlan, Object[] interceptorInstances, Object target, Method targetMethod, TargetMethodInvoker targetMethodInvoker)
+   {
+      reset(chainPlan, interceptorInstances, target, targetMethod, targetMethodInvoker);
+   }
+
+   /**
+    * Creates a chain without a plan, which must be {@link #reset} before being used.
+    */
+   SimpleInterceptionChain()
+   {
+   }
+
+   /**
+    * Prepares the chain for executing the given plan, discarding the state of the previous execution.
+    */
+   void reset(InterceptionChainPlan chainPlan, Object[] interceptorInstances, Object target, Method targetMethod)
+   {
+      reset(chainPlan, interceptorInstances, target, targetMethod, chainPlan != null ? chainPlan.getTargetMethodInvoker(targetMethod) : null);
+   }
+
+   /**
+    * Prepares the chain for executing the given plan, ending with the given invoker instead of the target method
+    * invoker resolved by the plan.
+    */
+   void reset(InterceptionChainPlan chainPlan, Object[] interceptorInstances, Object target, Method targetMethod, TargetMethodInvoker targetMethodInvoker)
+   {
+      this.chainPlan = chainPlan;
+      this.interceptorInstances = interceptorInstances;
+      this.target = target;
+      this.targetMethod = targetMethod;
+      this.targetMethodInvoker = targetMethodInvoker;
+      this.currentPosition = 0;
+   }
+
+   public InterceptionChainPlan getChainPlan()
    {
+      return chainPlan;
+   }
 
-      try
+   public Object invokeNextInterceptor(InvocationContext invocationContext) throws Throwable
+   {
+      if (hasNextInterceptor())
       {
-         if (hasNextInterceptor())
+         int oldCurrentPosition = currentPosition;
+         try
          {
-            int oldCurrentPosition = currentPosition;
-            try
+            InterceptionChainPlan.Step nextStep = chainPlan.getStep(currentPosition++);
+            if (log.isTraceEnabled())
             {
-               InterceptorInvocation.InterceptorMethodInvocation nextInterceptorMethodInvocation = interceptorMethodInvocations.get(currentPosition++);
-               if (log.isTraceEnabled())
-               {
-                  log.trace("Invoking next interceptor in chain:" + nextInterceptorMethodInvocation.method.toString());
-               }
-               if (nextInterceptorMethodInvocation.method.getJavaMethod().getParameterTypes().length == 1)
-               {
-                  validateInterceptor(nextInterceptorMethodInvocation, invocationContext);
-                  return nextInterceptorMethodInvocation.invoke(invocationContext);
-               }
-               else if (nextInterceptorMethodInvocation.method.getJavaMethod().getParameterTypes().length == 0)
-               {
-                  validateInterceptor(nextInterceptorMethodInvocation, null);
-                  nextInterceptorMethodInvocation.invoke(null);
-                  while (hasNextInterceptor())
-                  {
-                     nextInterceptorMethodInvocation = interceptorMethodInvocations.get(currentPosition++);
-                     validateInterceptor(nextInterceptorMethodInvocation, null);
-                     nextInterceptorMethodInvocation.invoke(null);
-                  }
-                  return null;
-
-               }
-               else
-               {
-                  throw new IllegalStateException("Impossible state: interceptor method has more than one argument:" + nextInterceptorMethodInvocation.getMethod());
-               }
+               log.trace("Invoking next interceptor in chain:" + nextStep.toString());
             }
-            finally
+            if (nextStep.isAcceptingInvocationContext())
             {
-               currentPosition = oldCurrentPosition;
+               return nextStep.invoke(getInstance(nextStep), invocationContext);
             }
-         }
-         else
-         {
-            if (targetMethod != null)
+            else
             {
-               targetMethod.setAccessible(true);
-               if (invocationContext.getMethod() != null)
-               {
-                  return targetMethod.invoke(target, invocationContext.getParameters());
-               }
-               else
+               nextStep.invoke(getInstance(nextStep), null);
+               while (hasNextInterceptor())
                {
-                  return targetMethod.invoke(target);
+                  nextStep = chainPlan.getStep(currentPosition++);
+                  validateInterceptor(nextStep);
+                  nextStep.invoke(getInstance(nextStep), null);
                }
-
-            }
-            else
-            {
                return null;
             }
          }
+         finally
+         {
+            currentPosition = oldCurrentPosition;
+         }
       }
-      catch (InvocationTargetException e)
+      else
       {
-         throw e.getCause();
+         return invokeTarget(targetMethodInvoker, target, targetMethod, invocationContext);
       }
    }
 
-   private void validateInterceptor(InterceptorInvocation.InterceptorMethodInvocation nextInterceptorMethodInvocation, InvocationContext context) {
-      int expectedParameters = context == null? 0: 1;
-      if (nextInterceptorMethodInvocation.method.getJavaMethod().getParameterTypes().length != expectedParameters)
+   /**
+    * Invokes the target method at the end of a chain, through the invoker resolved by the plan if there is one.
+    *
+    * @return the result of the target method, or null if the chain has no target method
+    */
+   static Object invokeTarget(TargetMethodInvoker targetMethodInvoker, Object target, Method targetMethod, InvocationContext invocationContext) throws Throwable
+   {
+      return invokeTarget(targetMethodInvoker, target, targetMethod, invocationContext.getMethod() != null ? invocationContext.getParameters() : null);
+   }
+
+   /**
+    * Invokes the target method directly with the given parameters, through the invoker resolved by the plan if
+    * there is one.
+    *
+    * @return the result of the target method, or null if there is no target method
+    */
+   static Object invokeTarget(TargetMethodInvoker targetMethodInvoker, Object target, Method targetMethod, Object[] parameters) throws Throwable
+   {
+      if (targetMethodInvoker != null)
+      {
+         return targetMethodInvoker.invoke(target, parameters);
+      }
+      else if (targetMethod != null)
+      {
+         try
+         {
+            targetMethod.setAccessible(true);
+            return targetMethod.invoke(target, parameters);
+         }
+         catch (InvocationTargetException e)
+         {
+            throw e.getCause();
+         }
+      }
+      else
+      {
+         return null;
+      }
+   }
+
+   private Object getInstance(InterceptionChainPlan.Step step)
+   {
+      return step.isTargetClass() ? target : interceptorInstances[step.getInterceptorIndex()];
+   }
+
+   static void validateInterceptor(InterceptionChainPlan.Step step)
+   {
+      if (step.isAcceptingInvocationContext())
       {
          throw new IllegalStateException(
                "Mismatch between number of expected and actual parameters on "
-                     + nextInterceptorMethodInvocation.getMethod() + ": expected " + expectedParameters
-                     + ", actual " + nextInterceptorMethodInvocation.getMethod().getJavaMethod().getParameterTypes().length);
+                     + step.getMethod() + ": expected 0, actual 1");
       }
    }
 
    public boolean hasNextInterceptor()
    {
-      return currentPosition < interceptorMethodInvocations.size();
+      return currentPosition < chainPlan.size();
    }
 
 }
@@ -0,0 +1,34 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.interceptor.proxy;
+
+/**
+ * Invokes the intercepted method on the target instance, once all the interceptors in a chain have proceeded.
+ *
+ * Implementations must not wrap the exceptions thrown by the target method.
+ */
+public interface TargetMethodInvoker
+{
+   /**
+    * @param target - the target instance
+    * @param parameters - the parameters of the invocation, as returned by {@link javax.interceptor.InvocationContext#getParameters()}
+    * @return the value returned by the target method, boxed if primitive, or null if the method is void
+    * @throws Exception
+    */
+   Object invoke(Object target, Object[] parameters) throws Exception;
+}
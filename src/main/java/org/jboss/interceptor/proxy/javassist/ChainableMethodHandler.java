@@ -0,0 +1,41 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.interceptor.proxy.javassist;
+
+import java.lang.reflect.Method;
+
+import javassist.util.proxy.MethodHandler;
+
+/**
+ * A {@link MethodHandler} which can be followed by other handlers in a {@link CompositeHandler}. Instead of
+ * invoking the superclass method, such a handler completes the invocations it handles by passing them on to the
+ * handler that follows it. The composite supplies that handler with each invocation, so the same handler can be
+ * used on its own and in any number of composites.
+ */
+public interface ChainableMethodHandler extends MethodHandler
+{
+   /**
+    * Handles an invocation made on a proxy whose {@link CompositeHandler} contains this handler. Lifecycle callback
+    * invocations are passed on as well, so that every handler of the composite gets to run its own callbacks.
+    *
+    * @param nextHandler the handler the invocation must be passed on to, with the same <code>self</code>,
+    * <code>thisMethod</code> and <code>proceed</code> arguments, or null if this is the innermost handler,
+    * which must complete the invocation through <code>proceed</code>
+    * @see MethodHandler#invoke(Object, Method, Method, Object[])
+    */
+   Object invoke(Object self, Method thisMethod, Method proceed, Object[] args, MethodHandler nextHandler) throws Throwable;
+}
@@ -1,65 +1,151 @@
 package org.jboss.interceptor.proxy.javassist;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.lang.reflect.Method;
-import java.util.ArrayList;
 import java.util.List;
 
 import javassist.util.proxy.MethodHandler;
 
 /**
- * A wrapper for multiple Javassist method handlers.
+ * A wrapper for multiple Javassist method handlers. The handlers are linked to each other when the composite is
+ * created: each of them passes the invocations on to the next one, and the last one invokes the superclass method.
+ * The links are held by the composite, so the handlers themselves are not modified and can be shared.
+ *
+ * Handlers that may be followed by others should be {@link ChainableMethodHandler}s, which are given the next
+ * handler with each invocation, lifecycle callbacks included. Other handlers are still supported anywhere in the
+ * list: they either end the invocations by invoking the superclass method through <code>proceed</code>, or pass
+ * them on by invoking the intercepted method on the proxy again, in which case the composite routes the re-entrant
+ * invocation to the next handler. Only the composites that contain such handlers keep track of them in per-thread
+ * state.
  * 
  * @author Marius Bogoevici
  */
 public class CompositeHandler implements MethodHandler, Serializable
 {
 
-   protected static final String OBJECT_CLASS_NAME = Object.class.getName();
+   private final MethodHandler firstHandler;
 
-   private List<MethodHandler> methodHandlers;
+   private final boolean linkingPlainHandlers;
+
+   // the link of the plain handler whose invocation on the current thread may re-enter the proxy
+   private transient ThreadLocal<PlainHandlerLink> reentrantLink;
 
    public CompositeHandler(List<MethodHandler> methodHandlers)
    {
-      this.methodHandlers = new ArrayList<MethodHandler>();
-      this.methodHandlers.addAll(methodHandlers);
+      MethodHandler nextHandler = null;
+      boolean linkingPlainHandlers = false;
+      for (int i = methodHandlers.size() - 1; i >= 0; i--)
+      {
+         MethodHandler methodHandler = methodHandlers.get(i);
+         if (methodHandler instanceof ChainableMethodHandler)
+         {
+            methodHandler = new ChainableHandlerLink((ChainableMethodHandler) methodHandler, nextHandler);
+         }
+         else if (nextHandler != null)
+         {
+            methodHandler = new PlainHandlerLink(this, methodHandler, nextHandler);
+            linkingPlainHandlers = true;
+         }
+         nextHandler = methodHandler;
+      }
+      this.firstHandler = nextHandler;
+      this.linkingPlainHandlers = linkingPlainHandlers;
+      this.reentrantLink = linkingPlainHandlers ? new ThreadLocal<PlainHandlerLink>() : null;
    }
 
-   private static ThreadLocal<Integer> currentHandlerIndex = new ThreadLocal<Integer>();
-
    public Object invoke(Object self, Method thisMethod, Method proceed, Object[] args) throws Throwable
    {
-      if (thisMethod.getDeclaringClass().getName().equals(OBJECT_CLASS_NAME))
-         return proceed.invoke(self);
-      boolean isOuter = false;
-      if (currentHandlerIndex.get() == null)
-      {
-         isOuter = true;
-         currentHandlerIndex.set(0);
-      }
-      else
+      if (firstHandler == null || thisMethod.getDeclaringClass() == Object.class)
       {
-         currentHandlerIndex.set(currentHandlerIndex.get() + 1);
+         return proceed != null ? proceed.invoke(self, args) : null;
       }
-      try
+      if (reentrantLink != null)
       {
-         if (currentHandlerIndex.get() < methodHandlers.size())
+         PlainHandlerLink link = reentrantLink.get();
+         if (link != null)
          {
-            return methodHandlers.get(currentHandlerIndex.get()).invoke(self, thisMethod, proceed, args);
-         }
-         else
-         {
-            if (proceed != null)
-               return proceed.invoke(self, args);
+            // a plain handler passes the invocation on; the invocations made further down are not re-entrant
+            reentrantLink.set(null);
+            try
+            {
+               return link.nextHandler.invoke(self, thisMethod, proceed, args);
+            }
+            finally
+            {
+               reentrantLink.set(link);
+            }
          }
       }
-      finally
+      return firstHandler.invoke(self, thisMethod, proceed, args);
+   }
+
+   private void readObject(ObjectInputStream objectInputStream) throws IOException, ClassNotFoundException
+   {
+      objectInputStream.defaultReadObject();
+      if (linkingPlainHandlers)
+      {
+         reentrantLink = new ThreadLocal<PlainHandlerLink>();
+      }
+   }
+
+   /**
+    * Passes a {@link ChainableMethodHandler} the handler that follows it
+    */
+   private static final class ChainableHandlerLink implements MethodHandler, Serializable
+   {
+      private static final long serialVersionUID = 1L;
+
+      private final ChainableMethodHandler handler;
+
+      private final MethodHandler nextHandler;
+
+      ChainableHandlerLink(ChainableMethodHandler handler, MethodHandler nextHandler)
+      {
+         this.handler = handler;
+         this.nextHandler = nextHandler;
+      }
+
+      public Object invoke(Object self, Method thisMethod, Method proceed, Object[] args) throws Throwable
+      {
+         return handler.invoke(self, thisMethod, proceed, args, nextHandler);
+      }
+   }
+
+   /**
+    * Links a handler which is not a {@link ChainableMethodHandler} to the handler that follows it
+    */
+   private static final class PlainHandlerLink implements MethodHandler, Serializable
+   {
+      private static final long serialVersionUID = 1L;
+
+      private final CompositeHandler compositeHandler;
+
+      private final MethodHandler handler;
+
+      private final MethodHandler nextHandler;
+
+      PlainHandlerLink(CompositeHandler compositeHandler, MethodHandler handler, MethodHandler nextHandler)
+      {
+         this.compositeHandler = compositeHandler;
+         this.handler = handler;
+         this.nextHandler = nextHandler;
+      }
+
+      public Object invoke(Object self, Method thisMethod, Method proceed, Object[] args) throws Throwable
       {
-         if (isOuter)
+         ThreadLocal<PlainHandlerLink> reentrantLink = compositeHandler.reentrantLink;
+         PlainHandlerLink previousLink = reentrantLink.get();
+         reentrantLink.set(this);
+         try
+         {
+            return handler.invoke(self, thisMethod, proceed, args);
+         }
+         finally
          {
-            currentHandlerIndex.set(null);
+            reentrantLink.set(previousLink);
          }
       }
-      return null;
    }
 }
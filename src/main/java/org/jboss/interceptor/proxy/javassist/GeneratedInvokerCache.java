@@ -0,0 +1,79 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.interceptor.proxy.javassist;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.collect.MapMaker;
+
+/**
+ * Keeps the direct invokers generated for the methods of each class, so that all the plans built for a method share
+ * its invoker instead of defining a new class for it. Generated classes cannot be unloaded before their class loader,
+ * so generating them again for every plan would fill the class loader of a deployment.
+ *
+ * The cache does not keep the class loaders alive: it is weakly keyed on the declaring class and refers to the
+ * invokers weakly, while each invoker is kept alive by a static field of its own class, i.e. by the class loader it
+ * has been defined in, which is that of the declaring class.
+ */
+abstract class GeneratedInvokerCache<T>
+{
+   private final ConcurrentMap<Class<?>, Map<String, WeakReference<T>>> invokers = new MapMaker().weakKeys().makeMap();
+
+   /**
+    * @param method
+    * @return the invoker generated for the method, or null if it cannot be invoked directly
+    */
+   T getInvoker(Method method)
+   {
+      Class<?> declaringClass = method.getDeclaringClass();
+      Map<String, WeakReference<T>> classInvokers = invokers.get(declaringClass);
+      if (classInvokers == null)
+      {
+         classInvokers = new HashMap<String, WeakReference<T>>();
+         Map<String, WeakReference<T>> previousClassInvokers = invokers.putIfAbsent(declaringClass, classInvokers);
+         if (previousClassInvokers != null)
+         {
+            classInvokers = previousClassInvokers;
+         }
+      }
+      String signature = method.getName() + InvokerClassFiles.getDescriptor(method);
+      // generating under the lock of the class keeps concurrent plans from defining the same invoker twice
+      synchronized (classInvokers)
+      {
+         WeakReference<T> invokerReference = classInvokers.get(signature);
+         if (invokerReference != null)
+         {
+            // holds null if the invoker could not be generated, which is not attempted again
+            return invokerReference.get();
+         }
+         T invoker = generateInvoker(method);
+         classInvokers.put(signature, new WeakReference<T>(invoker));
+         return invoker;
+      }
+   }
+
+   /**
+    * @param method
+    * @return a new invoker for the method, defined by {@link InvokerClassFiles#newSharedInvoker}, or null if it
+    * cannot be invoked directly
+    */
+   protected abstract T generateInvoker(Method method);
+}
@@ -0,0 +1,125 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.interceptor.proxy.javassist;
+
+/**
+ * Runtime support for the generated invokers: converts the elements of a parameter array to the primitive parameter
+ * types of the invoked method, applying the same unboxing and widening conversions as
+ * {@link java.lang.reflect.Method#invoke(Object, Object[])}.
+ *
+ * This class is public only because the generated invokers are defined in the packages of the invoked classes.
+ */
+public final class GeneratedInvokerSupport
+{
+   private GeneratedInvokerSupport()
+   {
+   }
+
+   public static boolean toBoolean(Object value)
+   {
+      if (value instanceof Boolean)
+      {
+         return ((Boolean) value).booleanValue();
+      }
+      throw mismatch(value, boolean.class);
+   }
+
+   public static byte toByte(Object value)
+   {
+      if (value instanceof Byte)
+      {
+         return ((Byte) value).byteValue();
+      }
+      throw mismatch(value, byte.class);
+   }
+
+   public static char toChar(Object value)
+   {
+      if (value instanceof Character)
+      {
+         return ((Character) value).charValue();
+      }
+      throw mismatch(value, char.class);
+   }
+
+   public static short toShort(Object value)
+   {
+      if (value instanceof Short || value instanceof Byte)
+      {
+         return ((Number) value).shortValue();
+      }
+      throw mismatch(value, short.class);
+   }
+
+   public static int toInt(Object value)
+   {
+      if (value instanceof Integer || value instanceof Short || value instanceof Byte)
+      {
+         return ((Number) value).intValue();
+      }
+      if (value instanceof Character)
+      {
+         return ((Character) value).charValue();
+      }
+      throw mismatch(value, int.class);
+   }
+
+   public static long toLong(Object value)
+   {
+      if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte)
+      {
+         return ((Number) value).longValue();
+      }
+      if (value instanceof Character)
+      {
+         return ((Character) value).charValue();
+      }
+      throw mismatch(value, long.class);
+   }
+
+   public static float toFloat(Object value)
+   {
+      if (value instanceof Float || value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte)
+      {
+         return ((Number) value).floatValue();
+      }
+      if (value instanceof Character)
+      {
+         return ((Character) value).charValue();
+      }
+      throw mismatch(value, float.class);
+   }
+
+   public static double toDouble(Object value)
+   {
+      if (value instanceof Number)
+      {
+         return ((Number) value).doubleValue();
+      }
+      if (value instanceof Character)
+      {
+         return ((Character) value).charValue();
+      }
+      throw mismatch(value, double.class);
+   }
+
+   private static IllegalArgumentException mismatch(Object value, Class<?> primitiveClass)
+   {
+      return new IllegalArgumentException("Argument type mismatch: cannot convert " + (value == null ? "null" : value.getClass().getName()) + " to " + primitiveClass.getName());
+   }
+}
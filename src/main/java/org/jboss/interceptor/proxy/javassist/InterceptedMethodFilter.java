@@ -0,0 +1,88 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.interceptor.proxy.javassist;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+import javassist.util.proxy.MethodFilter;
+
+import org.jboss.interceptor.builder.MethodSignature;
+import org.jboss.interceptor.proxy.InterceptionDescriptor;
+import org.jboss.interceptor.reader.InterceptorMetadataUtils;
+import org.jboss.interceptor.spi.metadata.ClassMetadata;
+import org.jboss.interceptor.spi.metadata.InterceptorMetadata;
+import org.jboss.interceptor.spi.model.InterceptionModel;
+import org.jboss.interceptor.spi.model.InterceptionType;
+import org.jboss.interceptor.util.InterceptionUtils;
+
+/**
+ * A {@link MethodFilter} that lets a subclassing proxy override only the methods that have around-invoke or
+ * around-timeout interceptors under a given {@link InterceptionModel}, either bound through the model or declared
+ * by the target class itself. All other methods are inherited unchanged from the proxified class and are invoked
+ * without going through the {@link javassist.util.proxy.MethodHandler}.
+ *
+ * Abstract methods, such as the ones of the interfaces implemented by the proxy, are always handled.
+ */
+public class InterceptedMethodFilter implements MethodFilter
+{
+   private static final InterceptionType[] METHOD_INTERCEPTION_TYPES = {InterceptionType.AROUND_INVOKE, InterceptionType.AROUND_TIMEOUT};
+
+   private final InterceptionModel<ClassMetadata<?>, ?> interceptionModel;
+
+   private final InterceptorMetadata<?> targetClassInterceptorMetadata;
+
+   public InterceptedMethodFilter(ClassMetadata<?> targetClassMetadata, InterceptionModel<ClassMetadata<?>, ?> interceptionModel)
+   {
+      this.interceptionModel = interceptionModel;
+      this.targetClassInterceptorMetadata = InterceptorMetadataUtils.readMetadataForTargetClass(targetClassMetadata);
+   }
+
+   public InterceptedMethodFilter(InterceptionDescriptor interceptionDescriptor)
+   {
+      this.interceptionModel = interceptionDescriptor.getInterceptionModel();
+      this.targetClassInterceptorMetadata = interceptionDescriptor.getTargetClassInterceptorMetadata();
+   }
+
+   public boolean isHandled(Method method)
+   {
+      if (Modifier.isAbstract(method.getModifiers()))
+      {
+         return true;
+      }
+      if (!InterceptionUtils.isInterceptionCandidate(method))
+      {
+         return false;
+      }
+      MethodSignature methodSignature = MethodSignature.of(method);
+      for (InterceptionType interceptionType : METHOD_INTERCEPTION_TYPES)
+      {
+         if (targetClassInterceptorMetadata.isEligible(interceptionType))
+         {
+            return true;
+         }
+         for (InterceptorMetadata<?> interceptorMetadata : interceptionModel.getInterceptors(interceptionType, methodSignature))
+         {
+            if (interceptorMetadata.isEligible(interceptionType))
+            {
+               return true;
+            }
+         }
+      }
+      return false;
+   }
+}
@@ -0,0 +1,227 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.interceptor.proxy.javassist;
+
+import java.lang.reflect.Method;
+import java.util.List;
+
+import javassist.bytecode.AccessFlag;
+import javassist.bytecode.Bytecode;
+import javassist.bytecode.ClassFile;
+import javassist.bytecode.MethodInfo;
+
+import javax.interceptor.InvocationContext;
+
+import org.jboss.interceptor.proxy.CompiledChainInvoker;
+import org.jboss.interceptor.proxy.InterceptionChainPlan;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compiles the plan of an intercepted method into a single {@link CompiledChainInvoker}, whose <code>invoke</code>
+ * method switches on the stage of the chain and calls the corresponding interceptor method, or the target method,
+ * directly, i.e. the equivalent of
+ *
+ * <pre>
+ * switch (stage)
+ * {
+ *    case 0: return ((SecurityInterceptor) interceptorInstances[0]).aroundInvoke(invocationContext);
+ *    case 1: return ((TransactionInterceptor) interceptorInstances[2]).aroundInvoke(invocationContext);
+ *    case 2: return ((MyBean) target).aroundInvoke(invocationContext);
+ *    default: return ((MyBean) target).doSomething((String) invocationContext.getParameters()[0]);
+ * }
+ * </pre>
+ *
+ * The generated class is defined in the package and class loader of the class declaring the target method. The
+ * stages that cannot be invoked directly from there (e.g. private interceptor methods, or methods of classes that
+ * are not visible from that class loader) are delegated to the invokers resolved by the plan.
+ */
+public class InterceptionChainCompiler
+{
+   private static final Logger log = LoggerFactory.getLogger(InterceptionChainCompiler.class);
+
+   private static final String CHAIN_INVOKER_CLASS_NAME = CompiledChainInvoker.class.getName();
+
+   private static final String INVOCATION_CONTEXT_CLASS_NAME = InvocationContext.class.getName();
+
+   private static final String INVOCATION_CONTEXT_DESCRIPTOR = InvokerClassFiles.getDescriptor(InvocationContext.class);
+
+   private static final String INVOKE_METHOD_DESCRIPTOR = "(I[Ljava/lang/Object;Ljava/lang/Object;" + INVOCATION_CONTEXT_DESCRIPTOR + ")Ljava/lang/Object;";
+
+   private static final String INVOKE_TARGET_METHOD_DESCRIPTOR = "(Ljava/lang/Object;" + INVOCATION_CONTEXT_DESCRIPTOR + ")Ljava/lang/Object;";
+
+   private static final int STAGE = 1;
+
+   private static final int INTERCEPTOR_INSTANCES = 2;
+
+   private static final int TARGET = 3;
+
+   private static final int INVOCATION_CONTEXT = 4;
+
+   private static final int PARAMETERS = 5;
+
+   /**
+    * Compiles the plan of an intercepted method. Only plans whose interceptor methods all take an
+    * {@link InvocationContext} can be compiled.
+    *
+    * @param chainPlan
+    * @param targetMethod - the method to invoke at the end of the chain
+    * @return the compiled invoker, or null if the plan cannot be compiled
+    */
+   public static CompiledChainInvoker compile(InterceptionChainPlan chainPlan, Method targetMethod)
+   {
+      if (targetMethod == null || chainPlan.isEmpty())
+      {
+         return null;
+      }
+      for (InterceptionChainPlan.Step step : chainPlan.getSteps())
+      {
+         if (!step.isAcceptingInvocationContext())
+         {
+            return null;
+         }
+      }
+      Class<?> hostClass = targetMethod.getDeclaringClass();
+      if (hostClass.getClassLoader() == null)
+      {
+         return null;
+      }
+      try
+      {
+         ClassFile classFile = InvokerClassFiles.newInvokerSubclassFile(hostClass, "InterceptionChain", targetMethod.getName(), CompiledChainInvoker.class);
+         classFile.addMethod(createInvokeMethod(classFile, chainPlan.getSteps(), targetMethod, hostClass));
+         return InvokerClassFiles.newInvoker(classFile, hostClass, CompiledChainInvoker.class);
+      }
+      catch (Throwable t)
+      {
+         if (log.isDebugEnabled())
+         {
+            log.debug("Cannot compile the interception chain of " + targetMethod + ", it will be interpreted", t);
+         }
+         return null;
+      }
+   }
+
+   private static MethodInfo createInvokeMethod(ClassFile classFile, List<InterceptionChainPlan.Step> steps, Method targetMethod, Class<?> hostClass)
+   {
+      MethodInfo invoke = new MethodInfo(classFile.getConstPool(), "invoke", INVOKE_METHOD_DESCRIPTOR);
+      invoke.setAccessFlags(AccessFlag.PUBLIC);
+      Bytecode code = new Bytecode(classFile.getConstPool());
+      code.addIload(STAGE);
+
+      // tableswitch, with the default jump going to the target method
+      int switchPc = code.currentPc();
+      code.addOpcode(Bytecode.TABLESWITCH);
+      code.addGap(3 - (switchPc & 3));
+      int defaultOffsetPc = code.currentPc();
+      code.add32bit(0);
+      code.add32bit(0);
+      code.add32bit(steps.size() - 1);
+      int firstOffsetPc = code.currentPc();
+      code.addGap(4 * steps.size());
+
+      for (int i = 0; i < steps.size(); i++)
+      {
+         code.write32bit(firstOffsetPc + 4 * i, code.currentPc() - switchPc);
+         addStage(code, i, steps.get(i), hostClass);
+      }
+      code.write32bit(defaultOffsetPc, code.currentPc() - switchPc);
+      addTargetStage(code, targetMethod, hostClass);
+
+      code.setMaxLocals(PARAMETERS + 1);
+      invoke.setCodeAttribute(code.toCodeAttribute());
+      return invoke;
+   }
+
+   private static void addStage(Bytecode code, int stage, InterceptionChainPlan.Step step, Class<?> hostClass)
+   {
+      Method method = step.getMethod().getJavaMethod();
+      if (InvokerClassFiles.isDirectlyInvocable(method, hostClass) && !isPrimitive(method.getReturnType()))
+      {
+         if (step.isTargetClass())
+         {
+            code.addAload(TARGET);
+         }
+         else
+         {
+            code.addAload(INTERCEPTOR_INSTANCES);
+            code.addIconst(step.getInterceptorIndex());
+            code.addOpcode(Bytecode.AALOAD);
+         }
+         code.addCheckcast(method.getDeclaringClass().getName());
+         code.addAload(INVOCATION_CONTEXT);
+         Class<?> parameterType = method.getParameterTypes()[0];
+         if (!InvocationContext.class.equals(parameterType))
+         {
+            code.addCheckcast(parameterType.getName());
+         }
+         code.addInvokevirtual(method.getDeclaringClass().getName(), method.getName(), InvokerClassFiles.getDescriptor(method));
+         if (void.class.equals(method.getReturnType()))
+         {
+            code.addOpcode(Bytecode.ACONST_NULL);
+         }
+      }
+      else
+      {
+         code.addAload(0);
+         code.addIconst(stage);
+         code.addAload(INTERCEPTOR_INSTANCES);
+         code.addAload(TARGET);
+         code.addAload(INVOCATION_CONTEXT);
+         code.addInvokevirtual(CHAIN_INVOKER_CLASS_NAME, "invokeStep", INVOKE_METHOD_DESCRIPTOR);
+      }
+      code.addOpcode(Bytecode.ARETURN);
+   }
+
+   private static void addTargetStage(Bytecode code, Method targetMethod, Class<?> hostClass)
+   {
+      if (InvokerClassFiles.isDirectlyInvocable(targetMethod, hostClass))
+      {
+         Class<?>[] parameterTypes = targetMethod.getParameterTypes();
+         if (parameterTypes.length > 0)
+         {
+            code.addAload(INVOCATION_CONTEXT);
+            code.addInvokeinterface(INVOCATION_CONTEXT_CLASS_NAME, "getParameters", "()[Ljava/lang/Object;", 1);
+            code.addAstore(PARAMETERS);
+         }
+         code.addAload(TARGET);
+         code.addCheckcast(targetMethod.getDeclaringClass().getName());
+         for (int i = 0; i < parameterTypes.length; i++)
+         {
+            code.addAload(PARAMETERS);
+            code.addIconst(i);
+            code.addOpcode(Bytecode.AALOAD);
+            TargetMethodInvokerGenerator.addConversion(code, parameterTypes[i]);
+         }
+         code.addInvokevirtual(targetMethod.getDeclaringClass().getName(), targetMethod.getName(), InvokerClassFiles.getDescriptor(targetMethod));
+         TargetMethodInvokerGenerator.addBoxing(code, targetMethod.getReturnType());
+      }
+      else
+      {
+         code.addAload(0);
+         code.addAload(TARGET);
+         code.addAload(INVOCATION_CONTEXT);
+         code.addInvokevirtual(CHAIN_INVOKER_CLASS_NAME, "invokeTarget", INVOKE_TARGET_METHOD_DESCRIPTOR);
+      }
+      code.addOpcode(Bytecode.ARETURN);
+   }
+
+   private static boolean isPrimitive(Class<?> type)
+   {
+      return type.isPrimitive() && !void.class.equals(type);
+   }
+}
@@ -0,0 +1,130 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.interceptor.proxy.javassist;
+
+import java.lang.reflect.Method;
+
+import javassist.bytecode.AccessFlag;
+import javassist.bytecode.Bytecode;
+import javassist.bytecode.ClassFile;
+import javassist.bytecode.MethodInfo;
+
+import javax.interceptor.InvocationContext;
+
+import org.jboss.interceptor.proxy.InterceptorMethodInvoker;
+import org.jboss.interceptor.proxy.ReflectiveInterceptorMethodInvoker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Generates {@link InterceptorMethodInvoker}s that call interceptor methods directly, i.e. a small class per
+ * interceptor method whose <code>invoke</code> method is equivalent to
+ * <code>return ((MyInterceptor) instance).aroundInvoke((InvocationContext) invocationContext);</code>
+ *
+ * The generated class is defined in the package and class loader of the class declaring the interceptor method,
+ * so that package-private and protected interceptor methods can be invoked as well. Private interceptor methods,
+ * or methods that cannot be invoked directly for other reasons, are invoked reflectively.
+ *
+ * The generated invokers are shared by all the plans invoking the same method, through a
+ * {@link GeneratedInvokerCache} that does not keep the class loader of the method alive. The reflective invokers
+ * are not shared.
+ */
+public class InterceptorMethodInvokerGenerator
+{
+   private static final Logger log = LoggerFactory.getLogger(InterceptorMethodInvokerGenerator.class);
+
+   private static final String INVOKE_METHOD_DESCRIPTOR = "(Ljava/lang/Object;L" + InvocationContext.class.getName().replace('.', '/') + ";)Ljava/lang/Object;";
+
+   private static final GeneratedInvokerCache<InterceptorMethodInvoker> invokers = new GeneratedInvokerCache<InterceptorMethodInvoker>()
+   {
+      @Override
+      protected InterceptorMethodInvoker generateInvoker(Method method)
+      {
+         return InterceptorMethodInvokerGenerator.generateInvoker(method);
+      }
+   };
+
+   /**
+    * Returns the direct invoker of the given method, which is generated on the first request. Falls back to a new
+    * reflective invoker if the method cannot be invoked directly.
+    *
+    * @param method - the interceptor method
+    * @return the invoker
+    */
+   public static InterceptorMethodInvoker createInvoker(Method method)
+   {
+      InterceptorMethodInvoker invoker = isDirectlyInvocable(method) ? invokers.getInvoker(method) : null;
+      return invoker != null ? invoker : new ReflectiveInterceptorMethodInvoker(method);
+   }
+
+   /**
+    * @param method
+    * @return true if a direct invoker can be generated for the method
+    */
+   public static boolean isDirectlyInvocable(Method method)
+   {
+      if (method.getReturnType().isPrimitive() && !void.class.equals(method.getReturnType()))
+      {
+         return false;
+      }
+      return method.getParameterTypes().length <= 1 && InvokerClassFiles.isDirectlyInvocable(method);
+   }
+
+   private static InterceptorMethodInvoker generateInvoker(Method method)
+   {
+      try
+      {
+         Class<?> declaringClass = method.getDeclaringClass();
+         ClassFile classFile = InvokerClassFiles.newInvokerClassFile(declaringClass, "InterceptorMethodInvoker", method.getName(), InterceptorMethodInvoker.class);
+         classFile.addMethod(createInvokeMethod(classFile, method));
+         return InvokerClassFiles.newSharedInvoker(classFile, declaringClass, InterceptorMethodInvoker.class);
+      }
+      catch (Throwable t)
+      {
+         if (log.isDebugEnabled())
+         {
+            log.debug("Cannot generate a direct invoker for " + method + ", it will be invoked reflectively", t);
+         }
+         return null;
+      }
+   }
+
+   private static MethodInfo createInvokeMethod(ClassFile classFile, Method method)
+   {
+      MethodInfo invoke = new MethodInfo(classFile.getConstPool(), "invoke", INVOKE_METHOD_DESCRIPTOR);
+      invoke.setAccessFlags(AccessFlag.PUBLIC);
+      Bytecode code = new Bytecode(classFile.getConstPool());
+      code.addAload(1);
+      code.addCheckcast(method.getDeclaringClass().getName());
+      Class<?>[] parameterTypes = method.getParameterTypes();
+      if (parameterTypes.length == 1)
+      {
+         code.addAload(2);
+         code.addCheckcast(parameterTypes[0].getName());
+      }
+      code.addInvokevirtual(method.getDeclaringClass().getName(), method.getName(), InvokerClassFiles.getDescriptor(method));
+      if (void.class.equals(method.getReturnType()))
+      {
+         code.addOpcode(Bytecode.ACONST_NULL);
+      }
+      code.addOpcode(Bytecode.ARETURN);
+      code.setMaxLocals(3);
+      invoke.setCodeAttribute(code.toCodeAttribute());
+      return invoke;
+   }
+}
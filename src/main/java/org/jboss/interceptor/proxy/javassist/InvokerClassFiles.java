@@ -0,0 +1,239 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.interceptor.proxy.javassist;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javassist.bytecode.AccessFlag;
+import javassist.bytecode.Bytecode;
+import javassist.bytecode.ClassFile;
+import javassist.bytecode.FieldInfo;
+import javassist.bytecode.MethodInfo;
+import javassist.util.proxy.FactoryHelper;
+
+/**
+ * Helper methods for generating the classes of direct invokers.
+ */
+class InvokerClassFiles
+{
+   private static final AtomicInteger counter = new AtomicInteger();
+
+   private static final String INSTANCE_FIELD_NAME = "instance";
+
+   /**
+    * Checks the conditions that are common to all directly invoked methods: the method must be an instance method
+    * that can be invoked from a class defined in the same package and class loader as its declaring class
+    *
+    * @param method
+    * @return
+    */
+   static boolean isDirectlyInvocable(Method method)
+   {
+      return isDirectlyInvocable(method, method.getDeclaringClass());
+   }
+
+   /**
+    * Checks whether the method can be invoked directly from a class defined in the same package and class loader
+    * as the given host class. Methods of other packages must be public and declared by a public class that is
+    * visible from the class loader of the host class.
+    *
+    * @param method
+    * @param hostClass
+    * @return
+    */
+   static boolean isDirectlyInvocable(Method method, Class<?> hostClass)
+   {
+      Class<?> declaringClass = method.getDeclaringClass();
+      if (declaringClass.isInterface() || declaringClass.getClassLoader() == null || hostClass.getClassLoader() == null)
+      {
+         return false;
+      }
+      if (Modifier.isPrivate(method.getModifiers()) || Modifier.isStatic(method.getModifiers()))
+      {
+         return false;
+      }
+      if (!isInSamePackage(declaringClass, hostClass)
+            && !(Modifier.isPublic(method.getModifiers()) && Modifier.isPublic(declaringClass.getModifiers()) && isVisibleFrom(declaringClass, hostClass)))
+      {
+         return false;
+      }
+      for (Class<?> parameterType : method.getParameterTypes())
+      {
+         if (!isAccessibleFrom(parameterType, hostClass))
+         {
+            return false;
+         }
+      }
+      return isAccessibleFrom(method.getReturnType(), hostClass);
+   }
+
+   private static boolean isInSamePackage(Class<?> type, Class<?> hostClass)
+   {
+      return type.getClassLoader() == hostClass.getClassLoader() && getPackageName(type).equals(getPackageName(hostClass));
+   }
+
+   private static boolean isVisibleFrom(Class<?> type, Class<?> hostClass)
+   {
+      if (type.getClassLoader() == hostClass.getClassLoader())
+      {
+         return true;
+      }
+      try
+      {
+         return Class.forName(type.getName(), false, hostClass.getClassLoader()) == type;
+      }
+      catch (ClassNotFoundException e)
+      {
+         return false;
+      }
+   }
+
+   private static boolean isAccessibleFrom(Class<?> type, Class<?> declaringClass)
+   {
+      while (type.isArray())
+      {
+         type = type.getComponentType();
+      }
+      if (type.isPrimitive() || Modifier.isPublic(type.getModifiers()))
+      {
+         return true;
+      }
+      return isInSamePackage(type, declaringClass);
+   }
+
+   /**
+    * Creates a public final class with a public no-arg constructor, implementing the given interface
+    *
+    * @param declaringClass - the class declaring the invoked method, determines the package of the invoker
+    * @param kind - a distinctive part of the class name
+    * @param methodName - the name of the invoked method
+    * @param interfaceType - the interface implemented by the invoker
+    * @return the class file
+    * @throws Exception
+    */
+   static ClassFile newInvokerClassFile(Class<?> declaringClass, String kind, String methodName, Class<?> interfaceType) throws Exception
+   {
+      ClassFile classFile = newInvokerSubclassFile(declaringClass, kind, methodName, Object.class);
+      classFile.setInterfaces(new String[]{interfaceType.getName()});
+      return classFile;
+   }
+
+   /**
+    * Creates a public final class with a public no-arg constructor, extending the given class
+    *
+    * @param declaringClass - the class declaring the invoked method, determines the package of the invoker
+    * @param kind - a distinctive part of the class name
+    * @param methodName - the name of the invoked method
+    * @param superclass - the superclass of the invoker, which must have an accessible no-arg constructor
+    * @return the class file
+    * @throws Exception
+    */
+   static ClassFile newInvokerSubclassFile(Class<?> declaringClass, String kind, String methodName, Class<?> superclass) throws Exception
+   {
+      String invokerClassName = declaringClass.getName() + "$$" + kind + "$$" + methodName + "$$" + counter.incrementAndGet();
+      ClassFile classFile = new ClassFile(false, invokerClassName, superclass.getName());
+      classFile.setAccessFlags(AccessFlag.PUBLIC | AccessFlag.FINAL | AccessFlag.SUPER);
+
+      MethodInfo constructor = new MethodInfo(classFile.getConstPool(), MethodInfo.nameInit, "()V");
+      constructor.setAccessFlags(AccessFlag.PUBLIC);
+      Bytecode constructorCode = new Bytecode(classFile.getConstPool());
+      constructorCode.addAload(0);
+      constructorCode.addInvokespecial(superclass.getName(), MethodInfo.nameInit, "()V");
+      constructorCode.addOpcode(Bytecode.RETURN);
+      constructorCode.setMaxLocals(1);
+      constructor.setCodeAttribute(constructorCode.toCodeAttribute());
+      classFile.addMethod(constructor);
+      return classFile;
+   }
+
+   /**
+    * Defines the invoker class in the class loader of the declaring class and instantiates it
+    *
+    * @return the invoker, or null if the class loader of the declaring class sees a different copy of the interface
+    * @throws Exception
+    */
+   static <T> T newInvoker(ClassFile classFile, Class<?> declaringClass, Class<T> interfaceType) throws Exception
+   {
+      Class<?> invokerClass = FactoryHelper.toClass(classFile, declaringClass.getClassLoader(), declaringClass.getProtectionDomain());
+      if (!interfaceType.isAssignableFrom(invokerClass))
+      {
+         return null;
+      }
+      return interfaceType.cast(invokerClass.newInstance());
+   }
+
+   /**
+    * Like {@link #newInvoker(ClassFile, Class, Class)}, but the invoker is also kept in a static field of its class,
+    * so that it lives as long as the class loader of the declaring class
+    *
+    * @return the invoker, or null if the class loader of the declaring class sees a different copy of the interface
+    * @throws Exception
+    */
+   static <T> T newSharedInvoker(ClassFile classFile, Class<?> declaringClass, Class<T> interfaceType) throws Exception
+   {
+      FieldInfo instanceField = new FieldInfo(classFile.getConstPool(), INSTANCE_FIELD_NAME, "Ljava/lang/Object;");
+      instanceField.setAccessFlags(AccessFlag.PUBLIC | AccessFlag.STATIC);
+      classFile.addField(instanceField);
+      T invoker = newInvoker(classFile, declaringClass, interfaceType);
+      if (invoker != null)
+      {
+         invoker.getClass().getField(INSTANCE_FIELD_NAME).set(null, invoker);
+      }
+      return invoker;
+   }
+
+   static String getDescriptor(Method method)
+   {
+      StringBuilder descriptor = new StringBuilder("(");
+      for (Class<?> parameterType : method.getParameterTypes())
+      {
+         descriptor.append(getDescriptor(parameterType));
+      }
+      return descriptor.append(")").append(getDescriptor(method.getReturnType())).toString();
+   }
+
+   static String getDescriptor(Class<?> type)
+   {
+      if (type.isArray())
+      {
+         return type.getName().replace('.', '/');
+      }
+      if (type.isPrimitive())
+      {
+         if (void.class.equals(type)) return "V";
+         if (boolean.class.equals(type)) return "Z";
+         if (byte.class.equals(type)) return "B";
+         if (char.class.equals(type)) return "C";
+         if (short.class.equals(type)) return "S";
+         if (int.class.equals(type)) return "I";
+         if (long.class.equals(type)) return "J";
+         if (float.class.equals(type)) return "F";
+         return "D";
+      }
+      return "L" + type.getName().replace('.', '/') + ";";
+   }
+
+   static String getPackageName(Class<?> type)
+   {
+      String className = type.getName();
+      int lastDot = className.lastIndexOf('.');
+      return lastDot < 0 ? "" : className.substring(0, lastDot);
+   }
+}
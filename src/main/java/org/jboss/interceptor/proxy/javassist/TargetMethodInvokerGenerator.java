@@ -0,0 +1,151 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.interceptor.proxy.javassist;
+
+import java.lang.reflect.Method;
+
+import javassist.bytecode.AccessFlag;
+import javassist.bytecode.Bytecode;
+import javassist.bytecode.ClassFile;
+import javassist.bytecode.MethodInfo;
+
+import org.jboss.interceptor.proxy.ReflectiveTargetMethodInvoker;
+import org.jboss.interceptor.proxy.TargetMethodInvoker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Generates {@link TargetMethodInvoker}s that call intercepted methods directly, unpacking the parameter array and
+ * boxing the returned value, i.e. the equivalent of
+ * <code>return Integer.valueOf(((MyBean) target).doSomething((String) parameters[0], toInt(parameters[1])));</code>
+ *
+ * Like {@link InterceptorMethodInvokerGenerator}, it falls back to reflection for the methods that cannot be invoked
+ * directly, and shares the generated invokers through a {@link GeneratedInvokerCache}, so that the invokers of the
+ * super-accessors of a proxy class go away along with the class loader of the proxy.
+ */
+public class TargetMethodInvokerGenerator
+{
+   private static final Logger log = LoggerFactory.getLogger(TargetMethodInvokerGenerator.class);
+
+   private static final String INVOKE_METHOD_DESCRIPTOR = "(Ljava/lang/Object;[Ljava/lang/Object;)Ljava/lang/Object;";
+
+   private static final String SUPPORT_CLASS_NAME = GeneratedInvokerSupport.class.getName();
+
+   private static final GeneratedInvokerCache<TargetMethodInvoker> invokers = new GeneratedInvokerCache<TargetMethodInvoker>()
+   {
+      @Override
+      protected TargetMethodInvoker generateInvoker(Method method)
+      {
+         return TargetMethodInvokerGenerator.generateInvoker(method);
+      }
+   };
+
+   /**
+    * Returns the direct invoker of the given method, which is generated on the first request. Falls back to a new
+    * reflective invoker if the method cannot be invoked directly.
+    *
+    * @param method - the target method
+    * @return the invoker
+    */
+   public static TargetMethodInvoker createInvoker(Method method)
+   {
+      TargetMethodInvoker invoker = InvokerClassFiles.isDirectlyInvocable(method) ? invokers.getInvoker(method) : null;
+      return invoker != null ? invoker : new ReflectiveTargetMethodInvoker(method);
+   }
+
+   private static TargetMethodInvoker generateInvoker(Method method)
+   {
+      try
+      {
+         Class<?> declaringClass = method.getDeclaringClass();
+         ClassFile classFile = InvokerClassFiles.newInvokerClassFile(declaringClass, "TargetMethodInvoker", method.getName(), TargetMethodInvoker.class);
+         classFile.addMethod(createInvokeMethod(classFile, method));
+         return InvokerClassFiles.newSharedInvoker(classFile, declaringClass, TargetMethodInvoker.class);
+      }
+      catch (Throwable t)
+      {
+         if (log.isDebugEnabled())
+         {
+            log.debug("Cannot generate a direct invoker for " + method + ", it will be invoked reflectively", t);
+         }
+         return null;
+      }
+   }
+
+   private static MethodInfo createInvokeMethod(ClassFile classFile, Method method)
+   {
+      MethodInfo invoke = new MethodInfo(classFile.getConstPool(), "invoke", INVOKE_METHOD_DESCRIPTOR);
+      invoke.setAccessFlags(AccessFlag.PUBLIC);
+      Bytecode code = new Bytecode(classFile.getConstPool());
+      code.addAload(1);
+      code.addCheckcast(method.getDeclaringClass().getName());
+      Class<?>[] parameterTypes = method.getParameterTypes();
+      for (int i = 0; i < parameterTypes.length; i++)
+      {
+         code.addAload(2);
+         code.addIconst(i);
+         code.addOpcode(Bytecode.AALOAD);
+         addConversion(code, parameterTypes[i]);
+      }
+      code.addInvokevirtual(method.getDeclaringClass().getName(), method.getName(), InvokerClassFiles.getDescriptor(method));
+      addBoxing(code, method.getReturnType());
+      code.addOpcode(Bytecode.ARETURN);
+      code.setMaxLocals(3);
+      invoke.setCodeAttribute(code.toCodeAttribute());
+      return invoke;
+   }
+
+   static void addConversion(Bytecode code, Class<?> parameterType)
+   {
+      if (parameterType.isPrimitive())
+      {
+         String typeName = parameterType.getName();
+         String conversionMethodName = "to" + Character.toUpperCase(typeName.charAt(0)) + typeName.substring(1);
+         code.addInvokestatic(SUPPORT_CLASS_NAME, conversionMethodName, "(Ljava/lang/Object;)" + InvokerClassFiles.getDescriptor(parameterType));
+      }
+      else if (!Object.class.equals(parameterType))
+      {
+         code.addCheckcast(parameterType.getName());
+      }
+   }
+
+   static void addBoxing(Bytecode code, Class<?> returnType)
+   {
+      if (void.class.equals(returnType))
+      {
+         code.addOpcode(Bytecode.ACONST_NULL);
+      }
+      else if (returnType.isPrimitive())
+      {
+         String wrapperClassName = getWrapperClass(returnType).getName();
+         code.addInvokestatic(wrapperClassName, "valueOf", "(" + InvokerClassFiles.getDescriptor(returnType) + ")L" + wrapperClassName.replace('.', '/') + ";");
+      }
+   }
+
+   private static Class<?> getWrapperClass(Class<?> primitiveClass)
+   {
+      if (boolean.class.equals(primitiveClass)) return Boolean.class;
+      if (byte.class.equals(primitiveClass)) return Byte.class;
+      if (char.class.equals(primitiveClass)) return Character.class;
+      if (short.class.equals(primitiveClass)) return Short.class;
+      if (int.class.equals(primitiveClass)) return Integer.class;
+      if (long.class.equals(primitiveClass)) return Long.class;
+      if (float.class.equals(primitiveClass)) return Float.class;
+      return Double.class;
+   }
+}
@@ -0,0 +1,239 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.interceptor.reader;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.List;
+
+import javassist.bytecode.ClassFile;
+import javassist.bytecode.MethodInfo;
+import org.jboss.interceptor.spi.metadata.ClassMetadata;
+import org.jboss.interceptor.spi.metadata.MethodMetadata;
+import org.jboss.interceptor.util.ArrayIterator;
+import org.jboss.interceptor.util.InterceptorMetadataException;
+import org.jboss.interceptor.util.ReflectionUtils;
+
+/**
+ * Reads the metadata of a class from its class file, through the javassist {@link ClassFile} API, without loading
+ * the class. The metadata of its superclasses is read the same way, from the class files found by the same class
+ * loader, up to {@link Object}. The class and its methods are only loaded if {@link #getJavaClass()} or
+ * {@link MethodMetadata#getJavaMethod()} is invoked, which is why the metadata is {@link #isDeferringReflection()
+ * deferring reflection}.
+ *
+ * The class loader is not serialized: a deserialized instance loads its class through the thread context class
+ * loader.
+ */
+public class ClassFileClassMetadata<T> implements ClassMetadata<T>, Serializable
+{
+   private static final long serialVersionUID = 1L;
+
+   private static final String OBJECT_CLASS_NAME = Object.class.getName();
+
+   private final String className;
+
+   private final String superclassName;
+
+   private final MethodMetadata[] declaredMethods;
+
+   private transient ClassLoader classLoader;
+
+   private transient volatile Class<T> javaClass;
+
+   private transient volatile ClassMetadata<?> superclass;
+
+   private ClassFileClassMetadata(ClassFile classFile, ClassLoader classLoader)
+   {
+      this.className = classFile.getName();
+      this.superclassName = OBJECT_CLASS_NAME.equals(className) || classFile.isInterface() ? null : classFile.getSuperclass();
+      this.classLoader = classLoader;
+      List<?> methods = classFile.getMethods();
+      int declaredMethodCount = 0;
+      MethodMetadata[] declaredMethods = new MethodMetadata[methods.size()];
+      for (Object method : methods)
+      {
+         MethodInfo methodInfo = (MethodInfo) method;
+         // like Class.getDeclaredMethods(), constructors and static initializers are left out
+         if (!methodInfo.isConstructor() && !methodInfo.isStaticInitializer())
+         {
+            declaredMethods[declaredMethodCount++] = new ClassFileMethodMetadata(this, methodInfo);
+         }
+      }
+      this.declaredMethods = new MethodMetadata[declaredMethodCount];
+      System.arraycopy(declaredMethods, 0, this.declaredMethods, 0, declaredMethodCount);
+   }
+
+   /**
+    * Reads the metadata of a class from the class file found by the given class loader.
+    *
+    * @param className
+    * @param classLoader
+    * @return the metadata of the class
+    * @throws InterceptorMetadataException if the class file cannot be found or read
+    */
+   public static <T> ClassMetadata<T> of(String className, ClassLoader classLoader)
+   {
+      InputStream inputStream = classLoader.getResourceAsStream(className.replace('.', '/') + ".class");
+      if (inputStream == null)
+      {
+         throw new InterceptorMetadataException("Class file not found for class " + className);
+      }
+      try
+      {
+         return of(inputStream, classLoader);
+      }
+      finally
+      {
+         try
+         {
+            inputStream.close();
+         }
+         catch (IOException e)
+         {
+            // the class file has been read already
+         }
+      }
+   }
+
+   /**
+    * Reads the metadata of a class from the given class file contents.
+    *
+    * @param inputStream - the contents of the class file, which is not closed
+    * @param classLoader - the class loader that can find the class files of the superclasses, and load the class
+    * @return the metadata of the class
+    * @throws InterceptorMetadataException if the class file cannot be read
+    */
+   public static <T> ClassMetadata<T> of(InputStream inputStream, ClassLoader classLoader)
+   {
+      try
+      {
+         return new ClassFileClassMetadata<T>(new ClassFile(new DataInputStream(new BufferedInputStream(inputStream))), classLoader);
+      }
+      catch (IOException e)
+      {
+         throw new InterceptorMetadataException("Cannot read class file", e);
+      }
+   }
+
+   public Iterable<MethodMetadata> getDeclaredMethods()
+   {
+      return new Iterable<MethodMetadata>()
+      {
+         public Iterator<MethodMetadata> iterator()
+         {
+            return new ArrayIterator<MethodMetadata>(declaredMethods);
+         }
+      };
+   }
+
+   public boolean isDeferringReflection()
+   {
+      return true;
+   }
+
+   /**
+    * Loads the class, without initializing it.
+    *
+    * @throws InterceptorMetadataException if the class cannot be loaded
+    */
+   public Class<T> getJavaClass()
+   {
+      Class<T> javaClass = this.javaClass;
+      if (javaClass == null)
+      {
+         try
+         {
+            // the class is the one named by the class file this metadata has been read from for T
+            @SuppressWarnings("unchecked")
+            Class<T> loadedClass = (Class<T>) Class.forName(className, false, getClassLoader());
+            javaClass = loadedClass;
+         }
+         catch (ClassNotFoundException e)
+         {
+            throw new InterceptorMetadataException("Cannot load class " + className, e);
+         }
+         this.javaClass = javaClass;
+      }
+      return javaClass;
+   }
+
+   public String getJavaClassName()
+   {
+      return className;
+   }
+
+   public ClassMetadata<?> getSuperclass()
+   {
+      if (superclassName == null)
+      {
+         return null;
+      }
+      ClassMetadata<?> superclass = this.superclass;
+      if (superclass == null)
+      {
+         // Object is always loaded already
+         superclass = OBJECT_CLASS_NAME.equals(superclassName) ? ReflectiveClassMetadata.of(Object.class) : of(superclassName, getClassLoader());
+         this.superclass = superclass;
+      }
+      return superclass;
+   }
+
+   /**
+    * @return the class loader from which the class files of the class and its superclasses are read
+    */
+   public ClassLoader getClassLoader()
+   {
+      ClassLoader classLoader = this.classLoader;
+      if (classLoader == null)
+      {
+         classLoader = ReflectionUtils.getThreadContextClassLoader(true);
+         this.classLoader = classLoader;
+      }
+      return classLoader;
+   }
+
+   @Override
+   public int hashCode()
+   {
+      return className.hashCode();
+   }
+
+   @Override
+   public boolean equals(Object obj)
+   {
+      if (this == obj)
+      {
+         return true;
+      }
+      if (obj == null || getClass() != obj.getClass())
+      {
+         return false;
+      }
+      ClassFileClassMetadata<?> other = (ClassFileClassMetadata<?>) obj;
+      return className.equals(other.className) && getClassLoader() == other.getClassLoader();
+   }
+
+   @Override
+   public String toString()
+   {
+      return className;
+   }
+}
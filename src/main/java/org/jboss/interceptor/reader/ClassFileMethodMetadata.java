@@ -0,0 +1,203 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.interceptor.reader;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javassist.bytecode.AccessFlag;
+import javassist.bytecode.AnnotationsAttribute;
+import javassist.bytecode.MethodInfo;
+import javassist.bytecode.annotation.Annotation;
+import org.jboss.interceptor.builder.MethodReference;
+import org.jboss.interceptor.builder.MethodSignature;
+import org.jboss.interceptor.spi.model.InterceptionType;
+import org.jboss.interceptor.util.InterceptorMetadataException;
+import org.jboss.interceptor.util.ReflectionUtils;
+
+/**
+ * Represents information about a method read from a class file by {@link ClassFileClassMetadata}. The interception
+ * types are found from the names of the runtime-visible annotations of the method, and the argument and return
+ * types from its descriptor, in the format of {@link Class#getName()}. The {@link Method} is only looked up when
+ * {@link #getJavaMethod()} is invoked.
+ */
+public class ClassFileMethodMetadata extends AbstractMethodMetadata implements Serializable
+{
+   private static final long serialVersionUID = 1L;
+
+   private final ClassFileClassMetadata<?> declaringClass;
+
+   private final MethodReference methodReference;
+
+   private final int modifiers;
+
+   private final List<String> annotationTypeNames;
+
+   private transient volatile Method javaMethod;
+
+   ClassFileMethodMetadata(ClassFileClassMetadata<?> declaringClass, MethodInfo methodInfo)
+   {
+      this.declaringClass = declaringClass;
+      String descriptor = methodInfo.getDescriptor();
+      List<String> argumentTypeNames = new ArrayList<String>();
+      int position = 1;
+      while (descriptor.charAt(position) != ')')
+      {
+         int end = endOfType(descriptor, position);
+         argumentTypeNames.add(toTypeName(descriptor.substring(position, end)));
+         position = end;
+      }
+      String returnTypeName = toTypeName(descriptor.substring(position + 1));
+      this.methodReference = new MethodReference(declaringClass.getJavaClassName(), new MethodSignature(methodInfo.getName(), argumentTypeNames.toArray(new String[argumentTypeNames.size()])), returnTypeName);
+      this.modifiers = AccessFlag.toModifier(methodInfo.getAccessFlags());
+      List<String> annotationTypeNames = new ArrayList<String>();
+      AnnotationsAttribute annotationsAttribute = (AnnotationsAttribute) methodInfo.getAttribute(AnnotationsAttribute.visibleTag);
+      if (annotationsAttribute != null)
+      {
+         for (Annotation annotation : annotationsAttribute.getAnnotations())
+         {
+            annotationTypeNames.add(annotation.getTypeName());
+         }
+      }
+      this.annotationTypeNames = annotationTypeNames;
+      initSupportedInterceptionTypes();
+   }
+
+   /**
+    * @return the position that follows the type descriptor starting at the given position
+    */
+   private static int endOfType(String descriptor, int position)
+   {
+      while (descriptor.charAt(position) == '[')
+      {
+         position++;
+      }
+      return descriptor.charAt(position) == 'L' ? descriptor.indexOf(';', position) + 1 : position + 1;
+   }
+
+   /**
+    * @return the name of the type, as returned by {@link Class#getName()}
+    */
+   private static String toTypeName(String typeDescriptor)
+   {
+      if (typeDescriptor.charAt(0) == '[')
+      {
+         return typeDescriptor.replace('/', '.');
+      }
+      switch (typeDescriptor.charAt(0))
+      {
+         case 'L':
+            return typeDescriptor.substring(1, typeDescriptor.length() - 1).replace('/', '.');
+         case 'V':
+            return "void";
+         case 'Z':
+            return "boolean";
+         case 'B':
+            return "byte";
+         case 'C':
+            return "char";
+         case 'S':
+            return "short";
+         case 'I':
+            return "int";
+         case 'J':
+            return "long";
+         case 'F':
+            return "float";
+         case 'D':
+            return "double";
+         default:
+            throw new IllegalArgumentException("Invalid type descriptor " + typeDescriptor);
+      }
+   }
+
+   @Override
+   protected boolean interceptionAnnotationExists(InterceptionType interceptionType)
+   {
+      return annotationTypeNames.contains(interceptionType.annotationClassName());
+   }
+
+   @Override
+   public boolean isDeferringReflection()
+   {
+      return true;
+   }
+
+   /**
+    * @return the modifiers of the method, as defined by {@link java.lang.reflect.Modifier}
+    */
+   public int getModifiers()
+   {
+      return modifiers;
+   }
+
+   /**
+    * Loads the declaring class and looks up the method, which is made accessible.
+    *
+    * @throws InterceptorMetadataException if the class cannot be loaded, or does not declare the method
+    */
+   @Override
+   public Method getJavaMethod()
+   {
+      Method javaMethod = this.javaMethod;
+      if (javaMethod == null)
+      {
+         MethodSignature methodSignature = methodReference.getMethodSignature();
+         for (Method method : declaringClass.getJavaClass().getDeclaredMethods())
+         {
+            if (method.getName().equals(methodSignature.getMethodName())
+                  && method.getReturnType().getName().equals(methodReference.getReturnTypeName())
+                  && Arrays.equals(MethodSignature.of(method).getArgumentTypeNames(), methodSignature.getArgumentTypeNames()))
+            {
+               javaMethod = method;
+               break;
+            }
+         }
+         if (javaMethod == null)
+         {
+            throw new InterceptorMetadataException("Method " + methodSignature.getMethodName() + " not found on class " + declaringClass.getJavaClassName());
+         }
+         ReflectionUtils.ensureAccessible(javaMethod);
+         this.javaMethod = javaMethod;
+      }
+      return javaMethod;
+   }
+
+   @Override
+   public MethodReference getMethodReference()
+   {
+      return methodReference;
+   }
+
+   private void readObject(ObjectInputStream objectInputStream) throws IOException, ClassNotFoundException
+   {
+      objectInputStream.defaultReadObject();
+      // the interception types are held by the superclass, which is not serializable
+      initSupportedInterceptionTypes();
+   }
+
+   @Override
+   public String toString()
+   {
+      return declaringClass.getJavaClassName() + "." + methodReference.getMethodSignature().getMethodName();
+   }
+}
@@ -17,7 +17,6 @@
 
 package org.jboss.interceptor.reader;
 
-import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -28,6 +27,7 @@ import java.util.Set;
 
 import javax.interceptor.InvocationContext;
 
+import org.jboss.interceptor.builder.MethodReference;
 import org.jboss.interceptor.builder.MethodSignature;
 import org.jboss.interceptor.spi.metadata.ClassMetadata;
 import org.jboss.interceptor.spi.metadata.InterceptorMetadata;
@@ -76,42 +76,42 @@ public class InterceptorMetadataUtils
       {
          if (!isReturningVoid(method))
          {
-            throw new InterceptorMethodSignatureException(getErrorMessage(interceptionType, method.getJavaMethod()) + "does not have a void return type");
+            throw new InterceptorMethodSignatureException(getErrorMessage(interceptionType, method) + "does not have a void return type");
          }
 
 
          if (forTargetClass && parameterCount != 0)
          {
-            throw new InterceptorMethodSignatureException(getErrorMessage(interceptionType, method.getJavaMethod()) + "is defined on the target class and does not have 0 arguments");
+            throw new InterceptorMethodSignatureException(getErrorMessage(interceptionType, method) + "is defined on the target class and does not have 0 arguments");
          }
 
          if (!forTargetClass && parameterCount != 1)
          {
-            throw new InterceptorMethodSignatureException(getErrorMessage(interceptionType, method.getJavaMethod()) + "does not have exactly one parameter");
+            throw new InterceptorMethodSignatureException(getErrorMessage(interceptionType, method) + "does not have exactly one parameter");
          }
 
          if (!forTargetClass && !hasSingleInvocationContextArgument(method))
          {
-            throw new InterceptorMethodSignatureException(getErrorMessage(interceptionType, method.getJavaMethod()) + "its single argument is not a " + InvocationContext.class.getName());
+            throw new InterceptorMethodSignatureException(getErrorMessage(interceptionType, method) + "its single argument is not a " + InvocationContext.class.getName());
          }
       }
       else
       {
          if (!isReturningObject(method))
          {
-            throw new InterceptorMethodSignatureException(getErrorMessage(interceptionType, method.getJavaMethod()) + "does not return a " + OBJECT_CLASS_NAME);
+            throw new InterceptorMethodSignatureException(getErrorMessage(interceptionType, method) + "does not return a " + OBJECT_CLASS_NAME);
          }
 
          String[] parameterTypes = method.getMethodReference().getMethodSignature().getArgumentTypeNames();
 
          if (parameterTypes.length != 1)
          {
-            throw new InterceptorMethodSignatureException(getErrorMessage(interceptionType, method.getJavaMethod()) + "does not have exactly 1 parameter");
+            throw new InterceptorMethodSignatureException(getErrorMessage(interceptionType, method) + "does not have exactly 1 parameter");
          }
 
          if (!hasSingleInvocationContextArgument(method))
          {
-            throw new InterceptorMethodSignatureException(getErrorMessage(interceptionType, method.getJavaMethod()) + "does not have a " + InvocationContext.class.getName() + " parameter ");
+            throw new InterceptorMethodSignatureException(getErrorMessage(interceptionType, method) + "does not have a " + InvocationContext.class.getName() + " parameter ");
          }
       }
       return true;
@@ -157,13 +157,27 @@ public class InterceptorMetadataUtils
       }
    }
 
-   static String getErrorMessage(InterceptionType interceptionType, Method method)
+   static String getErrorMessage(InterceptionType interceptionType, MethodMetadata method)
    {
-      return "Method " + method.getName() + " defined on class " + method.getDeclaringClass().getName()
+      MethodReference methodReference = method.getMethodReference();
+      return "Method " + methodReference.getMethodSignature().getMethodName() + " defined on class " + methodReference.getDeclaringClassName()
             + " will not be used for interception, since it is not defined according to the specification. It is annotated with @"
             + interceptionType.annotationClassName() + ", but ";
    }
 
+   /**
+    * Methods deferring reflection are assumed not to be private, unless their metadata has been read from a class
+    * file.
+    */
+   private static boolean isPrivate(MethodMetadata method)
+   {
+      if (!method.isDeferringReflection())
+      {
+         return Modifier.isPrivate(method.getJavaMethod().getModifiers());
+      }
+      return method instanceof ClassFileMethodMetadata && Modifier.isPrivate(((ClassFileMethodMetadata) method).getModifiers());
+   }
+
    static Map<InterceptionType, List<MethodMetadata>> buildInterceptorMethodMap(ClassMetadata<?> interceptorClass, boolean forTargetClass)
    {
       Map<InterceptionType, List<MethodMetadata>> methodMap = new HashMap<InterceptionType, List<MethodMetadata>>();
@@ -175,10 +189,12 @@ public class InterceptorMetadataUtils
 
          for (MethodMetadata method : currentClass.getDeclaredMethods())
          {
-            MethodSignature methodReference = MethodSignature.of(method.getJavaMethod());
+            // the signature and the modifiers are read without reflection if the metadata is deferring it
+            MethodSignature methodReference = method.getMethodReference().getMethodSignature();
+            boolean privateMethod = isPrivate(method);
             // ignore a method if a signature has been found in a subclass already - it means that it is overridden
             // however, if the method is private, don't ignore it - private methods are never overridden
-            if (!foundMethods.contains(methodReference) || Modifier.isPrivate(method.getJavaMethod().getModifiers()))
+            if (!foundMethods.contains(methodReference) || privateMethod)
             {
                for (InterceptionType interceptionType : InterceptionTypeRegistry.getSupportedInterceptionTypes())
                {
@@ -199,8 +215,11 @@ public class InterceptorMetadataUtils
                      // add method in the list - if it is there already, it means that it has been added by a subclass
                      // final methods are treated separately, as a final method cannot override another method nor be
                      // overridden
-                     ReflectionUtils.ensureAccessible(method.getJavaMethod());
-                     if (!foundMethods.contains(methodReference) && Modifier.isPrivate(method.getJavaMethod().getModifiers()))
+                     if (!method.isDeferringReflection())
+                     {
+                        ReflectionUtils.ensureAccessible(method.getJavaMethod());
+                     }
+                     if (!foundMethods.contains(methodReference) && privateMethod)
                      {
                         ;
                      }
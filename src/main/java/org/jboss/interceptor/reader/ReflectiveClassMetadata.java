@@ -17,33 +17,56 @@
 
 package org.jboss.interceptor.reader;
 
+import java.io.ObjectStreamException;
 import java.io.Serializable;
 import java.lang.reflect.Method;
 import java.util.Iterator;
+import java.util.concurrent.ConcurrentMap;
 
+import com.google.common.base.Function;
+import com.google.common.collect.MapMaker;
 import org.jboss.interceptor.spi.metadata.ClassMetadata;
 import org.jboss.interceptor.spi.metadata.MethodMetadata;
 import org.jboss.interceptor.util.ArrayIterator;
-import org.jboss.interceptor.util.ImmutableIteratorWrapper;
 
 /**
+ * Reads the metadata of a class through reflection. The metadata of the declared methods and the superclass are
+ * computed on first use and kept, and there is a single instance per class, unless it has been reclaimed or
+ * deserialized, so that the walks of class hierarchies share the metadata of the common superclasses.
+ *
  * @author Marius Bogoevici
  */
 public class ReflectiveClassMetadata<T> implements ClassMetadata<T>, Serializable
 {
 
    private static final long serialVersionUID = -2088679292389273922L;
-   
+
+   // the values reference their keys, so they are held softly for the classes to remain collectable
+   private static final ConcurrentMap<Class<?>, ReflectiveClassMetadata<?>> instances = new MapMaker().weakKeys().softValues().makeComputingMap(new Function<Class<?>, ReflectiveClassMetadata<?>>()
+   {
+      @SuppressWarnings({ "unchecked", "rawtypes" })
+      public ReflectiveClassMetadata<?> apply(Class<?> from)
+      {
+         return new ReflectiveClassMetadata(from);
+      }
+   });
+
    private Class<T> clazz;
 
+   // computed on first use, possibly more than once by concurrent readers, which then compute equal values
+   private transient volatile MethodMetadata[] declaredMethods;
+
+   private transient volatile ClassMetadata<?> superclass;
+
    private ReflectiveClassMetadata(Class<T> clazz)
    {
       this.clazz = clazz;
    }
 
+   @SuppressWarnings("unchecked")
    public static <T> ClassMetadata<T> of(Class<T> clazz)
    {
-      return new ReflectiveClassMetadata<T>(clazz);
+      return (ClassMetadata<T>) instances.get(clazz);
    }
 
    public String getJavaClassName()
@@ -53,20 +76,30 @@ public class ReflectiveClassMetadata<T> implements ClassMetadata<T>, Serializabl
 
    public Iterable<MethodMetadata> getDeclaredMethods()
    {
+      final MethodMetadata[] declaredMethods = getDeclaredMethodArray();
       return new Iterable<MethodMetadata>()
       {
          public Iterator<MethodMetadata> iterator()
          {
-             return new ImmutableIteratorWrapper<Method>(new ArrayIterator<Method>(ReflectiveClassMetadata.this.clazz.getDeclaredMethods()))
-             {
-                @Override
-                protected MethodMetadata wrapObject(Method method)
-                {
-                   return ReflectiveMethodMetadata.of(method);
-                }
-             };
+            return new ArrayIterator<MethodMetadata>(declaredMethods);
          }
-      };     
+      };
+   }
+
+   private MethodMetadata[] getDeclaredMethodArray()
+   {
+      MethodMetadata[] declaredMethods = this.declaredMethods;
+      if (declaredMethods == null)
+      {
+         Method[] methods = clazz.getDeclaredMethods();
+         declaredMethods = new MethodMetadata[methods.length];
+         for (int i = 0; i < methods.length; i++)
+         {
+            declaredMethods[i] = ReflectiveMethodMetadata.of(methods[i]);
+         }
+         this.declaredMethods = declaredMethods;
+      }
+      return declaredMethods;
    }
 
    public Class<T> getJavaClass()
@@ -79,11 +112,25 @@ public class ReflectiveClassMetadata<T> implements ClassMetadata<T>, Serializabl
       return false;
    }
 
-   @SuppressWarnings({ "unchecked", "rawtypes" })
    public ClassMetadata<?> getSuperclass()
    {
-      Class<?> superClass = clazz.getSuperclass();
-      return superClass == null? null : new ReflectiveClassMetadata(superClass);
+      ClassMetadata<?> superclass = this.superclass;
+      if (superclass == null)
+      {
+         Class<?> superClass = clazz.getSuperclass();
+         if (superClass == null)
+         {
+            return null;
+         }
+         superclass = of(superClass);
+         this.superclass = superclass;
+      }
+      return superclass;
+   }
+
+   private Object readResolve() throws ObjectStreamException
+   {
+      return of(clazz);
    }
 
    @Override
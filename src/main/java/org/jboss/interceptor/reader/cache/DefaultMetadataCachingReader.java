@@ -1,8 +1,15 @@
 package org.jboss.interceptor.reader.cache;
 
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
 import com.google.common.base.Function;
 import com.google.common.collect.ComputationException;
-import com.google.common.collect.MapMaker;
+import org.jboss.interceptor.reader.ClassFileClassMetadata;
 import org.jboss.interceptor.reader.ClassMetadataInterceptorReference;
 import org.jboss.interceptor.reader.InterceptorMetadataUtils;
 import org.jboss.interceptor.reader.ReflectiveClassMetadata;
@@ -10,46 +17,86 @@ import org.jboss.interceptor.spi.metadata.ClassMetadata;
 import org.jboss.interceptor.spi.metadata.InterceptorMetadata;
 import org.jboss.interceptor.spi.metadata.InterceptorReference;
 
-import java.util.concurrent.ConcurrentMap;
-
 /**
- *
+ * Caches the metadata read from classes in {@link MetadataCache}s, which may be bounded. The metadata of a class is
+ * kept until it is evicted, so the class loaders of the classes whose metadata is cached stay reachable as long as
+ * the reader, unless {@link #evict(ClassLoader)} is called when they are discarded. The entries are partitioned by the class loader of the class they describe,
+ * so that {@link #evict(ClassLoader)} only drops the metadata of the classes of the given class loader. The metadata
+ * of the classes described by a {@link ClassMetadata} that is {@link ClassMetadata#isDeferringReflection() deferring
+ * reflection} is not partitioned, since it cannot be attributed to a class loader without loading the class, unless
+ * it has been read from a class file by a {@link ClassFileClassMetadata}.
  */
 public class DefaultMetadataCachingReader implements MetadataCachingReader
 {
-   private final ConcurrentMap<InterceptorReference<?>, InterceptorMetadata<?>> interceptorMetadataCache;
+   private static final Function<Class<?>, ClassLoader> CLASS_LOADER_OF_CLASS = new Function<Class<?>, ClassLoader>()
+   {
+      public ClassLoader apply(Class<?> from)
+      {
+         return from.getClassLoader();
+      }
+   };
 
-   private final ConcurrentMap<ClassMetadata<?>, InterceptorMetadata<?>> classMetadataInterceptorMetadataCache;
+   private static final Function<ClassMetadata<?>, ClassLoader> CLASS_LOADER_OF_CLASS_METADATA = new Function<ClassMetadata<?>, ClassLoader>()
+   {
+      public ClassLoader apply(ClassMetadata<?> from)
+      {
+         if (from instanceof ClassFileClassMetadata<?>)
+         {
+            return ((ClassFileClassMetadata<?>) from).getClassLoader();
+         }
+         return from.isDeferringReflection() ? null : from.getJavaClass().getClassLoader();
+      }
+   };
+
+   private static final Function<InterceptorReference<?>, ClassLoader> CLASS_LOADER_OF_INTERCEPTOR_REFERENCE = new Function<InterceptorReference<?>, ClassLoader>()
+   {
+      public ClassLoader apply(InterceptorReference<?> from)
+      {
+         return CLASS_LOADER_OF_CLASS_METADATA.apply(from.getClassMetadata());
+      }
+   };
 
-   private final ConcurrentMap<Class<?>, ClassMetadata<?>> reflectiveClassMetadataCache;
+   private final MetadataCache<InterceptorReference<?>, InterceptorMetadata<?>> interceptorMetadataCache;
+
+   private final MetadataCache<ClassMetadata<?>, InterceptorMetadata<?>> classMetadataInterceptorMetadataCache;
+
+   private final MetadataCache<Class<?>, ClassMetadata<?>> reflectiveClassMetadataCache;
 
    private boolean unwrapRuntimeExceptions;
 
    public DefaultMetadataCachingReader()
    {
-      this.interceptorMetadataCache = new MapMaker().makeComputingMap( new Function<InterceptorReference<?>, InterceptorMetadata<?>>()
+      this(0);
+   }
+
+   /**
+    * @param maximumSize - the number of entries of each cache above which the least recently used ones are evicted, or 0 for no bound
+    */
+   public DefaultMetadataCachingReader(int maximumSize)
+   {
+      this.interceptorMetadataCache = new MetadataCache<InterceptorReference<?>, InterceptorMetadata<?>>(new Function<InterceptorReference<?>, InterceptorMetadata<?>>()
       {
          public InterceptorMetadata<?> apply(InterceptorReference<?> from)
          {
             return InterceptorMetadataUtils.readMetadataForInterceptorClass(from);
          }
-      });
+      }, maximumSize, CLASS_LOADER_OF_INTERCEPTOR_REFERENCE);
 
-      this.classMetadataInterceptorMetadataCache = new MapMaker().makeComputingMap(new Function<ClassMetadata<?>, InterceptorMetadata<?>>()
+      this.classMetadataInterceptorMetadataCache = new MetadataCache<ClassMetadata<?>, InterceptorMetadata<?>>(new Function<ClassMetadata<?>, InterceptorMetadata<?>>()
       {
          public InterceptorMetadata<?> apply(ClassMetadata<?> from)
          {
             return InterceptorMetadataUtils.readMetadataForTargetClass(from);
          }
-      });
+      }, maximumSize, CLASS_LOADER_OF_CLASS_METADATA);
 
-      this.reflectiveClassMetadataCache = new MapMaker().makeComputingMap(new Function<Class<?>, ClassMetadata<?>>()
+      this.reflectiveClassMetadataCache = new MetadataCache<Class<?>, ClassMetadata<?>>(new Function<Class<?>, ClassMetadata<?>>()
       {
          public ClassMetadata<?> apply(Class<?> from)
          {
             return ReflectiveClassMetadata.of(from);
          }
-      });
+      }, maximumSize, CLASS_LOADER_OF_CLASS);
       this.unwrapRuntimeExceptions = true;
    }
 
@@ -58,6 +105,68 @@ public class DefaultMetadataCachingReader implements MetadataCachingReader
       this.unwrapRuntimeExceptions = unwrapRuntimeExceptions;
    }
 
+   /**
+    * Drops the cached metadata of the classes defined by the given class loader, typically when the application that
+    * it has loaded is undeployed. The metadata of the classes of the other class loaders is kept.
+    *
+    * @param classLoader - the class loader, or null for the classes of the bootstrap class loader
+    */
+   public void evict(ClassLoader classLoader)
+   {
+      interceptorMetadataCache.evict(classLoader);
+      classMetadataInterceptorMetadataCache.evict(classLoader);
+      reflectiveClassMetadataCache.evict(classLoader);
+   }
+
+   /**
+    * @return the statistics of the cache of the interceptor metadata, looked up by {@link InterceptorReference}
+    */
+   public MetadataCacheStatistics getInterceptorMetadataStatistics()
+   {
+      return interceptorMetadataCache.getStatistics();
+   }
+
+   /**
+    * @return the statistics of the cache of the target class interceptor metadata
+    */
+   public MetadataCacheStatistics getTargetClassInterceptorMetadataStatistics()
+   {
+      return classMetadataInterceptorMetadataCache.getStatistics();
+   }
+
+   /**
+    * @return the statistics of the cache of the reflective class metadata
+    */
+   public MetadataCacheStatistics getClassMetadataStatistics()
+   {
+      return reflectiveClassMetadataCache.getStatistics();
+   }
+
+   /**
+    * Registers a {@link MetadataCacheMonitor} for each cache of this reader, under the name
+    * <code>org.jboss.interceptor:type=MetadataCache,reader=&lt;readerName&gt;,cache=&lt;cache&gt;</code>, where the cache is
+    * one of <code>interceptorMetadata</code>, <code>targetClassInterceptorMetadata</code> and <code>classMetadata</code>.
+    *
+    * @param mBeanServer
+    * @param readerName - distinguishes the MBeans of this reader from the ones of the other readers
+    * @return the names of the registered MBeans
+    * @throws JMException if an MBean cannot be registered
+    */
+   public Set<ObjectName> registerMBeans(MBeanServer mBeanServer, String readerName) throws JMException
+   {
+      Set<ObjectName> objectNames = new LinkedHashSet<ObjectName>();
+      objectNames.add(registerMBean(mBeanServer, readerName, "interceptorMetadata", interceptorMetadataCache));
+      objectNames.add(registerMBean(mBeanServer, readerName, "targetClassInterceptorMetadata", classMetadataInterceptorMetadataCache));
+      objectNames.add(registerMBean(mBeanServer, readerName, "classMetadata", reflectiveClassMetadataCache));
+      return objectNames;
+   }
+
+   private static ObjectName registerMBean(MBeanServer mBeanServer, String readerName, String cacheName, MetadataCache<?, ?> metadataCache) throws JMException
+   {
+      ObjectName objectName = new ObjectName("org.jboss.interceptor:type=MetadataCache,reader=" + ObjectName.quote(readerName) + ",cache=" + cacheName);
+      return mBeanServer.registerMBean(new MetadataCacheMonitor(metadataCache), objectName).getObjectName();
+   }
+
    public <T> InterceptorMetadata<T> getInterceptorMetadata(InterceptorReference<T> interceptorReference)
    {
       try
@@ -0,0 +1,544 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.interceptor.reader.cache;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.common.base.Function;
+import com.google.common.collect.ComputationException;
+import com.google.common.collect.MapMaker;
+
+/**
+ * A concurrent cache for the metadata read from classes. Keys are held weakly and compared with
+ * {@link Object#equals(Object)}. Values are held strongly, so that the value of a key is computed only once and the
+ * same instance is returned for as long as its entry is cached, which the interning of the metadata and of the models
+ * built from it relies on. The entry of a key that is no longer in use is removed the next time a value is computed.
+ * Since metadata usually references the class it describes, and so its key, an entry generally stays cached until it
+ * is evicted, either because the cache exceeds its maximum size or through {@link #evict(ClassLoader)}, or until the
+ * cache itself is no longer in use.
+ *
+ * The value of a key is computed once, by the first thread that asks for it. Concurrent requests for the same key
+ * wait for that computation and share its result or its failure. A failed computation is not cached. Once a value
+ * has been computed, reading it takes no lock.
+ *
+ * If a maximum size is set, the entries that have not been read recently are evicted once it is exceeded. This uses
+ * the CLOCK approximation of least-recently-used eviction: a read only sets a flag on its entry, and the entries
+ * which have not been read since they were added, or since the previous eviction pass, are evicted first.
+ *
+ * If a class loader function is set, the entries are partitioned by the class loader of their keys, so that the
+ * entries of the classes of a class loader can be {@link #evict(ClassLoader) evicted} at once, for instance when
+ * the application that it has loaded is undeployed. The partitions are held through weak references to their
+ * class loaders, and are dropped along with their entries once a class loader has been reclaimed, which requires
+ * the entries whose values reference its classes to have been evicted first.
+ *
+ * The cache keeps cumulative {@link #getStatistics() statistics}. Lookups are counted in {@link StripedCounter}s, so
+ * that counting them adds no contention between the threads reading the cache.
+ */
+public class MetadataCache<K, V>
+{
+   private static final int LOAD_TIME_HISTOGRAM_SIZE = 32;
+
+   private final ConcurrentMap<ClassLoader, ConcurrentMap<Object, Entry<K, V>>> partitions = new MapMaker().weakKeys().makeMap();
+
+   /**
+    * The entries of the keys without a class loader, or of all the keys if there is no class loader function
+    */
+   private final ConcurrentMap<Object, Entry<K, V>> defaultPartition = new ConcurrentHashMap<Object, Entry<K, V>>();
+
+   private final Function<? super K, ClassLoader> classLoaderFunction;
+
+   private final ReferenceQueue<Object> referenceQueue = new ReferenceQueue<Object>();
+
+   private final Function<? super K, ? extends V> computingFunction;
+
+   private final int maximumSize;
+
+   private final AtomicInteger size = new AtomicInteger();
+
+   private final Object evictionLock = new Object();
+
+   private Iterator<ConcurrentMap<Object, Entry<K, V>>> partitionHand;
+
+   private Iterator<Entry<K, V>> clockHand;
+
+   private final StripedCounter hitCount = new StripedCounter();
+
+   private final StripedCounter missCount = new StripedCounter();
+
+   private final AtomicLong loadCount = new AtomicLong();
+
+   private final AtomicLong loadFailureCount = new AtomicLong();
+
+   private final AtomicLong totalLoadTime = new AtomicLong();
+
+   private final AtomicLong evictionCount = new AtomicLong();
+
+   private final AtomicLongArray loadTimeHistogram = new AtomicLongArray(LOAD_TIME_HISTOGRAM_SIZE);
+
+   public MetadataCache(Function<? super K, ? extends V> computingFunction)
+   {
+      this(computingFunction, 0);
+   }
+
+   /**
+    * @param computingFunction - computes the value of a key, must not return null
+    * @param maximumSize - the number of entries above which the least recently read ones are evicted, or 0 for no bound
+    */
+   public MetadataCache(Function<? super K, ? extends V> computingFunction, int maximumSize)
+   {
+      this(computingFunction, maximumSize, null);
+   }
+
+   /**
+    * @param computingFunction - computes the value of a key, must not return null
+    * @param maximumSize - the number of entries above which the least recently read ones are evicted, or 0 for no bound
+    * @param classLoaderFunction - returns the class loader by which the entry of a key is partitioned, or null if
+    *                              the key has none, may be null if the entries are not partitioned
+    */
+   public MetadataCache(Function<? super K, ? extends V> computingFunction, int maximumSize, Function<? super K, ClassLoader> classLoaderFunction)
+   {
+      if (computingFunction == null)
+      {
+         throw new IllegalArgumentException("Computing function must not be null");
+      }
+      if (maximumSize < 0)
+      {
+         throw new IllegalArgumentException("Maximum size must not be negative: " + maximumSize);
+      }
+      this.computingFunction = computingFunction;
+      this.maximumSize = maximumSize;
+      this.classLoaderFunction = classLoaderFunction;
+   }
+
+   /**
+    * @param create - whether to create the partition if there is none yet for the class loader of the key
+    * @return the partition of the key, or null if there is none and none was created
+    */
+   private ConcurrentMap<Object, Entry<K, V>> getPartition(K key, boolean create)
+   {
+      ClassLoader classLoader = classLoaderFunction == null ? null : classLoaderFunction.apply(key);
+      if (classLoader == null)
+      {
+         return defaultPartition;
+      }
+      ConcurrentMap<Object, Entry<K, V>> partition = partitions.get(classLoader);
+      if (partition == null && create)
+      {
+         partition = new ConcurrentHashMap<Object, Entry<K, V>>();
+         ConcurrentMap<Object, Entry<K, V>> existingPartition = partitions.putIfAbsent(classLoader, partition);
+         if (existingPartition != null)
+         {
+            partition = existingPartition;
+         }
+      }
+      return partition;
+   }
+
+   /**
+    * Returns the value of the given key, computing it if necessary.
+    *
+    * @param key
+    * @return the value of the key
+    * @throws ComputationException if the computation of the value has failed with an exception
+    */
+   public V get(K key)
+   {
+      ConcurrentMap<Object, Entry<K, V>> partition = getPartition(key, false);
+      Entry<K, V> entry = partition == null ? null : partition.get(new LookupKey(key));
+      if (entry != null)
+      {
+         V value = entry.getValue();
+         if (value != null)
+         {
+            if (maximumSize > 0 && !entry.referenced)
+            {
+               entry.referenced = true;
+            }
+            hitCount.increment();
+            return value;
+         }
+      }
+      missCount.increment();
+      return compute(key);
+   }
+
+   private V compute(K key)
+   {
+      removeReclaimedEntries();
+      ConcurrentMap<Object, Entry<K, V>> partition = getPartition(key, true);
+      Entry<K, V> entry = new Entry<K, V>(new KeyReference<K>(key, partition, referenceQueue));
+      Entry<K, V> existingEntry = partition.putIfAbsent(entry.keyReference, entry);
+      if (existingEntry == null)
+      {
+         size.incrementAndGet();
+         V value = computeValue(key, entry);
+         evictIfNecessary(entry);
+         return value;
+      }
+      return existingEntry.await();
+   }
+
+   private V computeValue(K key, Entry<K, V> entry)
+   {
+      V value;
+      long startTime = System.nanoTime();
+      try
+      {
+         value = computingFunction.apply(key);
+         if (value == null)
+         {
+            throw new NullPointerException("No value computed for " + key);
+         }
+      }
+      catch (RuntimeException e)
+      {
+         recordLoad(startTime, loadFailureCount);
+         remove(entry);
+         entry.fail(e);
+         throw new ComputationException(e);
+      }
+      catch (Error e)
+      {
+         recordLoad(startTime, loadFailureCount);
+         remove(entry);
+         entry.fail(e);
+         throw e;
+      }
+      recordLoad(startTime, loadCount);
+      entry.set(value);
+      return value;
+   }
+
+   private void recordLoad(long startTime, AtomicLong outcomeCount)
+   {
+      long loadTime = System.nanoTime() - startTime;
+      outcomeCount.incrementAndGet();
+      totalLoadTime.addAndGet(loadTime);
+      // the bucket of a load time of at least 2^(n-1) but less than 2^n microseconds is n
+      int bucket = 64 - Long.numberOfLeadingZeros(loadTime / 1000);
+      loadTimeHistogram.incrementAndGet(Math.min(bucket, LOAD_TIME_HISTOGRAM_SIZE - 1));
+   }
+
+   private void remove(Entry<K, V> entry)
+   {
+      // the entries of the partitions that have been dropped are still removed, so that the size stays accurate
+      if (entry.keyReference.partition.remove(entry.keyReference, entry))
+      {
+         size.decrementAndGet();
+      }
+   }
+
+   private void removeReclaimedEntries()
+   {
+      Reference<?> reference;
+      while ((reference = referenceQueue.poll()) != null)
+      {
+         // a cleared key is only equal to itself
+         if (((KeyReference<?>) reference).partition.remove(reference) != null)
+         {
+            size.decrementAndGet();
+         }
+      }
+   }
+
+   /**
+    * @param newEntry - the entry that has just been added, which is not evicted
+    */
+   private void evictIfNecessary(Entry<K, V> newEntry)
+   {
+      if (maximumSize == 0 || size.get() <= maximumSize)
+      {
+         return;
+      }
+      synchronized (evictionLock)
+      {
+         // every entry is visited at most twice: once for clearing its flag, once for evicting it
+         int remainingVisits = 2 * size.get();
+         while (size.get() > maximumSize && remainingVisits-- > 0)
+         {
+            Entry<K, V> entry = nextEntryOnClock();
+            if (entry == null)
+            {
+               return;
+            }
+            if (entry.referenced)
+            {
+               entry.referenced = false;
+            }
+            else if (entry != newEntry && entry.isComputed() && entry.keyReference.partition.remove(entry.keyReference, entry))
+            {
+               size.decrementAndGet();
+               evictionCount.incrementAndGet();
+            }
+         }
+      }
+   }
+
+   /**
+    * @return the next entry of all the partitions, starting again with the first one after the last one, or null if
+    *         the cache is empty
+    */
+   private Entry<K, V> nextEntryOnClock()
+   {
+      boolean restarted = false;
+      while (clockHand == null || !clockHand.hasNext())
+      {
+         if (partitionHand == null || !partitionHand.hasNext())
+         {
+            if (restarted)
+            {
+               return null;
+            }
+            restarted = true;
+            partitionHand = getAllPartitions().iterator();
+         }
+         clockHand = partitionHand.next().values().iterator();
+      }
+      return clockHand.next();
+   }
+
+   private List<ConcurrentMap<Object, Entry<K, V>>> getAllPartitions()
+   {
+      List<ConcurrentMap<Object, Entry<K, V>>> allPartitions = new ArrayList<ConcurrentMap<Object, Entry<K, V>>>();
+      allPartitions.add(defaultPartition);
+      allPartitions.addAll(partitions.values());
+      return allPartitions;
+   }
+
+   /**
+    * @return the number of entries, including the ones whose key has been reclaimed but which have not been removed
+    *         yet
+    */
+   public int size()
+   {
+      return size.get();
+   }
+
+   /**
+    * @return the statistics of the cache since its creation
+    */
+   public MetadataCacheStatistics getStatistics()
+   {
+      long[] loadTimeHistogram = new long[LOAD_TIME_HISTOGRAM_SIZE];
+      for (int i = 0; i < loadTimeHistogram.length; i++)
+      {
+         loadTimeHistogram[i] = this.loadTimeHistogram.get(i);
+      }
+      return new MetadataCacheStatistics(size.get(), hitCount.sum(), missCount.sum(), loadCount.get(), loadFailureCount.get(),
+            totalLoadTime.get(), evictionCount.get(), loadTimeHistogram);
+   }
+
+   /**
+    * Removes all the entries. The computations in progress complete, but their values are not cached.
+    */
+   public void clear()
+   {
+      for (ConcurrentMap<Object, Entry<K, V>> partition : getAllPartitions())
+      {
+         removeAll(partition);
+      }
+   }
+
+   /**
+    * Removes the entries of the keys of the given class loader. The computations in progress complete, but their
+    * values are not cached.
+    *
+    * @param classLoader - the class loader whose entries are removed, or null for the keys without a class loader
+    */
+   public void evict(ClassLoader classLoader)
+   {
+      ConcurrentMap<Object, Entry<K, V>> partition = classLoader == null ? defaultPartition : partitions.remove(classLoader);
+      if (partition != null)
+      {
+         removeAll(partition);
+      }
+   }
+
+   private void removeAll(ConcurrentMap<Object, Entry<K, V>> partition)
+   {
+      for (Entry<K, V> entry : partition.values())
+      {
+         remove(entry);
+      }
+   }
+
+   private static final class Entry<K, V>
+   {
+      private final KeyReference<K> keyReference;
+
+      private volatile V value;
+
+      private volatile boolean referenced;
+
+      private Thread computingThread = Thread.currentThread();
+
+      private boolean computed;
+
+      private Throwable failure;
+
+      Entry(KeyReference<K> keyReference)
+      {
+         this.keyReference = keyReference;
+      }
+
+      /**
+       * @return the computed value, or null if it is not computed yet or its computation has failed
+       */
+      V getValue()
+      {
+         return value;
+      }
+
+      synchronized boolean isComputed()
+      {
+         return computed;
+      }
+
+      synchronized void set(V value)
+      {
+         this.value = value;
+         this.computed = true;
+         this.computingThread = null;
+         notifyAll();
+      }
+
+      synchronized void fail(Throwable failure)
+      {
+         this.failure = failure;
+         this.computed = true;
+         this.computingThread = null;
+         notifyAll();
+      }
+
+      /**
+       * @return the computed value
+       */
+      synchronized V await()
+      {
+         if (computingThread == Thread.currentThread())
+         {
+            throw new IllegalStateException("Recursive computation of the value of " + keyReference.get());
+         }
+         boolean interrupted = false;
+         while (!computed)
+         {
+            try
+            {
+               wait();
+            }
+            catch (InterruptedException e)
+            {
+               interrupted = true;
+            }
+         }
+         if (interrupted)
+         {
+            Thread.currentThread().interrupt();
+         }
+         if (failure instanceof Error)
+         {
+            throw (Error) failure;
+         }
+         if (failure != null)
+         {
+            throw new ComputationException(failure);
+         }
+         return value;
+      }
+   }
+
+   /**
+    * The key under which an entry is stored, equal to the keys that are equal to its referent
+    */
+   private static final class KeyReference<K> extends WeakReference<K>
+   {
+      private final int hashCode;
+
+      private final ConcurrentMap<Object, ?> partition;
+
+      KeyReference(K key, ConcurrentMap<Object, ?> partition, ReferenceQueue<Object> referenceQueue)
+      {
+         super(key, referenceQueue);
+         this.hashCode = key.hashCode();
+         this.partition = partition;
+      }
+
+      @Override
+      public boolean equals(Object o)
+      {
+         if (this == o)
+         {
+            return true;
+         }
+         Object key = get();
+         if (key == null)
+         {
+            return false;
+         }
+         if (o instanceof LookupKey)
+         {
+            return key.equals(((LookupKey) o).key);
+         }
+         return o instanceof KeyReference<?> && key.equals(((KeyReference<?>) o).get());
+      }
+
+      @Override
+      public int hashCode()
+      {
+         return hashCode;
+      }
+   }
+
+   /**
+    * Looks up an entry without creating a reference to the key
+    */
+   private static final class LookupKey
+   {
+      private final Object key;
+
+      LookupKey(Object key)
+      {
+         this.key = key;
+      }
+
+      @Override
+      public boolean equals(Object o)
+      {
+         if (o instanceof KeyReference<?>)
+         {
+            return key.equals(((KeyReference<?>) o).get());
+         }
+         return o instanceof LookupKey && key.equals(((LookupKey) o).key);
+      }
+
+      @Override
+      public int hashCode()
+      {
+         return key.hashCode();
+      }
+   }
+}
@@ -0,0 +1,81 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.interceptor.reader.cache;
+
+/**
+ * Exposes the statistics of a {@link MetadataCache} as a standard MBean. Each attribute is read from a fresh
+ * {@link MetadataCacheStatistics} snapshot.
+ */
+public class MetadataCacheMonitor implements MetadataCacheMonitorMBean
+{
+   private final MetadataCache<?, ?> metadataCache;
+
+   public MetadataCacheMonitor(MetadataCache<?, ?> metadataCache)
+   {
+      this.metadataCache = metadataCache;
+   }
+
+   public int getSize()
+   {
+      return metadataCache.size();
+   }
+
+   public long getHitCount()
+   {
+      return metadataCache.getStatistics().getHitCount();
+   }
+
+   public long getMissCount()
+   {
+      return metadataCache.getStatistics().getMissCount();
+   }
+
+   public double getHitRate()
+   {
+      return metadataCache.getStatistics().getHitRate();
+   }
+
+   public long getLoadCount()
+   {
+      return metadataCache.getStatistics().getLoadCount();
+   }
+
+   public long getLoadFailureCount()
+   {
+      return metadataCache.getStatistics().getLoadFailureCount();
+   }
+
+   public long getTotalLoadTime()
+   {
+      return metadataCache.getStatistics().getTotalLoadTime();
+   }
+
+   public double getAverageLoadTime()
+   {
+      return metadataCache.getStatistics().getAverageLoadTime();
+   }
+
+   public long getEvictionCount()
+   {
+      return metadataCache.getStatistics().getEvictionCount();
+   }
+
+   public long[] getLoadTimeHistogram()
+   {
+      return metadataCache.getStatistics().getLoadTimeHistogram();
+   }
+}
@@ -0,0 +1,145 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.interceptor.reader.cache;
+
+/**
+ * A snapshot of the cumulative statistics of a {@link MetadataCache}. The counters are read one after the other
+ * while the cache is in use, so they may not be exactly consistent with each other.
+ */
+public final class MetadataCacheStatistics
+{
+   private final int size;
+
+   private final long hitCount;
+
+   private final long missCount;
+
+   private final long loadCount;
+
+   private final long loadFailureCount;
+
+   private final long totalLoadTime;
+
+   private final long evictionCount;
+
+   private final long[] loadTimeHistogram;
+
+   MetadataCacheStatistics(int size, long hitCount, long missCount, long loadCount, long loadFailureCount, long totalLoadTime, long evictionCount, long[] loadTimeHistogram)
+   {
+      this.size = size;
+      this.hitCount = hitCount;
+      this.missCount = missCount;
+      this.loadCount = loadCount;
+      this.loadFailureCount = loadFailureCount;
+      this.totalLoadTime = totalLoadTime;
+      this.evictionCount = evictionCount;
+      this.loadTimeHistogram = loadTimeHistogram;
+   }
+
+   /**
+    * @see MetadataCache#size()
+    */
+   public int getSize()
+   {
+      return size;
+   }
+
+   /**
+    * @return the number of lookups that found a computed value
+    */
+   public long getHitCount()
+   {
+      return hitCount;
+   }
+
+   /**
+    * @return the number of lookups that computed a value, or waited for its computation
+    */
+   public long getMissCount()
+   {
+      return missCount;
+   }
+
+   /**
+    * @return the ratio of the lookups that found a computed value, or 1 if there has been no lookup
+    */
+   public double getHitRate()
+   {
+      long lookupCount = hitCount + missCount;
+      return lookupCount == 0 ? 1.0 : (double) hitCount / lookupCount;
+   }
+
+   /**
+    * @return the number of values that have been computed successfully
+    */
+   public long getLoadCount()
+   {
+      return loadCount;
+   }
+
+   /**
+    * @return the number of computations that have failed
+    */
+   public long getLoadFailureCount()
+   {
+      return loadFailureCount;
+   }
+
+   /**
+    * @return the time spent computing values, successfully or not, in nanoseconds
+    */
+   public long getTotalLoadTime()
+   {
+      return totalLoadTime;
+   }
+
+   /**
+    * @return the average time spent computing a value, in nanoseconds
+    */
+   public double getAverageLoadTime()
+   {
+      long computationCount = loadCount + loadFailureCount;
+      return computationCount == 0 ? 0.0 : (double) totalLoadTime / computationCount;
+   }
+
+   /**
+    * @return the number of entries evicted because the cache exceeded its maximum size
+    */
+   public long getEvictionCount()
+   {
+      return evictionCount;
+   }
+
+   /**
+    * Returns the number of computations by duration. The first bucket counts the computations that took less than a
+    * microsecond, and each of the next ones counts the computations that took less than twice as long as those of the
+    * previous one, in the order 2, 4, 8... microseconds. The last bucket counts all the longer computations.
+    *
+    * @return the number of computations in each bucket
+    */
+   public long[] getLoadTimeHistogram()
+   {
+      return loadTimeHistogram.clone();
+   }
+
+   @Override
+   public String toString()
+   {
+      return "MetadataCacheStatistics[size=" + size + ", hitCount=" + hitCount + ", missCount=" + missCount + ", loadCount=" + loadCount
+            + ", loadFailureCount=" + loadFailureCount + ", totalLoadTime=" + totalLoadTime + ", evictionCount=" + evictionCount + "]";
+   }
+}
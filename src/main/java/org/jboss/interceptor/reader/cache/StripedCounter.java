@@ -0,0 +1,68 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.interceptor.reader.cache;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that is incremented without contention by concurrent threads. Each thread adds to one of several cells,
+ * chosen by its id, which lie on different cache lines. Reading the counter sums the cells, so its value is not an
+ * atomic snapshot.
+ */
+final class StripedCounter
+{
+   /**
+    * The distance between two cells, in longs, so that each is on a cache line of its own
+    */
+   private static final int CELL_SPACING = 16;
+
+   private static final int CELL_COUNT = cellCount();
+
+   private final AtomicLongArray cells = new AtomicLongArray(CELL_COUNT * CELL_SPACING);
+
+   private static int cellCount()
+   {
+      int cellCount = 1;
+      while (cellCount < 2 * Runtime.getRuntime().availableProcessors() && cellCount < 64)
+      {
+         cellCount <<= 1;
+      }
+      return cellCount;
+   }
+
+   void increment()
+   {
+      add(1);
+   }
+
+   void add(long value)
+   {
+      // thread ids are assigned sequentially, so consecutive threads use different cells
+      int cell = (int) Thread.currentThread().getId() & (CELL_COUNT - 1);
+      cells.getAndAdd(cell * CELL_SPACING, value);
+   }
+
+   long sum()
+   {
+      long sum = 0;
+      for (int cell = 0; cell < CELL_COUNT; cell++)
+      {
+         sum += cells.get(cell * CELL_SPACING);
+      }
+      return sum;
+   }
+}
@@ -0,0 +1,39 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.interceptor.spi.model;
+
+import org.jboss.interceptor.spi.metadata.InterceptorMetadata;
+
+/**
+ * An {@link InterceptionModel} which declares some of its interceptors stateless. Implementing it is optional: none
+ * of the interceptors of a model which does not implement it is stateless.
+ */
+public interface StatelessInterceptorsModel<T, I> extends InterceptionModel<T, I>
+{
+
+   /**
+    * Returns true if the given interceptor is stateless, in which case a single instance of it can be shared by all
+    * the intercepted instances of the entity instead of each of them having its own. The lifecycle callbacks of such
+    * an interceptor are invoked once for each intercepted instance.
+    *
+    * @param interceptor
+    * @return true if the interceptor has been declared stateless
+    */
+   public boolean isStateless(InterceptorMetadata<?> interceptor);
+
+}
@@ -22,6 +22,7 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.concurrent.Callable;
 
+import javassist.util.proxy.MethodFilter;
 import javassist.util.proxy.MethodHandler;
 import javassist.util.proxy.ProxyFactory;
 import org.jboss.interceptor.proxy.InterceptorException;
@@ -148,8 +149,26 @@ public class InterceptionUtils
 
 
    public static <T> Class<T> createProxyClass(Class<T> proxyClass, boolean forSubclassing)
+   {
+      return createProxyClass(proxyClass, forSubclassing, null);
+   }
+
+   /**
+    * Creates a proxy class that overrides only the methods accepted by the given filter. The other methods are
+    * inherited from the proxified class, and invoking them bypasses the method handler of the proxy.
+    *
+    * @param proxyClass
+    * @param forSubclassing
+    * @param methodFilter - null if all methods should be handled
+    * @return the proxy class
+    */
+   public static <T> Class<T> createProxyClass(Class<T> proxyClass, boolean forSubclassing, MethodFilter methodFilter)
    {
       ProxyFactory proxyFactory = new ProxyFactory();
+      if (methodFilter != null)
+      {
+         proxyFactory.setFilter(methodFilter);
+      }
       if (proxyClass != null)
       {
          proxyFactory.setSuperclass(proxyClass);
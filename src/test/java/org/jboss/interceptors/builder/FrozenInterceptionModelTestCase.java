@@ -0,0 +1,151 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.interceptors.builder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.jboss.interceptor.builder.InterceptionModelBuilder;
+import org.jboss.interceptor.builder.MethodSignature;
+import org.jboss.interceptor.reader.cache.DefaultMetadataCachingReader;
+import org.jboss.interceptor.reader.cache.MetadataCachingReader;
+import org.jboss.interceptor.spi.metadata.ClassMetadata;
+import org.jboss.interceptor.spi.metadata.InterceptorMetadata;
+import org.jboss.interceptor.spi.model.InterceptionModel;
+import org.jboss.interceptor.spi.model.InterceptionType;
+import org.jboss.interceptor.spi.model.StatelessInterceptorsModel;
+import org.jboss.interceptors.proxy.FirstInterceptor;
+import org.jboss.interceptors.proxy.FootballTeam;
+import org.jboss.interceptors.proxy.SecondInterceptor;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FrozenInterceptionModelTestCase
+{
+   private MetadataCachingReader metadataCachingReader = new DefaultMetadataCachingReader();
+
+   private InterceptorMetadata<?> firstInterceptor;
+
+   private InterceptorMetadata<?> secondInterceptor;
+
+   private InterceptionModelBuilder<ClassMetadata<?>, ?> builder;
+
+   @Before
+   public void setUp()
+   {
+      firstInterceptor = metadataCachingReader.getInterceptorMetadata(FirstInterceptor.class);
+      secondInterceptor = metadataCachingReader.getInterceptorMetadata(SecondInterceptor.class);
+      builder = InterceptionModelBuilder.<ClassMetadata<?>>newBuilderFor(metadataCachingReader.getClassMetadata(FootballTeam.class));
+      builder.interceptAll().with(firstInterceptor);
+      builder.interceptAroundInvoke(new MethodSignature("getName")).with(secondInterceptor);
+      builder.ignoreGlobalInterceptors(new MethodSignature("echo", String.class));
+   }
+
+   @Test
+   public void testInterceptorsAreResolvedUpfront()
+   {
+      InterceptionModel<ClassMetadata<?>, ?> interceptionModel = builder.build();
+      Assert.assertEquals(Arrays.asList(firstInterceptor, secondInterceptor), interceptionModel.getInterceptors(InterceptionType.AROUND_INVOKE, new MethodSignature("getName")));
+      Assert.assertEquals(Collections.emptyList(), interceptionModel.getInterceptors(InterceptionType.AROUND_INVOKE, new MethodSignature("echo", String.class)));
+      Assert.assertEquals(Collections.singletonList(firstInterceptor), interceptionModel.getInterceptors(InterceptionType.AROUND_INVOKE, new MethodSignature("toString")));
+      Assert.assertEquals(Collections.singletonList(firstInterceptor), interceptionModel.getInterceptors(InterceptionType.POST_CONSTRUCT));
+      Assert.assertTrue(interceptionModel.isExcludingGlobalInterceptors(new MethodSignature("echo", String.class)));
+      // lookups neither merge nor copy the lists
+      Assert.assertSame(interceptionModel.getInterceptors(InterceptionType.AROUND_INVOKE, new MethodSignature("getName")),
+            interceptionModel.getInterceptors(InterceptionType.AROUND_INVOKE, new MethodSignature("getName")));
+      Assert.assertSame(interceptionModel.getInterceptors(InterceptionType.AROUND_INVOKE, new MethodSignature("toString")),
+            interceptionModel.getInterceptors(InterceptionType.AROUND_INVOKE, new MethodSignature("hashCode")));
+   }
+
+   @Test(expected = UnsupportedOperationException.class)
+   public void testInterceptorListsAreImmutable()
+   {
+      builder.build().getInterceptors(InterceptionType.POST_CONSTRUCT).clear();
+   }
+
+   @Test
+   public void testBuiltModelIsASnapshot()
+   {
+      InterceptionModel<ClassMetadata<?>, ?> interceptionModel = builder.build();
+      Assert.assertSame(interceptionModel, builder.build());
+      builder.interceptPreDestroy().with(secondInterceptor);
+      Assert.assertEquals(Collections.singletonList(firstInterceptor), interceptionModel.getInterceptors(InterceptionType.PRE_DESTROY));
+      InterceptionModel<ClassMetadata<?>, ?> changedInterceptionModel = builder.build();
+      Assert.assertNotSame(interceptionModel, changedInterceptionModel);
+      Assert.assertEquals(Arrays.asList(firstInterceptor, secondInterceptor), changedInterceptionModel.getInterceptors(InterceptionType.PRE_DESTROY));
+   }
+
+   @Test
+   public void testIdenticalBindingsAreShared()
+   {
+      InterceptionModelBuilder<ClassMetadata<?>, ?> otherBuilder = InterceptionModelBuilder.<ClassMetadata<?>>newBuilderFor(metadataCachingReader.getClassMetadata(SecondInterceptor.class));
+      otherBuilder.interceptAll().with(firstInterceptor);
+      otherBuilder.interceptAroundInvoke(new MethodSignature("getName")).with(secondInterceptor);
+      otherBuilder.ignoreGlobalInterceptors(new MethodSignature("echo", String.class));
+      InterceptionModel<ClassMetadata<?>, ?> interceptionModel = builder.build();
+      InterceptionModel<ClassMetadata<?>, ?> otherInterceptionModel = otherBuilder.build();
+      Assert.assertNotSame(interceptionModel.getInterceptedEntity(), otherInterceptionModel.getInterceptedEntity());
+      Assert.assertSame(interceptionModel.getInterceptors(InterceptionType.AROUND_INVOKE, new MethodSignature("getName")),
+            otherInterceptionModel.getInterceptors(InterceptionType.AROUND_INVOKE, new MethodSignature("getName")));
+      Assert.assertSame(interceptionModel.getAllInterceptors(), otherInterceptionModel.getAllInterceptors());
+      otherBuilder.interceptPreDestroy().with(secondInterceptor);
+      Assert.assertNotSame(interceptionModel.getAllInterceptors(), otherBuilder.build().getAllInterceptors());
+   }
+
+   @Test
+   public void testBuiltModelCanBeChanged()
+   {
+      builder.markStateless(secondInterceptor);
+      InterceptionModel<ClassMetadata<?>, ?> interceptionModel = builder.build();
+      InterceptionModelBuilder<ClassMetadata<?>, ?> changedBuilder = InterceptionModelBuilder.changeBuilderFor(interceptionModel);
+      InterceptionModel<ClassMetadata<?>, ?> copiedInterceptionModel = changedBuilder.build();
+      // an unchanged copy has the same bindings, and shares them
+      Assert.assertSame(interceptionModel.getAllInterceptors(), copiedInterceptionModel.getAllInterceptors());
+      changedBuilder.interceptAroundInvoke(new MethodSignature("echo", String.class)).with(secondInterceptor);
+      InterceptionModel<ClassMetadata<?>, ?> changedInterceptionModel = changedBuilder.build();
+      Assert.assertSame(interceptionModel.getInterceptedEntity(), changedInterceptionModel.getInterceptedEntity());
+      Assert.assertEquals(Collections.singletonList(secondInterceptor), changedInterceptionModel.getInterceptors(InterceptionType.AROUND_INVOKE, new MethodSignature("echo", String.class)));
+      Assert.assertEquals(Arrays.asList(firstInterceptor, secondInterceptor), changedInterceptionModel.getInterceptors(InterceptionType.AROUND_INVOKE, new MethodSignature("getName")));
+      Assert.assertEquals(Arrays.asList(firstInterceptor, secondInterceptor), new ArrayList<Object>(changedInterceptionModel.getAllInterceptors()));
+      Assert.assertTrue(((StatelessInterceptorsModel<?, ?>) changedInterceptionModel).isStateless(secondInterceptor));
+      // the original model is left unchanged
+      Assert.assertTrue(interceptionModel.getInterceptors(InterceptionType.AROUND_INVOKE, new MethodSignature("echo", String.class)).isEmpty());
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void testLifecycleInterceptorsAreNotBoundToMethods()
+   {
+      builder.build().getInterceptors(InterceptionType.POST_CONSTRUCT, new MethodSignature("getName"));
+   }
+
+   @Test
+   public void testSerialization() throws Exception
+   {
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      new ObjectOutputStream(baos).writeObject(builder.build());
+      InterceptionModel<ClassMetadata<?>, ?> interceptionModel = (InterceptionModel<ClassMetadata<?>, ?>) new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray())).readObject();
+      Assert.assertEquals(2, interceptionModel.getInterceptors(InterceptionType.AROUND_INVOKE, new MethodSignature("getName")).size());
+      Assert.assertTrue(interceptionModel.getInterceptors(InterceptionType.AROUND_INVOKE, new MethodSignature("echo", String.class)).isEmpty());
+      Assert.assertEquals(FootballTeam.class, interceptionModel.getInterceptedEntity().getJavaClass());
+   }
+}
@@ -0,0 +1,113 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.interceptors.metadata;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.jboss.interceptor.proxy.InterceptionChainPlan;
+import org.jboss.interceptor.reader.ClassFileClassMetadata;
+import org.jboss.interceptor.reader.ClassMetadataInterceptorReference;
+import org.jboss.interceptor.reader.InterceptorMetadataUtils;
+import org.jboss.interceptor.spi.metadata.ClassMetadata;
+import org.jboss.interceptor.spi.metadata.InterceptorMetadata;
+import org.jboss.interceptor.spi.metadata.MethodMetadata;
+import org.jboss.interceptor.spi.model.InterceptionType;
+import org.junit.Test;
+
+/**
+ * Tests that the interceptor metadata read from class files is the same as the metadata read through reflection,
+ * and that no classes are loaded in order to read it.
+ */
+public class ClassFileClassMetadataTestCase
+{
+   @Test
+   public void testInterceptorWithAllMethods()
+   {
+      RecordingClassLoader classLoader = new RecordingClassLoader();
+      ClassMetadata<?> classMetadata = ClassFileClassMetadata.of(InterceptorWithAllMethods.class.getName(), classLoader);
+      Assert.assertTrue(classMetadata.isDeferringReflection());
+
+      InterceptorMetadata<?> interceptorMetadata = InterceptorMetadataUtils.readMetadataForInterceptorClass(ClassMetadataInterceptorReference.of(classMetadata));
+      assertInterceptorMethod(interceptorMetadata, InterceptionType.POST_CONSTRUCT, "doPostConstruct");
+      assertInterceptorMethod(interceptorMetadata, InterceptionType.PRE_DESTROY, "doPreDestroy");
+      assertInterceptorMethod(interceptorMetadata, InterceptionType.AROUND_INVOKE, "doAroundInvoke");
+      assertInterceptorMethod(interceptorMetadata, InterceptionType.POST_ACTIVATE, "doPostActivate");
+      assertInterceptorMethod(interceptorMetadata, InterceptionType.PRE_PASSIVATE, "doPrePassivate");
+      Assert.assertTrue("Classes loaded: " + classLoader.loadedClassNames, classLoader.loadedClassNames.isEmpty());
+
+      Assert.assertEquals(InterceptorWithAllMethods.class, classMetadata.getJavaClass());
+   }
+
+   @Test
+   public void testInterceptorHierarchy()
+   {
+      RecordingClassLoader classLoader = new RecordingClassLoader();
+      ClassMetadata<?> classMetadata = ClassFileClassMetadata.of(ChildInterceptor.class.getName(), classLoader);
+      Assert.assertEquals(ParentInterceptor.class.getName(), classMetadata.getSuperclass().getJavaClassName());
+
+      InterceptorMetadata<?> interceptorMetadata = InterceptorMetadataUtils.readMetadataForInterceptorClass(ClassMetadataInterceptorReference.of(classMetadata));
+      List<MethodMetadata> aroundInvokeMethods = interceptorMetadata.getInterceptorMethods(InterceptionType.AROUND_INVOKE);
+      Assert.assertEquals(3, aroundInvokeMethods.size());
+      Assert.assertEquals(ChildInterceptor.class.getName(), aroundInvokeMethods.get(2).getMethodReference().getDeclaringClassName());
+      Assert.assertTrue("Classes loaded: " + classLoader.loadedClassNames, classLoader.loadedClassNames.isEmpty());
+
+      for (MethodMetadata methodMetadata : aroundInvokeMethods)
+      {
+         Assert.assertEquals(methodMetadata.getMethodReference().getMethodSignature().getMethodName(), methodMetadata.getJavaMethod().getName());
+      }
+   }
+
+   @Test
+   public void testChainPlanResolvesInterceptorMethodsOnFirstInvocation()
+   {
+      RecordingClassLoader classLoader = new RecordingClassLoader();
+      ClassMetadata<?> classMetadata = ClassFileClassMetadata.of(InterceptorWithAllMethods.class.getName(), classLoader);
+      InterceptorMetadata<?> interceptorMetadata = InterceptorMetadataUtils.readMetadataForInterceptorClass(ClassMetadataInterceptorReference.of(classMetadata));
+      InterceptionChainPlan chainPlan = InterceptionChainPlan.of(InterceptionType.POST_CONSTRUCT, Collections.singletonList(interceptorMetadata));
+      Assert.assertEquals(1, chainPlan.size());
+      Assert.assertTrue(chainPlan.getSteps().get(0).isAcceptingInvocationContext());
+      Assert.assertTrue("Classes loaded: " + classLoader.loadedClassNames, classLoader.loadedClassNames.isEmpty());
+   }
+
+   private static void assertInterceptorMethod(InterceptorMetadata<?> interceptorMetadata, InterceptionType interceptionType, String methodName)
+   {
+      List<MethodMetadata> methods = interceptorMetadata.getInterceptorMethods(interceptionType);
+      Assert.assertEquals(1, methods.size());
+      Assert.assertEquals(methodName, methods.get(0).getMethodReference().getMethodSignature().getMethodName());
+   }
+
+   private static class RecordingClassLoader extends ClassLoader
+   {
+      private final List<String> loadedClassNames = new ArrayList<String>();
+
+      RecordingClassLoader()
+      {
+         super(ClassFileClassMetadataTestCase.class.getClassLoader());
+      }
+
+      @Override
+      protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException
+      {
+         loadedClassNames.add(name);
+         return super.loadClass(name, resolve);
+      }
+   }
+}
@@ -22,6 +22,7 @@ import java.util.List;
 
 import junit.framework.Assert;
 
+import org.jboss.interceptor.reader.ReflectiveClassMetadata;
 import org.jboss.interceptor.reader.cache.DefaultMetadataCachingReader;
 import org.jboss.interceptor.reader.cache.MetadataCachingReader;
 import org.jboss.interceptor.spi.metadata.ClassMetadata;
@@ -212,4 +213,19 @@ public class InterceptorClassMetadataTestCase
       
       Assert.assertEquals("Unexpected number of @AroundInvoke methods found on " + ChildInterceptor.class.getName(), 3, aroundInvokeMethods.size());
    }
+
+   /**
+    * Tests that the metadata of the methods and of the superclass of a class are computed once and shared by the
+    * classes of the hierarchy
+    */
+   @Test
+   public void testReflectiveClassMetadataIsMemoized()
+   {
+      ClassMetadata<?> childClass = ReflectiveClassMetadata.of(ChildInterceptor.class);
+      Assert.assertSame(childClass, ReflectiveClassMetadata.of(ChildInterceptor.class));
+      Assert.assertSame(childClass.getSuperclass(), childClass.getSuperclass());
+      Assert.assertSame(ReflectiveClassMetadata.of(ParentInterceptor.class), childClass.getSuperclass());
+      Assert.assertSame(childClass.getDeclaredMethods().iterator().next(), childClass.getDeclaredMethods().iterator().next());
+      Assert.assertNull(ReflectiveClassMetadata.of(Object.class).getSuperclass());
+   }
 }
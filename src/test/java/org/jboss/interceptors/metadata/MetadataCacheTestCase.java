@@ -0,0 +1,256 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.interceptors.metadata;
+
+import java.lang.management.ManagementFactory;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Function;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.google.common.collect.ComputationException;
+import org.jboss.interceptor.reader.cache.DefaultMetadataCachingReader;
+import org.jboss.interceptor.reader.cache.MetadataCache;
+import org.jboss.interceptor.reader.cache.MetadataCacheStatistics;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MetadataCacheTestCase
+{
+   /**
+    * Computes values that reference their keys, as metadata does
+    */
+   private static class CountingFunction implements Function<String, String[]>
+   {
+      final AtomicInteger computations = new AtomicInteger();
+
+      public String[] apply(String from)
+      {
+         computations.incrementAndGet();
+         return new String[]{from};
+      }
+   }
+
+   @Test
+   public void testValuesAreComputedOnceForEqualKeys()
+   {
+      CountingFunction countingFunction = new CountingFunction();
+      MetadataCache<String, String[]> cache = new MetadataCache<String, String[]>(countingFunction);
+      String[] value = cache.get(new String("a"));
+      Assert.assertSame(value, cache.get(new String("a")));
+      Assert.assertEquals(1, countingFunction.computations.get());
+      Assert.assertEquals(1, cache.size());
+   }
+
+   @Test
+   public void testConcurrentRequestsShareTheComputation() throws Exception
+   {
+      final CountDownLatch computationStarted = new CountDownLatch(1);
+      final CountDownLatch computationReleased = new CountDownLatch(1);
+      final AtomicInteger computations = new AtomicInteger();
+      final MetadataCache<String, String[]> cache = new MetadataCache<String, String[]>(new Function<String, String[]>()
+      {
+         public String[] apply(String from)
+         {
+            computations.incrementAndGet();
+            computationStarted.countDown();
+            try
+            {
+               computationReleased.await();
+            }
+            catch (InterruptedException e)
+            {
+               throw new IllegalStateException(e);
+            }
+            return new String[]{from};
+         }
+      });
+      final String[][] values = new String[2][];
+      Thread firstThread = new Thread()
+      {
+         @Override
+         public void run()
+         {
+            values[0] = cache.get("a");
+         }
+      };
+      Thread secondThread = new Thread()
+      {
+         @Override
+         public void run()
+         {
+            values[1] = cache.get("a");
+         }
+      };
+      firstThread.start();
+      computationStarted.await();
+      secondThread.start();
+      computationReleased.countDown();
+      firstThread.join();
+      secondThread.join();
+      Assert.assertEquals(1, computations.get());
+      Assert.assertNotNull(values[0]);
+      Assert.assertSame(values[0], values[1]);
+   }
+
+   @Test
+   public void testFailedComputationsAreNotCached()
+   {
+      final AtomicInteger attempts = new AtomicInteger();
+      MetadataCache<String, String[]> cache = new MetadataCache<String, String[]>(new Function<String, String[]>()
+      {
+         public String[] apply(String from)
+         {
+            if (attempts.incrementAndGet() == 1)
+            {
+               throw new IllegalArgumentException(from);
+            }
+            return new String[]{from};
+         }
+      });
+      try
+      {
+         cache.get("a");
+         Assert.fail();
+      }
+      catch (ComputationException e)
+      {
+         Assert.assertTrue(e.getCause() instanceof IllegalArgumentException);
+      }
+      Assert.assertEquals(0, cache.size());
+      Assert.assertEquals("a", cache.get("a")[0]);
+      Assert.assertEquals(2, attempts.get());
+   }
+
+   @Test
+   public void testLeastRecentlyReadEntriesAreEvicted()
+   {
+      CountingFunction countingFunction = new CountingFunction();
+      MetadataCache<String, String[]> cache = new MetadataCache<String, String[]>(countingFunction, 2);
+      String[] a = cache.get("a");
+      cache.get("b");
+      cache.get("a");
+      cache.get("c");
+      Assert.assertEquals(2, cache.size());
+      Assert.assertSame(a, cache.get("a"));
+      Assert.assertEquals(3, countingFunction.computations.get());
+      cache.get("b");
+      Assert.assertEquals(4, countingFunction.computations.get());
+   }
+
+   @Test
+   public void testBoundedReaderReadsMetadata()
+   {
+      DefaultMetadataCachingReader metadataCachingReader = new DefaultMetadataCachingReader(1);
+      Assert.assertSame(metadataCachingReader.getClassMetadata(InterceptorWithAllMethods.class), metadataCachingReader.getClassMetadata(InterceptorWithAllMethods.class));
+      metadataCachingReader.getClassMetadata(InterceptorWithSomeMethods.class);
+      Assert.assertNotNull(metadataCachingReader.getInterceptorMetadata(InterceptorWithAllMethods.class));
+   }
+
+   @Test
+   public void testStatistics()
+   {
+      MetadataCache<String, String[]> cache = new MetadataCache<String, String[]>(new CountingFunction(), 1);
+      cache.get("a");
+      cache.get("a");
+      cache.get("b");
+      MetadataCacheStatistics statistics = cache.getStatistics();
+      Assert.assertEquals(1, statistics.getHitCount());
+      Assert.assertEquals(2, statistics.getMissCount());
+      Assert.assertEquals(2, statistics.getLoadCount());
+      Assert.assertEquals(0, statistics.getLoadFailureCount());
+      Assert.assertEquals(1, statistics.getEvictionCount());
+      Assert.assertEquals(1, statistics.getSize());
+      long histogramLoadCount = 0;
+      for (long bucketLoadCount : statistics.getLoadTimeHistogram())
+      {
+         histogramLoadCount += bucketLoadCount;
+      }
+      Assert.assertEquals(2, histogramLoadCount);
+   }
+
+   @Test
+   public void testMBeansExposeStatistics() throws Exception
+   {
+      DefaultMetadataCachingReader metadataCachingReader = new DefaultMetadataCachingReader();
+      metadataCachingReader.getClassMetadata(InterceptorWithAllMethods.class);
+      metadataCachingReader.getClassMetadata(InterceptorWithAllMethods.class);
+      MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+      Set<ObjectName> objectNames = metadataCachingReader.registerMBeans(mBeanServer, "test");
+      try
+      {
+         Assert.assertEquals(3, objectNames.size());
+         ObjectName classMetadataName = new ObjectName("org.jboss.interceptor:type=MetadataCache,reader=\"test\",cache=classMetadata");
+         Assert.assertTrue(objectNames.contains(classMetadataName));
+         Assert.assertEquals(1L, mBeanServer.getAttribute(classMetadataName, "HitCount"));
+         Assert.assertEquals(1, mBeanServer.getAttribute(classMetadataName, "Size"));
+      }
+      finally
+      {
+         for (ObjectName objectName : objectNames)
+         {
+            mBeanServer.unregisterMBean(objectName);
+         }
+      }
+   }
+
+   @Test
+   public void testEvictionByClassLoader()
+   {
+      final ClassLoader firstClassLoader = new ClassLoader()
+      {
+      };
+      final ClassLoader secondClassLoader = new ClassLoader()
+      {
+      };
+      CountingFunction countingFunction = new CountingFunction();
+      MetadataCache<String, String[]> cache = new MetadataCache<String, String[]>(countingFunction, 0, new Function<String, ClassLoader>()
+      {
+         public ClassLoader apply(String from)
+         {
+            return from.startsWith("first") ? firstClassLoader : from.startsWith("second") ? secondClassLoader : null;
+         }
+      });
+      cache.get("first.a");
+      cache.get("first.b");
+      String[] secondValue = cache.get("second.a");
+      String[] defaultValue = cache.get("a");
+      Assert.assertEquals(4, cache.size());
+      cache.evict(firstClassLoader);
+      Assert.assertEquals(2, cache.size());
+      Assert.assertSame(secondValue, cache.get("second.a"));
+      Assert.assertSame(defaultValue, cache.get("a"));
+      cache.get("first.a");
+      Assert.assertEquals(5, countingFunction.computations.get());
+   }
+
+   @Test
+   public void testReaderEvictsTheMetadataOfAClassLoader()
+   {
+      DefaultMetadataCachingReader metadataCachingReader = new DefaultMetadataCachingReader();
+      Object classMetadata = metadataCachingReader.getClassMetadata(InterceptorWithAllMethods.class);
+      Object stringMetadata = metadataCachingReader.getClassMetadata(String.class);
+      metadataCachingReader.evict(InterceptorWithAllMethods.class.getClassLoader());
+      Assert.assertEquals(1, metadataCachingReader.getClassMetadataStatistics().getSize());
+      Assert.assertSame(stringMetadata, metadataCachingReader.getClassMetadata(String.class));
+      Assert.assertEquals(classMetadata, metadataCachingReader.getClassMetadata(InterceptorWithAllMethods.class));
+      Assert.assertEquals(3, metadataCachingReader.getClassMetadataStatistics().getLoadCount());
+   }
+}
@@ -0,0 +1,176 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.interceptors.proxy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.jboss.interceptor.builder.InterceptionModelBuilder;
+import org.jboss.interceptor.builder.MethodSignature;
+import org.jboss.interceptor.proxy.DefaultInvocationContextFactory;
+import org.jboss.interceptor.proxy.DirectClassInterceptorInstantiator;
+import org.jboss.interceptor.proxy.InterceptorProxyCreatorImpl;
+import org.jboss.interceptor.proxy.InvocationBackend;
+import org.jboss.interceptor.reader.cache.DefaultMetadataCachingReader;
+import org.jboss.interceptor.reader.cache.MetadataCachingReader;
+import org.jboss.interceptor.spi.metadata.ClassMetadata;
+import org.jboss.interceptor.spi.model.InterceptionModel;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests that intercepting the instances of the classes of a class loader does not keep the class loader from being
+ * collected once they are no longer used, as it happens on redeployment.
+ */
+public class ClassLoaderLeakTestCase
+{
+   @Test
+   public void testClassLoaderIsCollectedAfterInterceptedInvocations() throws Exception
+   {
+      WeakReference<ClassLoader> classLoaderReference = interceptInThrowawayClassLoader();
+      collect(classLoaderReference);
+      Assert.assertNull("The class loader of the intercepted classes has not been collected", classLoaderReference.get());
+   }
+
+   @SuppressWarnings("unchecked")
+   private static WeakReference<ClassLoader> interceptInThrowawayClassLoader() throws Exception
+   {
+      ClassLoader classLoader = new IsolatingClassLoader(Arrays.asList(Greeter.class.getName(), BracketingInterceptor.class.getName()));
+      Class<?> greeterClass = classLoader.loadClass(Greeter.class.getName());
+      Assert.assertNotSame(Greeter.class, greeterClass);
+      MetadataCachingReader metadataCachingReader = new DefaultMetadataCachingReader();
+      ClassMetadata<Object> greeterClassMetadata = (ClassMetadata<Object>) metadataCachingReader.getClassMetadata(greeterClass);
+      InterceptionModelBuilder<ClassMetadata<?>, ?> builder = InterceptionModelBuilder.<ClassMetadata<?>>newBuilderFor(greeterClassMetadata);
+      builder.interceptAroundInvoke(new MethodSignature("greet", String.class)).with(
+            metadataCachingReader.getInterceptorMetadata(classLoader.loadClass(BracketingInterceptor.class.getName())));
+      InterceptionModel<ClassMetadata<?>, Object> interceptionModel = (InterceptionModel<ClassMetadata<?>, Object>) builder.build();
+      for (InvocationBackend invocationBackend : InvocationBackend.values())
+      {
+         InterceptorProxyCreatorImpl ipc = new InterceptorProxyCreatorImpl(new DirectClassInterceptorInstantiator(), new DefaultInvocationContextFactory(), interceptionModel);
+         ipc.setInvocationBackend(invocationBackend);
+         ipc.setMetadataCachingReader(metadataCachingReader);
+         Object proxy = ipc.createSubclassingProxy(greeterClassMetadata, new Class<?>[0], new Object[0]);
+         Assert.assertEquals("[Hello Ajax]", greeterClass.getMethod("greet", String.class).invoke(proxy, "Ajax"));
+      }
+      return new WeakReference<ClassLoader>(classLoader);
+   }
+
+   /**
+    * Collects the referent of the given reference, if it is only reachable through soft references, such as those
+    * of the metadata caches, which are cleared before an {@link OutOfMemoryError} is thrown.
+    */
+   private static void collect(WeakReference<?> reference) throws InterruptedException
+   {
+      for (int i = 0; i < 10 && reference.get() != null; i++)
+      {
+         System.gc();
+         Thread.sleep(10);
+      }
+      List<long[]> allocations = new ArrayList<long[]>();
+      try
+      {
+         while (reference.get() != null)
+         {
+            allocations.add(new long[1 << 20]);
+         }
+      }
+      catch (OutOfMemoryError expected)
+      {
+      }
+      allocations = null;
+      for (int i = 0; i < 10 && reference.get() != null; i++)
+      {
+         System.gc();
+         Thread.sleep(10);
+      }
+   }
+
+   /**
+    * Loads the given classes itself, from the class files of its parent, and delegates the others to its parent.
+    */
+   private static class IsolatingClassLoader extends ClassLoader
+   {
+      private final Collection<String> isolatedClassNames;
+
+      IsolatingClassLoader(Collection<String> isolatedClassNames)
+      {
+         super(ClassLoaderLeakTestCase.class.getClassLoader());
+         this.isolatedClassNames = isolatedClassNames;
+      }
+
+      @Override
+      protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException
+      {
+         if (!isolatedClassNames.contains(name))
+         {
+            return super.loadClass(name, resolve);
+         }
+         Class<?> loadedClass = findLoadedClass(name);
+         if (loadedClass == null)
+         {
+            loadedClass = defineIsolatedClass(name);
+         }
+         if (resolve)
+         {
+            resolveClass(loadedClass);
+         }
+         return loadedClass;
+      }
+
+      private Class<?> defineIsolatedClass(String name) throws ClassNotFoundException
+      {
+         InputStream inputStream = getParent().getResourceAsStream(name.replace('.', '/') + ".class");
+         if (inputStream == null)
+         {
+            throw new ClassNotFoundException(name);
+         }
+         try
+         {
+            try
+            {
+               byte[] buffer = new byte[4096];
+               int length = 0;
+               int read;
+               while ((read = inputStream.read(buffer, length, buffer.length - length)) != -1)
+               {
+                  length += read;
+                  if (length == buffer.length)
+                  {
+                     byte[] largerBuffer = new byte[buffer.length * 2];
+                     System.arraycopy(buffer, 0, largerBuffer, 0, length);
+                     buffer = largerBuffer;
+                  }
+               }
+               return defineClass(name, buffer, 0, length);
+            }
+            finally
+            {
+               inputStream.close();
+            }
+         }
+         catch (IOException e)
+         {
+            throw new ClassNotFoundException(name, e);
+         }
+      }
+   }
+}
@@ -0,0 +1,56 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.interceptors.proxy;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.interceptor.AroundInvoke;
+import javax.interceptor.InvocationContext;
+
+public class ContextCapturingInterceptor
+{
+   static InvocationContext lastInvocationContext;
+
+   static boolean proceedingInOtherThread;
+
+   @AroundInvoke
+   public Object capture(final InvocationContext invocationContext) throws Exception
+   {
+      lastInvocationContext = invocationContext;
+      if (proceedingInOtherThread)
+      {
+         ExecutorService executorService = Executors.newSingleThreadExecutor();
+         try
+         {
+            return executorService.submit(new Callable<Object>()
+            {
+               public Object call() throws Exception
+               {
+                  return invocationContext.proceed();
+               }
+            }).get();
+         }
+         finally
+         {
+            executorService.shutdown();
+         }
+      }
+      return invocationContext.proceed();
+   }
+}
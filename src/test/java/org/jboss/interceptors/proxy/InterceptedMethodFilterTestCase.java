@@ -0,0 +1,69 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.interceptors.proxy;
+
+import javax.interceptor.InvocationContext;
+
+import org.jboss.interceptor.builder.InterceptionModelBuilder;
+import org.jboss.interceptor.builder.MethodSignature;
+import org.jboss.interceptor.proxy.LifecycleMixin;
+import org.jboss.interceptor.proxy.javassist.InterceptedMethodFilter;
+import org.jboss.interceptor.reader.cache.DefaultMetadataCachingReader;
+import org.jboss.interceptor.reader.cache.MetadataCachingReader;
+import org.jboss.interceptor.spi.metadata.ClassMetadata;
+import org.jboss.interceptor.util.InterceptionUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class InterceptedMethodFilterTestCase
+{
+   private MetadataCachingReader metadataCachingReader = new DefaultMetadataCachingReader();
+
+   @Test
+   public void testOnlyMethodsWithBindingsAreHandled() throws Exception
+   {
+      ClassMetadata<?> valueBearerClass = metadataCachingReader.getClassMetadata(ValueBearerImpl.class);
+      InterceptionModelBuilder<ClassMetadata<?>,?> builder = InterceptionModelBuilder.<ClassMetadata<?>>newBuilderFor(valueBearerClass);
+      InterceptedMethodFilter unboundFilter = new InterceptedMethodFilter(valueBearerClass, builder.build());
+      Assert.assertFalse(unboundFilter.isHandled(ValueBearerImpl.class.getMethod("getValue")));
+      Assert.assertFalse(unboundFilter.isHandled(Object.class.getMethod("toString")));
+      Assert.assertTrue(unboundFilter.isHandled(LifecycleMixin.class.getMethod(InterceptionUtils.POST_CONSTRUCT)));
+
+      builder = InterceptionModelBuilder.<ClassMetadata<?>>newBuilderFor(valueBearerClass);
+      builder.interceptAroundInvoke(new MethodSignature("getValue")).with(metadataCachingReader.getInterceptorMetadata(FirstInterceptor.class));
+      Assert.assertTrue(new InterceptedMethodFilter(valueBearerClass, builder.build()).isHandled(ValueBearerImpl.class.getMethod("getValue")));
+   }
+
+   @Test
+   public void testTargetClassAroundInvokeMethodsAreHandled() throws Exception
+   {
+      ClassMetadata<?> footballTeamClass = metadataCachingReader.getClassMetadata(FootballTeam.class);
+      InterceptedMethodFilter methodFilter = new InterceptedMethodFilter(footballTeamClass, InterceptionModelBuilder.<ClassMetadata<?>>newBuilderFor(footballTeamClass).build());
+      Assert.assertTrue(methodFilter.isHandled(FootballTeam.class.getMethod("getName")));
+      Assert.assertFalse(methodFilter.isHandled(FootballTeam.class.getMethod("itsMe", InvocationContext.class)));
+      Assert.assertFalse(methodFilter.isHandled(Object.class.getMethod("hashCode")));
+   }
+
+   @Test
+   public void testUnboundMethodsAreNotOverriddenBySubclassingProxies() throws Exception
+   {
+      Class<ValueBearerImpl> proxyClass = InterceptionUtils.createProxyClass(ValueBearerImpl.class, true,
+            new InterceptedMethodFilter(metadataCachingReader.getClassMetadata(ValueBearerImpl.class), InterceptionModelBuilder.<ClassMetadata<?>>newBuilderFor(metadataCachingReader.getClassMetadata(ValueBearerImpl.class)).build()));
+      Assert.assertSame(ValueBearerImpl.class, proxyClass.getMethod("getValue").getDeclaringClass());
+      Assert.assertSame(Object.class, proxyClass.getMethod("toString").getDeclaringClass());
+   }
+}
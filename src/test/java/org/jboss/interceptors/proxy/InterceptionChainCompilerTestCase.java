@@ -0,0 +1,294 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.interceptors.proxy;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javassist.util.proxy.MethodHandler;
+import org.jboss.interceptor.builder.InterceptionModelBuilder;
+import org.jboss.interceptor.builder.MethodReference;
+import org.jboss.interceptor.builder.MethodSignature;
+import org.jboss.interceptor.proxy.DefaultInvocationContextFactory;
+import org.jboss.interceptor.proxy.DirectClassInterceptorInstantiator;
+import org.jboss.interceptor.proxy.InterceptionChainPlan;
+import org.jboss.interceptor.proxy.InterceptionDescriptor;
+import org.jboss.interceptor.proxy.InterceptorProxyCreatorImpl;
+import org.jboss.interceptor.proxy.InvocationBackend;
+import org.jboss.interceptor.reader.cache.DefaultMetadataCachingReader;
+import org.jboss.interceptor.reader.cache.MetadataCachingReader;
+import org.jboss.interceptor.spi.metadata.ClassMetadata;
+import org.jboss.interceptor.spi.metadata.InterceptorMetadata;
+import org.jboss.interceptor.spi.metadata.InterceptorReference;
+import org.jboss.interceptor.spi.metadata.MethodMetadata;
+import org.jboss.interceptor.spi.model.InterceptionModel;
+import org.jboss.interceptor.spi.model.InterceptionType;
+import org.jboss.interceptor.util.InterceptionUtils;
+import org.jboss.interceptors.metadata.ChildInterceptor;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class InterceptionChainCompilerTestCase
+{
+   private static final String TEAM_NAME = "Ajax Amsterdam";
+
+   private MetadataCachingReader metadataCachingReader = new DefaultMetadataCachingReader();
+
+   private ClassMetadata<FootballTeam> footballTeamClass;
+
+   private InterceptionModel<ClassMetadata<?>, ?> interceptionModel;
+
+   @Before
+   public void setUp()
+   {
+      InterceptorTestLogger.reset();
+      footballTeamClass = metadataCachingReader.getClassMetadata(FootballTeam.class);
+      InterceptionModelBuilder<ClassMetadata<?>,?> builder = InterceptionModelBuilder.<ClassMetadata<?>>newBuilderFor(footballTeamClass);
+      builder.interceptAroundInvoke(new MethodSignature("getName")).with(
+            metadataCachingReader.getInterceptorMetadata(FirstInterceptor.class), metadataCachingReader.getInterceptorMetadata(SecondInterceptor.class));
+      builder.interceptAroundInvoke(new MethodSignature("echoInt", int.class)).with(metadataCachingReader.getInterceptorMetadata(ParameterOverridingInterceptorWithInteger.class));
+      builder.interceptAroundInvoke(new MethodSignature("echo", String.class)).with(metadataCachingReader.getInterceptorMetadata(ChildInterceptor.class));
+      builder.interceptPostConstruct().with(metadataCachingReader.getInterceptorMetadata(FirstInterceptor.class));
+      interceptionModel = builder.build();
+   }
+
+   @Test
+   public void testOnlyMethodPlansAreCompiled() throws Exception
+   {
+      InterceptionDescriptor descriptor = InterceptionDescriptor.of(footballTeamClass, interceptionModel, InvocationBackend.COMPILED);
+      Method getName = FootballTeam.class.getMethod("getName");
+      InterceptionChainPlan chainPlan = descriptor.getChainPlan(InterceptionType.AROUND_INVOKE, getName);
+      Assert.assertTrue(chainPlan.isCompiled());
+      Assert.assertEquals("CompiledInterceptionChain", chainPlan.newChain(new Object[]{new FirstInterceptor(), new SecondInterceptor()}, new FootballTeam(TEAM_NAME), getName).getClass().getSimpleName());
+      Assert.assertFalse(descriptor.getChainPlan(InterceptionType.POST_CONSTRUCT).isCompiled());
+      Assert.assertFalse(InterceptionDescriptor.of(footballTeamClass, interceptionModel, InvocationBackend.BYTECODE).getChainPlan(InterceptionType.AROUND_INVOKE, getName).isCompiled());
+   }
+
+   @Test
+   public void testCompiledChain() throws Exception
+   {
+      FootballTeam proxy = createProxy();
+      InterceptionUtils.executePostConstruct(proxy);
+      Assert.assertEquals(TEAM_NAME, proxy.getName());
+      Object[] expectedLoggedValues = {
+            "org.jboss.interceptors.proxy.FirstInterceptor_postConstruct",
+            "org.jboss.interceptors.proxy.Team_postConstruct",
+            "org.jboss.interceptors.proxy.FootballTeam_postConstruct",
+            "org.jboss.interceptors.proxy.FirstInterceptor_aroundInvokeBefore",
+            "org.jboss.interceptors.proxy.SecondInterceptor_aroundInvokeBefore",
+            "org.jboss.interceptors.proxy.FootballTeam_aroundInvokeBefore",
+            "org.jboss.interceptors.proxy.FootballTeam_getName",
+            "org.jboss.interceptors.proxy.FootballTeam_aroundInvokeAfter",
+            "org.jboss.interceptors.proxy.SecondInterceptor_aroundInvokeAfter",
+            "org.jboss.interceptors.proxy.FirstInterceptor_aroundInvokeAfter"};
+      Assert.assertArrayEquals(expectedLoggedValues, InterceptorTestLogger.getLog().toArray());
+   }
+
+   @Test
+   public void testCompiledChainWithOverriddenPrimitiveParameters() throws Exception
+   {
+      Assert.assertEquals(42, createProxy().echoInt(1));
+   }
+
+   @Test
+   public void testCompiledChainWithInterceptorMethodsInvokedThroughTheirInvokers() throws Exception
+   {
+      // the private and protected interceptor methods of ChildInterceptor cannot be invoked directly
+      Assert.assertEquals(42, createProxy().echo("42"));
+      Assert.assertArrayEquals(new Object[]{
+            "org.jboss.interceptors.proxy.FootballTeam_aroundInvokeBefore",
+            "org.jboss.interceptors.proxy.FootballTeam_aroundInvokeAfter"}, InterceptorTestLogger.getLog().toArray());
+   }
+
+   @Test
+   public void testExceptionsAreNotWrapped() throws Exception
+   {
+      try
+      {
+         createProxy().echo("not a number");
+         Assert.fail();
+      }
+      catch (NumberFormatException e)
+      {
+         // expected
+      }
+   }
+
+   @Test
+   public void testTieredPlanIsPromotedAtTheCompileThreshold() throws Exception
+   {
+      InterceptionDescriptor descriptor = InterceptionDescriptor.of(footballTeamClass, interceptionModel, InvocationBackend.COMPILED, null, 3);
+      InterceptionChainPlan chainPlan = descriptor.getChainPlan(InterceptionType.AROUND_INVOKE, FootballTeam.class.getMethod("getName"));
+      Assert.assertFalse(chainPlan.isCompiled());
+      Assert.assertSame(chainPlan, chainPlan.getExecutablePlan());
+      Assert.assertSame(chainPlan, chainPlan.getExecutablePlan());
+      InterceptionChainPlan promotedPlan = chainPlan.getExecutablePlan();
+      Assert.assertNotSame(chainPlan, promotedPlan);
+      Assert.assertTrue(promotedPlan.isCompiled());
+      Assert.assertSame(promotedPlan, chainPlan.getExecutablePlan());
+      Assert.assertSame(promotedPlan, promotedPlan.getExecutablePlan());
+      Assert.assertEquals(chainPlan.getSteps().size(), promotedPlan.getSteps().size());
+   }
+
+   @Test
+   public void testTieredPlanKeepsExecutingIfThePromotionFails() throws Exception
+   {
+      FailingInterceptorMetadata failingInterceptor = new FailingInterceptorMetadata(metadataCachingReader.getInterceptorMetadata(FirstInterceptor.class));
+      InterceptionModelBuilder<ClassMetadata<?>,?> builder = InterceptionModelBuilder.<ClassMetadata<?>>newBuilderFor(footballTeamClass);
+      builder.interceptAroundInvoke(new MethodSignature("getName")).with(failingInterceptor);
+      InterceptorProxyCreatorImpl ipc = new InterceptorProxyCreatorImpl(new DirectClassInterceptorInstantiator(), new DefaultInvocationContextFactory(), builder.build());
+      ipc.setInvocationBackend(InvocationBackend.COMPILED);
+      ipc.setCompileThreshold(2);
+      MethodHandler methodHandler = ipc.createMethodHandler(new FootballTeam(TEAM_NAME), footballTeamClass);
+      FootballTeam proxy = ipc.createProxyInstance(InterceptionUtils.createProxyClassWithHandler(footballTeamClass, methodHandler), methodHandler);
+      Assert.assertEquals(TEAM_NAME, proxy.getName());
+      // the invokers of the promoted plan cannot be generated
+      failingInterceptor.failing = true;
+      for (int i = 0; i < 4; i++)
+      {
+         Assert.assertEquals(TEAM_NAME, proxy.getName());
+      }
+      Assert.assertEquals(1, failingInterceptor.failures);
+      int interceptions = 0;
+      for (String loggedValue : InterceptorTestLogger.getLog())
+      {
+         if (loggedValue.equals("org.jboss.interceptors.proxy.FirstInterceptor_aroundInvokeBefore"))
+         {
+            interceptions++;
+         }
+      }
+      Assert.assertEquals(5, interceptions);
+   }
+
+   @Test
+   public void testTieredExecutionFromConcurrentThreads() throws Exception
+   {
+      final FootballTeam proxy = createProxy(50);
+      final AtomicInteger failures = new AtomicInteger();
+      Thread[] threads = new Thread[8];
+      for (int i = 0; i < threads.length; i++)
+      {
+         threads[i] = new Thread()
+         {
+            @Override
+            public void run()
+            {
+               for (int j = 0; j < 200; j++)
+               {
+                  if (proxy.echoInt(j) != 42)
+                  {
+                     failures.incrementAndGet();
+                  }
+               }
+            }
+         };
+         threads[i].start();
+      }
+      for (Thread thread : threads)
+      {
+         thread.join();
+      }
+      Assert.assertEquals(0, failures.get());
+   }
+
+   private FootballTeam createProxy()
+   {
+      return createProxy(0);
+   }
+
+   private FootballTeam createProxy(int compileThreshold)
+   {
+      InterceptorProxyCreatorImpl ipc = new InterceptorProxyCreatorImpl(new DirectClassInterceptorInstantiator(), new DefaultInvocationContextFactory(), interceptionModel);
+      ipc.setInvocationBackend(InvocationBackend.COMPILED);
+      ipc.setCompileThreshold(compileThreshold);
+      MethodHandler methodHandler = ipc.createMethodHandler(new FootballTeam(TEAM_NAME), footballTeamClass);
+      return ipc.createProxyInstance(InterceptionUtils.createProxyClassWithHandler(footballTeamClass, methodHandler), methodHandler);
+   }
+
+   /**
+    * Metadata of an interceptor whose methods can no longer be resolved once it fails
+    */
+   private static class FailingInterceptorMetadata implements InterceptorMetadata<Object>
+   {
+      private final InterceptorMetadata<?> delegate;
+
+      volatile boolean failing;
+
+      volatile int failures;
+
+      FailingInterceptorMetadata(InterceptorMetadata<?> delegate)
+      {
+         this.delegate = delegate;
+      }
+
+      @SuppressWarnings("unchecked")
+      public InterceptorReference<Object> getInterceptorReference()
+      {
+         return (InterceptorReference<Object>) delegate.getInterceptorReference();
+      }
+
+      public List<MethodMetadata> getInterceptorMethods(InterceptionType interceptionType)
+      {
+         List<MethodMetadata> interceptorMethods = new ArrayList<MethodMetadata>();
+         for (final MethodMetadata methodMetadata : delegate.getInterceptorMethods(interceptionType))
+         {
+            interceptorMethods.add(new MethodMetadata()
+            {
+               public boolean isDeferringReflection()
+               {
+                  return methodMetadata.isDeferringReflection();
+               }
+
+               public Method getJavaMethod()
+               {
+                  if (failing)
+                  {
+                     failures++;
+                     throw new IllegalStateException("Cannot resolve " + methodMetadata.getMethodReference());
+                  }
+                  return methodMetadata.getJavaMethod();
+               }
+
+               public MethodReference getMethodReference()
+               {
+                  return methodMetadata.getMethodReference();
+               }
+
+               public Set<InterceptionType> getSupportedInterceptionTypes()
+               {
+                  return methodMetadata.getSupportedInterceptionTypes();
+               }
+            });
+         }
+         return interceptorMethods;
+      }
+
+      public boolean isEligible(InterceptionType interceptionType)
+      {
+         return delegate.isEligible(interceptionType);
+      }
+
+      public boolean isTargetClass()
+      {
+         return delegate.isTargetClass();
+      }
+   }
+}
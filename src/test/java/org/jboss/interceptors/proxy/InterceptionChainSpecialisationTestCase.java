@@ -0,0 +1,121 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.interceptors.proxy;
+
+import java.lang.reflect.Method;
+
+import javassist.util.proxy.MethodHandler;
+import org.jboss.interceptor.builder.InterceptionModelBuilder;
+import org.jboss.interceptor.builder.MethodSignature;
+import org.jboss.interceptor.proxy.DefaultInvocationContextFactory;
+import org.jboss.interceptor.proxy.DirectClassInterceptorInstantiator;
+import org.jboss.interceptor.proxy.InterceptionChainPlan;
+import org.jboss.interceptor.proxy.InterceptionDescriptor;
+import org.jboss.interceptor.proxy.InterceptorProxyCreatorImpl;
+import org.jboss.interceptor.proxy.SimpleInterceptionChain;
+import org.jboss.interceptor.reader.cache.DefaultMetadataCachingReader;
+import org.jboss.interceptor.reader.cache.MetadataCachingReader;
+import org.jboss.interceptor.spi.metadata.ClassMetadata;
+import org.jboss.interceptor.spi.model.InterceptionModel;
+import org.jboss.interceptor.spi.model.InterceptionType;
+import org.jboss.interceptor.util.InterceptionUtils;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class InterceptionChainSpecialisationTestCase
+{
+   private static final String TEAM_NAME = "Ajax Amsterdam";
+
+   private MetadataCachingReader metadataCachingReader = new DefaultMetadataCachingReader();
+
+   private ClassMetadata<FootballTeam> footballTeamClass;
+
+   private InterceptionModel<ClassMetadata<?>, ?> interceptionModel;
+
+   @Before
+   public void setUp()
+   {
+      InterceptorTestLogger.reset();
+      footballTeamClass = metadataCachingReader.getClassMetadata(FootballTeam.class);
+      InterceptionModelBuilder<ClassMetadata<?>,?> builder = InterceptionModelBuilder.<ClassMetadata<?>>newBuilderFor(footballTeamClass);
+      builder.interceptAroundInvoke(new MethodSignature("getName")).with(
+            metadataCachingReader.getInterceptorMetadata(FirstInterceptor.class), metadataCachingReader.getInterceptorMetadata(SecondInterceptor.class));
+      builder.interceptAroundInvoke(new MethodSignature("echo", String.class)).with(metadataCachingReader.getInterceptorMetadata(FirstInterceptor.class));
+      interceptionModel = builder.build();
+   }
+
+   @Test
+   public void testChainsWalkThePlanWhateverItsSize() throws Exception
+   {
+      InterceptionDescriptor descriptor = InterceptionDescriptor.of(footballTeamClass, interceptionModel);
+      Object[] interceptorInstances = new Object[]{new FirstInterceptor(), new SecondInterceptor()};
+      FootballTeam footballTeam = new FootballTeam(TEAM_NAME);
+
+      Method echo2 = FootballTeam.class.getMethod("echo2", ValueBearer.class);
+      InterceptionChainPlan chainPlan = descriptor.getChainPlan(InterceptionType.AROUND_INVOKE, echo2);
+      Assert.assertEquals(1, chainPlan.size());
+      Assert.assertTrue(chainPlan.newChain(interceptorInstances, footballTeam, echo2) instanceof SimpleInterceptionChain);
+
+      Method echo = FootballTeam.class.getMethod("echo", String.class);
+      chainPlan = descriptor.getChainPlan(InterceptionType.AROUND_INVOKE, echo);
+      Assert.assertEquals(2, chainPlan.size());
+      Assert.assertTrue(chainPlan.newChain(interceptorInstances, footballTeam, echo) instanceof SimpleInterceptionChain);
+
+      Method getName = FootballTeam.class.getMethod("getName");
+      chainPlan = descriptor.getChainPlan(InterceptionType.AROUND_INVOKE, getName);
+      Assert.assertEquals(3, chainPlan.size());
+      Assert.assertTrue(chainPlan.newChain(interceptorInstances, footballTeam, getName) instanceof SimpleInterceptionChain);
+   }
+
+   @Test
+   public void testChainOfOneInterceptor() throws Exception
+   {
+      Assert.assertEquals(42, createProxy().echo2(new ValueBearerImpl(42)));
+      Assert.assertArrayEquals(new Object[]{
+            "org.jboss.interceptors.proxy.FootballTeam_aroundInvokeBefore",
+            "org.jboss.interceptors.proxy.FootballTeam_aroundInvokeAfter"}, InterceptorTestLogger.getLog().toArray());
+   }
+
+   @Test
+   public void testChainOfTwoInterceptors() throws Exception
+   {
+      Assert.assertEquals(42, createProxy().echo("42"));
+      Assert.assertArrayEquals(new Object[]{
+            "org.jboss.interceptors.proxy.FirstInterceptor_aroundInvokeBefore",
+            "org.jboss.interceptors.proxy.FootballTeam_aroundInvokeBefore",
+            "org.jboss.interceptors.proxy.FootballTeam_aroundInvokeAfter",
+            "org.jboss.interceptors.proxy.FirstInterceptor_aroundInvokeAfter"}, InterceptorTestLogger.getLog().toArray());
+   }
+
+   @Test
+   public void testChainOfTwoNonProceedingCallbacks() throws Exception
+   {
+      // the Team and FootballTeam callbacks do not take an InvocationContext
+      InterceptionUtils.executePostConstruct(createProxy());
+      Assert.assertArrayEquals(new Object[]{
+            "org.jboss.interceptors.proxy.Team_postConstruct",
+            "org.jboss.interceptors.proxy.FootballTeam_postConstruct"}, InterceptorTestLogger.getLog().toArray());
+   }
+
+   private FootballTeam createProxy()
+   {
+      InterceptorProxyCreatorImpl ipc = new InterceptorProxyCreatorImpl(new DirectClassInterceptorInstantiator(), new DefaultInvocationContextFactory(), interceptionModel);
+      MethodHandler methodHandler = ipc.createMethodHandler(new FootballTeam(TEAM_NAME), footballTeamClass);
+      return ipc.createProxyInstance(InterceptionUtils.createProxyClassWithHandler(footballTeamClass, methodHandler), methodHandler);
+   }
+}
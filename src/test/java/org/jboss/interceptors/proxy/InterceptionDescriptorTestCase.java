@@ -0,0 +1,191 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.interceptors.proxy;
+
+import java.lang.reflect.Method;
+
+import javax.interceptor.InvocationContext;
+
+import org.jboss.interceptor.builder.InterceptionModelBuilder;
+import org.jboss.interceptor.builder.MethodSignature;
+import org.jboss.interceptor.proxy.DirectClassInterceptorInstantiator;
+import org.jboss.interceptor.proxy.InterceptionChainPlan;
+import org.jboss.interceptor.proxy.InterceptionDescriptor;
+import org.jboss.interceptor.proxy.InterceptionDescriptorReference;
+import org.jboss.interceptor.proxy.InterceptionDescriptor.MethodDispatch;
+import org.jboss.interceptor.proxy.InvocationBackend;
+import org.jboss.interceptor.proxy.LifecycleMixin;
+import org.jboss.interceptor.reader.cache.DefaultMetadataCachingReader;
+import org.jboss.interceptor.reader.cache.MetadataCachingReader;
+import org.jboss.interceptor.spi.metadata.ClassMetadata;
+import org.jboss.interceptor.spi.model.InterceptionModel;
+import org.jboss.interceptor.spi.model.InterceptionType;
+import org.jboss.interceptor.util.InterceptionUtils;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class InterceptionDescriptorTestCase
+{
+   private MetadataCachingReader metadataCachingReader = new DefaultMetadataCachingReader();
+
+   private ClassMetadata<?> footballTeamClass;
+
+   private InterceptionModel<ClassMetadata<?>, ?> interceptionModel;
+
+   @Before
+   public void setUp()
+   {
+      footballTeamClass = metadataCachingReader.getClassMetadata(FootballTeam.class);
+      InterceptionModelBuilder<ClassMetadata<?>,?> builder = InterceptionModelBuilder.<ClassMetadata<?>>newBuilderFor(footballTeamClass);
+      builder.interceptAroundInvoke(new MethodSignature("getName")).with(
+            metadataCachingReader.getInterceptorMetadata(FirstInterceptor.class), metadataCachingReader.getInterceptorMetadata(SecondInterceptor.class));
+      builder.interceptPostConstruct().with(metadataCachingReader.getInterceptorMetadata(FirstInterceptor.class));
+      interceptionModel = builder.build();
+   }
+
+   @Test
+   public void testChainPlansAreComputedOnce() throws Exception
+   {
+      InterceptionDescriptor descriptor = InterceptionDescriptor.of(footballTeamClass, interceptionModel);
+      Method getName = FootballTeam.class.getMethod("getName");
+      InterceptionChainPlan chainPlan = descriptor.getChainPlan(InterceptionType.AROUND_INVOKE, getName);
+      // FirstInterceptor, SecondInterceptor and the target class
+      Assert.assertEquals(3, chainPlan.size());
+      Assert.assertSame(chainPlan, descriptor.getChainPlan(InterceptionType.AROUND_INVOKE, getName));
+
+      Method echo = FootballTeam.class.getMethod("echo", String.class);
+      Assert.assertEquals(1, descriptor.getChainPlan(InterceptionType.AROUND_INVOKE, echo).size());
+   }
+
+   @Test
+   public void testChainPlansAreSharedBetweenIdenticalModels() throws Exception
+   {
+      InterceptionModelBuilder<ClassMetadata<?>,?> builder = InterceptionModelBuilder.<ClassMetadata<?>>newBuilderFor(footballTeamClass);
+      builder.interceptAroundInvoke(new MethodSignature("getName")).with(
+            metadataCachingReader.getInterceptorMetadata(FirstInterceptor.class), metadataCachingReader.getInterceptorMetadata(SecondInterceptor.class));
+      builder.interceptPostConstruct().with(metadataCachingReader.getInterceptorMetadata(FirstInterceptor.class));
+      // the target class interceptor metadata must be shared as well
+      InterceptionDescriptor descriptor = InterceptionDescriptor.of(footballTeamClass, interceptionModel, InvocationBackend.DEFAULT, metadataCachingReader);
+      InterceptionDescriptor otherDescriptor = InterceptionDescriptor.of(footballTeamClass, builder.build(), InvocationBackend.DEFAULT, metadataCachingReader);
+      Assert.assertNotSame(descriptor, otherDescriptor);
+      Assert.assertSame(descriptor.getChainPlan(InterceptionType.POST_CONSTRUCT), otherDescriptor.getChainPlan(InterceptionType.POST_CONSTRUCT));
+      Method getName = FootballTeam.class.getMethod("getName");
+      InterceptionChainPlan chainPlan = descriptor.getChainPlan(InterceptionType.AROUND_INVOKE, getName);
+      InterceptionChainPlan otherChainPlan = otherDescriptor.getChainPlan(InterceptionType.AROUND_INVOKE, getName);
+      for (int i = 0; i < chainPlan.size(); i++)
+      {
+         Assert.assertSame(chainPlan.getSteps().get(i), otherChainPlan.getSteps().get(i));
+      }
+   }
+
+   @Test
+   public void testLifecycleChainPlans()
+   {
+      InterceptionDescriptor descriptor = InterceptionDescriptor.of(footballTeamClass, interceptionModel);
+      // FirstInterceptor, followed by the callbacks of Team and FootballTeam
+      Assert.assertEquals(3, descriptor.getChainPlan(InterceptionType.POST_CONSTRUCT).size());
+      Assert.assertTrue(descriptor.getChainPlan(InterceptionType.PRE_DESTROY).isEmpty());
+   }
+
+   @Test
+   public void testDescriptorIsSharedForTheSameClassAndModel()
+   {
+      InterceptionDescriptor descriptor = InterceptionDescriptor.of(footballTeamClass, interceptionModel, InvocationBackend.BYTECODE, metadataCachingReader);
+      Assert.assertSame(descriptor, InterceptionDescriptor.of(footballTeamClass, interceptionModel, InvocationBackend.BYTECODE, metadataCachingReader));
+      Assert.assertSame(descriptor, InterceptionDescriptor.of(metadataCachingReader.getClassMetadata(FootballTeam.class), interceptionModel, InvocationBackend.BYTECODE, metadataCachingReader));
+      Assert.assertNotSame(descriptor, InterceptionDescriptor.of(footballTeamClass, interceptionModel, InvocationBackend.BYTECODE, new DefaultMetadataCachingReader()));
+      Assert.assertNotSame(descriptor, InterceptionDescriptor.of(footballTeamClass, interceptionModel, InvocationBackend.BYTECODE, metadataCachingReader, 10));
+      Assert.assertNotSame(descriptor, InterceptionDescriptor.of(footballTeamClass, interceptionModel, InvocationBackend.BYTECODE));
+   }
+
+   @Test
+   public void testSwappingInTheCurrentModelPublishesNothing()
+   {
+      InterceptionDescriptor descriptor = InterceptionDescriptor.of(footballTeamClass, interceptionModel);
+      InterceptionDescriptorReference descriptorReference = new InterceptionDescriptorReference(descriptor);
+      Assert.assertSame(descriptor, descriptorReference.swap(interceptionModel));
+      Assert.assertSame(descriptor, descriptorReference.get());
+      Assert.assertEquals(0, descriptorReference.getVersion());
+      InterceptionModelBuilder<ClassMetadata<?>,?> builder = InterceptionModelBuilder.<ClassMetadata<?>>newBuilderFor(footballTeamClass);
+      builder.interceptPostConstruct().with(metadataCachingReader.getInterceptorMetadata(FirstInterceptor.class));
+      Assert.assertSame(descriptor, descriptorReference.swap(builder.build()));
+      Assert.assertNotSame(descriptor, descriptorReference.get());
+      Assert.assertEquals(1, descriptorReference.getVersion());
+   }
+
+   @Test
+   public void testDescriptorIsSpecificToTheInvocationBackend()
+   {
+      InterceptionDescriptor descriptor = InterceptionDescriptor.of(footballTeamClass, interceptionModel, InvocationBackend.REFLECTION);
+      Assert.assertSame(InvocationBackend.REFLECTION, descriptor.getInvocationBackend());
+      Assert.assertSame(InvocationBackend.BYTECODE, InterceptionDescriptor.of(footballTeamClass, interceptionModel, InvocationBackend.BYTECODE).getInvocationBackend());
+   }
+
+   @Test
+   public void testInterceptorInstancesFollowTheIndex()
+   {
+      InterceptionDescriptor descriptor = InterceptionDescriptor.of(footballTeamClass, interceptionModel);
+      Assert.assertEquals(2, descriptor.getInterceptors().size());
+      Object[] interceptorInstances = descriptor.createInterceptorInstances(new DirectClassInterceptorInstantiator());
+      Assert.assertEquals(2, interceptorInstances.length);
+      for (int i = 0; i < interceptorInstances.length; i++)
+      {
+         Assert.assertEquals(descriptor.getInterceptors().get(i).getInterceptorReference().getClassMetadata().getJavaClass(), interceptorInstances[i].getClass());
+         Assert.assertEquals(i, descriptor.getInterceptorIndex(descriptor.getInterceptors().get(i)));
+      }
+   }
+
+   @Test
+   public void testStatelessInterceptorInstancesAreShared()
+   {
+      InterceptionModelBuilder<ClassMetadata<?>,?> builder = InterceptionModelBuilder.<ClassMetadata<?>>newBuilderFor(footballTeamClass);
+      builder.interceptAroundInvoke(new MethodSignature("getName")).with(
+            metadataCachingReader.getInterceptorMetadata(FirstInterceptor.class), metadataCachingReader.getInterceptorMetadata(SecondInterceptor.class));
+      builder.markStateless(metadataCachingReader.getInterceptorMetadata(FirstInterceptor.class));
+      InterceptionDescriptor descriptor = InterceptionDescriptor.of(footballTeamClass, builder.build());
+      DirectClassInterceptorInstantiator interceptorInstantiator = new DirectClassInterceptorInstantiator();
+      Object[] interceptorInstances = descriptor.createInterceptorInstances(interceptorInstantiator);
+      Object[] otherInterceptorInstances = descriptor.createInterceptorInstances(interceptorInstantiator);
+      Assert.assertTrue(interceptorInstances[0] instanceof FirstInterceptor);
+      Assert.assertSame(interceptorInstances[0], otherInterceptorInstances[0]);
+      Assert.assertNotSame(interceptorInstances[1], otherInterceptorInstances[1]);
+      Assert.assertNotSame(interceptorInstances[0], descriptor.createInterceptorInstances(new DirectClassInterceptorInstantiator())[0]);
+      Assert.assertSame(interceptorInstances[0], descriptor.createInterceptorInstances(interceptorInstantiator)[0]);
+   }
+
+   @Test
+   public void testTargetClassMetadataIsObtainedFromTheReader()
+   {
+      InterceptionDescriptor descriptor = InterceptionDescriptor.of(footballTeamClass, interceptionModel, InvocationBackend.REFLECTION, metadataCachingReader);
+      Assert.assertSame(metadataCachingReader.getTargetClassInterceptorMetadata(footballTeamClass), descriptor.getTargetClassInterceptorMetadata());
+   }
+
+   @Test
+   public void testMethodDispatchIsDecidedOnce() throws Exception
+   {
+      InterceptionDescriptor descriptor = InterceptionDescriptor.of(footballTeamClass, interceptionModel);
+      Method getName = FootballTeam.class.getMethod("getName");
+      Assert.assertSame(MethodDispatch.AROUND_INVOKE, descriptor.getMethodDispatch(getName));
+      Assert.assertTrue(getName.isAccessible());
+      Assert.assertSame(MethodDispatch.POST_CONSTRUCT, descriptor.getMethodDispatch(LifecycleMixin.class.getMethod(InterceptionUtils.POST_CONSTRUCT)));
+      Assert.assertSame(MethodDispatch.PRE_DESTROY, descriptor.getMethodDispatch(LifecycleMixin.class.getMethod(InterceptionUtils.PRE_DESTROY)));
+      Assert.assertSame(MethodDispatch.NOT_INTERCEPTED, descriptor.getMethodDispatch(Object.class.getMethod("toString")));
+      Assert.assertSame(MethodDispatch.NOT_INTERCEPTED, descriptor.getMethodDispatch(FootballTeam.class.getMethod("itsMe", InvocationContext.class)));
+   }
+}
@@ -0,0 +1,106 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.interceptors.proxy;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+
+import javax.interceptor.InvocationContext;
+
+import org.jboss.interceptor.proxy.InterceptorInvocation;
+import org.jboss.interceptor.proxy.InterceptorInvocationContext;
+import org.jboss.interceptor.proxy.InterceptorMethodInvoker;
+import org.jboss.interceptor.proxy.ReflectiveInterceptorMethodInvoker;
+import org.jboss.interceptor.proxy.SimpleInterceptionChain;
+import org.jboss.interceptor.proxy.javassist.InterceptorMethodInvokerGenerator;
+import org.jboss.interceptor.spi.context.InterceptionChain;
+import org.jboss.interceptor.spi.model.InterceptionType;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class InterceptorMethodInvokerGeneratorTestCase
+{
+   @Test
+   public void testPackagePrivateInterceptorMethodIsInvokedDirectly() throws Exception
+   {
+      Method doAround = FirstInterceptor.class.getDeclaredMethod("doAround", InvocationContext.class);
+      InterceptorMethodInvoker invoker = InterceptorMethodInvokerGenerator.createInvoker(doAround);
+      Assert.assertFalse(invoker instanceof ReflectiveInterceptorMethodInvoker);
+
+      InterceptorTestLogger.reset();
+      FootballTeam footballTeam = new FootballTeam("Ajax Amsterdam");
+      Method getName = FootballTeam.class.getMethod("getName");
+      InterceptionChain chain = new SimpleInterceptionChain(new ArrayList<InterceptorInvocation<?>>(), InterceptionType.AROUND_INVOKE, footballTeam, getName);
+      Object result = invoker.invoke(new FirstInterceptor(), new InterceptorInvocationContext(chain, footballTeam, getName, new Object[0]));
+      Assert.assertEquals("Ajax Amsterdam", result);
+      Assert.assertEquals(3, InterceptorTestLogger.getLog().size());
+   }
+
+   @Test
+   public void testGeneratedInvokerIsSharedByCopiesOfTheMethod() throws Exception
+   {
+      // Class.getDeclaredMethod() returns a new copy on each call, as the metadata read for each descriptor does
+      InterceptorMethodInvoker invoker = InterceptorMethodInvokerGenerator.createInvoker(FirstInterceptor.class.getDeclaredMethod("doAround", InvocationContext.class));
+      Assert.assertSame(invoker, InterceptorMethodInvokerGenerator.createInvoker(FirstInterceptor.class.getDeclaredMethod("doAround", InvocationContext.class)));
+   }
+
+   @Test
+   public void testVoidLifecycleMethodReturnsNull() throws Exception
+   {
+      Method afterConstruction = FootballTeam.class.getMethod("afterConstruction");
+      InterceptorMethodInvoker invoker = InterceptorMethodInvokerGenerator.createInvoker(afterConstruction);
+      Assert.assertFalse(invoker instanceof ReflectiveInterceptorMethodInvoker);
+      InterceptorTestLogger.reset();
+      Assert.assertNull(invoker.invoke(new FootballTeam("Ajax Amsterdam"), null));
+      Assert.assertEquals(1, InterceptorTestLogger.getLog().size());
+   }
+
+   @Test
+   public void testPrivateMethodFallsBackToReflection() throws Exception
+   {
+      Method privateMethod = PrivateCallbackHolder.class.getDeclaredMethod("callback");
+      Assert.assertFalse(InterceptorMethodInvokerGenerator.isDirectlyInvocable(privateMethod));
+      InterceptorMethodInvoker invoker = InterceptorMethodInvokerGenerator.createInvoker(privateMethod);
+      Assert.assertTrue(invoker instanceof ReflectiveInterceptorMethodInvoker);
+      PrivateCallbackHolder holder = new PrivateCallbackHolder();
+      invoker.invoke(holder, null);
+      Assert.assertTrue(holder.invoked);
+   }
+
+   @Test(expected = IllegalStateException.class)
+   public void testExceptionsAreNotWrapped() throws Exception
+   {
+      Method failingCallback = PrivateCallbackHolder.class.getDeclaredMethod("failingCallback");
+      InterceptorMethodInvokerGenerator.createInvoker(failingCallback).invoke(new PrivateCallbackHolder(), null);
+   }
+
+   static class PrivateCallbackHolder
+   {
+      boolean invoked;
+
+      private void callback()
+      {
+         invoked = true;
+      }
+
+      void failingCallback()
+      {
+         throw new IllegalStateException();
+      }
+   }
+}
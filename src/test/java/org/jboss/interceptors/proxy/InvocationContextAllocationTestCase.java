@@ -0,0 +1,123 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.interceptors.proxy;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+
+import javax.interceptor.InvocationContext;
+
+import org.jboss.interceptor.proxy.DefaultInvocationContextFactory;
+import org.jboss.interceptor.proxy.InterceptorInvocation;
+import org.jboss.interceptor.proxy.LifecycleInvocationContext;
+import org.jboss.interceptor.proxy.SimpleInterceptionChain;
+import org.jboss.interceptor.spi.context.InterceptionChain;
+import org.jboss.interceptor.spi.context.InvocationContextFactory;
+import org.jboss.interceptor.spi.model.InterceptionType;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+/**
+ * Keeps track of the memory allocated for the invocation contexts. Creating a context must not allocate more than
+ * the context itself: 40 bytes for around-invoke and 24 bytes for lifecycle callbacks on a 64-bit JVM with compressed
+ * references, 64 bytes at most otherwise.
+ */
+public class InvocationContextAllocationTestCase
+{
+   private static final int CONTEXT_COUNT = 10000;
+
+   private static final long MAX_BYTES_PER_CONTEXT = 64;
+
+   private InvocationContextFactory invocationContextFactory = new DefaultInvocationContextFactory();
+
+   @Test
+   public void testLifecycleContextsAreSpecialised()
+   {
+      InvocationContext invocationContext = invocationContextFactory.newInvocationContext(newChain(null), new FootballTeam("Ajax Amsterdam"), null, (Object[]) null);
+      Assert.assertTrue(invocationContext instanceof LifecycleInvocationContext);
+      Assert.assertNull(invocationContext.getMethod());
+      Assert.assertNotNull(invocationContext.getContextData());
+   }
+
+   @Test
+   public void testAroundInvokeContextAllocation() throws Exception
+   {
+      Method getName = FootballTeam.class.getMethod("getName");
+      assertAllocationPerContext(newChain(getName), getName);
+   }
+
+   @Test
+   public void testLifecycleContextAllocation() throws Exception
+   {
+      assertAllocationPerContext(newChain(null), null);
+   }
+
+   private void assertAllocationPerContext(InterceptionChain chain, Method method)
+   {
+      Assume.assumeTrue(isAllocationMeasurable());
+      FootballTeam target = new FootballTeam("Ajax Amsterdam");
+      Object[] parameters = new Object[0];
+      InvocationContext[] invocationContexts = new InvocationContext[CONTEXT_COUNT];
+      // warm up, so that class loading and compilation do not count
+      for (int i = 0; i < CONTEXT_COUNT; i++)
+      {
+         invocationContexts[i] = invocationContextFactory.newInvocationContext(chain, target, method, parameters);
+      }
+      long allocatedBytes = getAllocatedBytes();
+      for (int i = 0; i < CONTEXT_COUNT; i++)
+      {
+         invocationContexts[i] = invocationContextFactory.newInvocationContext(chain, target, method, parameters);
+      }
+      long bytesPerContext = (getAllocatedBytes() - allocatedBytes) / CONTEXT_COUNT;
+      Assert.assertTrue("Allocated " + bytesPerContext + " bytes per context", bytesPerContext <= MAX_BYTES_PER_CONTEXT);
+   }
+
+   private static InterceptionChain newChain(Method method)
+   {
+      return new SimpleInterceptionChain(new ArrayList<InterceptorInvocation<?>>(), method == null ? InterceptionType.POST_CONSTRUCT : InterceptionType.AROUND_INVOKE, null, method);
+   }
+
+   private static boolean isAllocationMeasurable()
+   {
+      try
+      {
+         return getAllocatedBytes() >= 0;
+      }
+      catch (Exception e)
+      {
+         return false;
+      }
+   }
+
+   private static long getAllocatedBytes()
+   {
+      // com.sun.management.ThreadMXBean is not available on all JVMs
+      ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+      try
+      {
+         Method getThreadAllocatedBytes = Class.forName("com.sun.management.ThreadMXBean").getMethod("getThreadAllocatedBytes", long.class);
+         return (Long) getThreadAllocatedBytes.invoke(threadMXBean, Thread.currentThread().getId());
+      }
+      catch (Exception e)
+      {
+         throw new IllegalStateException(e);
+      }
+   }
+}
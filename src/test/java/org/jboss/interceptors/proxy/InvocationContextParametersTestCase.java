@@ -0,0 +1,116 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.interceptors.proxy;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+
+import javax.interceptor.InvocationContext;
+
+import org.jboss.interceptor.proxy.InterceptionChainPlan;
+import org.jboss.interceptor.proxy.InterceptorInvocationContext;
+import org.jboss.interceptor.proxy.InvocationBackend;
+import org.jboss.interceptor.spi.metadata.InterceptorMetadata;
+import org.jboss.interceptor.spi.model.InterceptionType;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class InvocationContextParametersTestCase
+{
+   private FootballTeam footballTeam = new FootballTeam("Ajax Amsterdam");
+
+   @Test
+   public void testUnboxingAndWidening() throws Exception
+   {
+      InvocationContext invocationContext = newInvocationContext("echoLong", long.class);
+      Object[][] accepted = {{42l}, {42}, {(short) 42}, {(byte) 42}, {'a'}};
+      for (Object[] parameters : accepted)
+      {
+         invocationContext.setParameters(parameters);
+         Assert.assertSame(parameters, invocationContext.getParameters());
+      }
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void testNarrowingIsRejected() throws Exception
+   {
+      newInvocationContext("echoInt", int.class).setParameters(new Object[]{42l});
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void testBooleanIsNotWidened() throws Exception
+   {
+      newInvocationContext("echoLong", long.class).setParameters(new Object[]{true});
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void testNullIsRejectedOnPrimitives() throws Exception
+   {
+      newInvocationContext("echoInt", int.class).setParameters(new Object[]{null});
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void testWrongNumberOfParametersIsRejected() throws Exception
+   {
+      newInvocationContext("echoInt", int.class).setParameters(new Object[]{1, 2});
+   }
+
+   @Test
+   public void testReferenceWidening() throws Exception
+   {
+      InvocationContext invocationContext = newInvocationContext("echoObjectArray", Object[].class);
+      Object[] parameters = new Object[]{new String[]{"Ajax"}};
+      invocationContext.setParameters(parameters);
+      Assert.assertSame(parameters, invocationContext.getParameters());
+      newInvocationContext("echo2", ValueBearer.class).setParameters(new Object[]{new ValueBearerImpl(1)});
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void testIncompatibleReferenceIsRejected() throws Exception
+   {
+      newInvocationContext("echoStringArray", String[].class).setParameters(new Object[]{new Object[0]});
+   }
+
+   /**
+    * Tests the parameters set on the contexts of chains that execute a plan, which keeps the validator of the method
+    */
+   @Test
+   public void testParametersAreValidatedAgainstThePlan() throws Exception
+   {
+      Method method = FootballTeam.class.getMethod("echoInt", int.class);
+      InterceptionChainPlan chainPlan = InterceptionChainPlan.of(InterceptionType.AROUND_INVOKE, Collections.<InterceptorMetadata<?>>emptyList(), null, method, InvocationBackend.REFLECTION);
+      for (int i = 0; i < 2; i++)
+      {
+         InvocationContext invocationContext = new InterceptorInvocationContext(chainPlan.newChain(new Object[0], footballTeam, method), footballTeam, method, new Object[1]);
+         invocationContext.setParameters(new Object[]{(short) 42});
+         try
+         {
+            invocationContext.setParameters(new Object[]{42l});
+            Assert.fail("A long must not be narrowed to an int");
+         }
+         catch (IllegalArgumentException expected)
+         {
+         }
+      }
+   }
+
+   private InvocationContext newInvocationContext(String methodName, Class<?> parameterType) throws Exception
+   {
+      Method method = FootballTeam.class.getMethod(methodName, parameterType);
+      return new InterceptorInvocationContext(null, footballTeam, method, new Object[1]);
+   }
+}
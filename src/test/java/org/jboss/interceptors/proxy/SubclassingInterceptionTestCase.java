@@ -21,21 +21,29 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
+import javassist.util.proxy.MethodHandler;
 import javassist.util.proxy.ProxyObject;
 import org.jboss.interceptor.builder.InterceptionModelBuilder;
 import org.jboss.interceptor.builder.MethodSignature;
 import org.jboss.interceptor.proxy.DefaultInvocationContextFactory;
 import org.jboss.interceptor.proxy.DirectClassInterceptorInstantiator;
+import org.jboss.interceptor.proxy.InterceptorMethodHandler;
 import org.jboss.interceptor.proxy.InterceptorProxyCreatorImpl;
+import org.jboss.interceptor.proxy.InvocationBackend;
 import org.jboss.interceptor.proxy.javassist.CompositeHandler;
 import org.jboss.interceptor.reader.ReflectiveClassMetadata;
 import org.jboss.interceptor.reader.cache.DefaultMetadataCachingReader;
 import org.jboss.interceptor.reader.cache.MetadataCachingReader;
 import org.jboss.interceptor.spi.instance.InterceptorInstantiator;
 import org.jboss.interceptor.spi.metadata.ClassMetadata;
+import org.jboss.interceptor.spi.metadata.InterceptorReference;
 import org.jboss.interceptor.spi.model.InterceptionModel;
 import org.jboss.interceptor.util.InterceptionUtils;
 import org.junit.Assert;
@@ -241,11 +249,270 @@ public class SubclassingInterceptionTestCase
       Assert.assertEquals(TEAM_NAME, proxy.getName());
       Object[] logValues = InterceptorTestLogger.getLog().toArray();
       Assert.assertArrayEquals(iterateAndDisplay(logValues), expectedLoggedValuesOnSerialization, logValues);
-      Assert.assertTrue(((ProxyObject)proxy).getHandler() instanceof CompositeHandler);
+      Assert.assertTrue(((ProxyObject)proxy).getHandler() instanceof InterceptorMethodHandler);
       assertRawObject(proxy);
    }
 
 
+   @Test
+   public void testChainEndsWithSuperclassInvocation() throws Exception
+   {
+      InterceptorTestLogger.reset();
+      ClassMetadata<?> footballTeamClass = metadataCachingReader.getClassMetadata(FootballTeam.class);
+      InterceptionModelBuilder<ClassMetadata<?>,?> builder = InterceptionModelBuilder.<ClassMetadata<?>>newBuilderFor(footballTeamClass);
+      builder.interceptAroundInvoke(new MethodSignature("getName")).with(metadataCachingReader.getInterceptorMetadata(ContextCapturingInterceptor.class));
+      this.interceptionModelRegistry = new HashMap<Class<?>, InterceptionModel<ClassMetadata<?>,?>>();
+      this.interceptionModelRegistry.put(FootballTeam.class, builder.build());
+      FootballTeam proxy = createAdvisedInstance(FootballTeam.class, TEAM_NAME);
+      // re-entering the proxy from another thread would run the interceptors again instead of reaching the superclass
+      ContextCapturingInterceptor.proceedingInOtherThread = true;
+      try
+      {
+         Assert.assertEquals(TEAM_NAME, proxy.getName());
+         Assert.assertEquals(FootballTeam.class.getMethod("getName"), ContextCapturingInterceptor.lastInvocationContext.getMethod());
+      }
+      finally
+      {
+         ContextCapturingInterceptor.proceedingInOtherThread = false;
+         ContextCapturingInterceptor.lastInvocationContext = null;
+      }
+      Object[] logValues = InterceptorTestLogger.getLog().toArray();
+      Assert.assertArrayEquals(iterateAndDisplay(logValues), new Object[]{
+            "org.jboss.interceptors.proxy.FootballTeam_aroundInvokeBefore",
+            "org.jboss.interceptors.proxy.FootballTeam_getName",
+            "org.jboss.interceptors.proxy.FootballTeam_aroundInvokeAfter"}, logValues);
+   }
+
+   @Test
+   public void testCompositeHandlerPassesInvocationsOnToNextHandler() throws Exception
+   {
+      InterceptorTestLogger.reset();
+      ClassMetadata<FootballTeam> footballTeamClass = metadataCachingReader.getClassMetadata(FootballTeam.class);
+      InterceptorProxyCreatorImpl outerProxyCreator = createProxyCreator(footballTeamClass, FirstInterceptor.class);
+      InterceptorProxyCreatorImpl innerProxyCreator = createProxyCreator(footballTeamClass, SecondInterceptor.class);
+      FootballTeam proxy = outerProxyCreator.createAdvisedSubclassInstance(footballTeamClass, new Class<?>[]{String.class}, new Object[]{TEAM_NAME});
+      ((ProxyObject) proxy).setHandler(new CompositeHandler(Arrays.asList(
+            outerProxyCreator.createSubclassingMethodHandler(proxy, footballTeamClass),
+            innerProxyCreator.createSubclassingMethodHandler(proxy, footballTeamClass))));
+      Assert.assertEquals(TEAM_NAME, proxy.getName());
+      Object[] logValues = InterceptorTestLogger.getLog().toArray();
+      Assert.assertArrayEquals(iterateAndDisplay(logValues), new Object[]{
+            "org.jboss.interceptors.proxy.FirstInterceptor_aroundInvokeBefore",
+            "org.jboss.interceptors.proxy.FootballTeam_aroundInvokeBefore",
+            "org.jboss.interceptors.proxy.SecondInterceptor_aroundInvokeBefore",
+            "org.jboss.interceptors.proxy.FootballTeam_aroundInvokeBefore",
+            "org.jboss.interceptors.proxy.FootballTeam_getName",
+            "org.jboss.interceptors.proxy.FootballTeam_aroundInvokeAfter",
+            "org.jboss.interceptors.proxy.SecondInterceptor_aroundInvokeAfter",
+            "org.jboss.interceptors.proxy.FootballTeam_aroundInvokeAfter",
+            "org.jboss.interceptors.proxy.FirstInterceptor_aroundInvokeAfter"}, logValues);
+   }
+
+   @Test
+   public void testCompositeHandlersDoNotRelinkSharedHandlers() throws Exception
+   {
+      InterceptorTestLogger.reset();
+      ClassMetadata<FootballTeam> footballTeamClass = metadataCachingReader.getClassMetadata(FootballTeam.class);
+      InterceptorProxyCreatorImpl outerProxyCreator = createProxyCreator(footballTeamClass, FirstInterceptor.class);
+      InterceptorProxyCreatorImpl innerProxyCreator = createProxyCreator(footballTeamClass, SecondInterceptor.class);
+      FootballTeam proxy = outerProxyCreator.createAdvisedSubclassInstance(footballTeamClass, new Class<?>[]{String.class}, new Object[]{TEAM_NAME});
+      MethodHandler outerHandler = outerProxyCreator.createSubclassingMethodHandler(proxy, footballTeamClass);
+      ((ProxyObject) proxy).setHandler(new CompositeHandler(Arrays.asList(
+            outerHandler, innerProxyCreator.createSubclassingMethodHandler(proxy, footballTeamClass))));
+      // the outer handler is also followed by another handler in a second composite
+      new CompositeHandler(Arrays.asList(outerHandler, new MethodHandler()
+      {
+         public Object invoke(Object self, Method thisMethod, Method proceed, Object[] args) throws Throwable
+         {
+            logInvocation(thisMethod, "proceed");
+            return proceed.invoke(self, args);
+         }
+      }));
+      Assert.assertEquals(TEAM_NAME, proxy.getName());
+      Object[] logValues = InterceptorTestLogger.getLog().toArray();
+      Assert.assertArrayEquals(iterateAndDisplay(logValues), new Object[]{
+            "org.jboss.interceptors.proxy.FirstInterceptor_aroundInvokeBefore",
+            "org.jboss.interceptors.proxy.FootballTeam_aroundInvokeBefore",
+            "org.jboss.interceptors.proxy.SecondInterceptor_aroundInvokeBefore",
+            "org.jboss.interceptors.proxy.FootballTeam_aroundInvokeBefore",
+            "org.jboss.interceptors.proxy.FootballTeam_getName",
+            "org.jboss.interceptors.proxy.FootballTeam_aroundInvokeAfter",
+            "org.jboss.interceptors.proxy.SecondInterceptor_aroundInvokeAfter",
+            "org.jboss.interceptors.proxy.FootballTeam_aroundInvokeAfter",
+            "org.jboss.interceptors.proxy.FirstInterceptor_aroundInvokeAfter"}, logValues);
+   }
+
+   @Test
+   public void testCompositeHandlerWithPlainHandlers() throws Exception
+   {
+      InterceptorTestLogger.reset();
+      ClassMetadata<FootballTeam> footballTeamClass = metadataCachingReader.getClassMetadata(FootballTeam.class);
+      InterceptorProxyCreatorImpl outerProxyCreator = createProxyCreator(footballTeamClass, FirstInterceptor.class);
+      InterceptorProxyCreatorImpl innerProxyCreator = createProxyCreator(footballTeamClass, SecondInterceptor.class);
+      FootballTeam proxy = outerProxyCreator.createAdvisedSubclassInstance(footballTeamClass, new Class<?>[]{String.class}, new Object[]{TEAM_NAME});
+      // passes the invocations on by invoking the method on the proxy again
+      MethodHandler reentrantHandler = new MethodHandler()
+      {
+         public Object invoke(Object self, Method thisMethod, Method proceed, Object[] args) throws Throwable
+         {
+            logInvocation(thisMethod, "before");
+            Object result = thisMethod.invoke(self, args);
+            logInvocation(thisMethod, "after");
+            return result;
+         }
+      };
+      // ends the invocations by invoking the superclass method
+      MethodHandler superInvokingHandler = new MethodHandler()
+      {
+         public Object invoke(Object self, Method thisMethod, Method proceed, Object[] args) throws Throwable
+         {
+            logInvocation(thisMethod, "proceed");
+            return proceed.invoke(self, args);
+         }
+      };
+      ((ProxyObject) proxy).setHandler(new CompositeHandler(Arrays.asList(
+            outerProxyCreator.createSubclassingMethodHandler(proxy, footballTeamClass),
+            reentrantHandler,
+            innerProxyCreator.createSubclassingMethodHandler(proxy, footballTeamClass),
+            superInvokingHandler)));
+      Assert.assertEquals(TEAM_NAME, proxy.getName());
+      Object[] logValues = InterceptorTestLogger.getLog().toArray();
+      Assert.assertArrayEquals(iterateAndDisplay(logValues), new Object[]{
+            "org.jboss.interceptors.proxy.FirstInterceptor_aroundInvokeBefore",
+            "org.jboss.interceptors.proxy.FootballTeam_aroundInvokeBefore",
+            "javassist.util.proxy.MethodHandler_before",
+            "org.jboss.interceptors.proxy.SecondInterceptor_aroundInvokeBefore",
+            "org.jboss.interceptors.proxy.FootballTeam_aroundInvokeBefore",
+            "javassist.util.proxy.MethodHandler_proceed",
+            "org.jboss.interceptors.proxy.FootballTeam_getName",
+            "org.jboss.interceptors.proxy.FootballTeam_aroundInvokeAfter",
+            "org.jboss.interceptors.proxy.SecondInterceptor_aroundInvokeAfter",
+            "javassist.util.proxy.MethodHandler_after",
+            "org.jboss.interceptors.proxy.FootballTeam_aroundInvokeAfter",
+            "org.jboss.interceptors.proxy.FirstInterceptor_aroundInvokeAfter"}, logValues);
+      // the handlers are run again for the next invocation
+      InterceptorTestLogger.reset();
+      Assert.assertEquals(TEAM_NAME, proxy.getName());
+      Assert.assertEquals(logValues.length, InterceptorTestLogger.getLog().size());
+   }
+
+   private static void logInvocation(Method method, String event)
+   {
+      // the handlers also see the invocations of the interceptor methods of the target class
+      if (method.getName().equals("getName"))
+      {
+         InterceptorTestLogger.add(MethodHandler.class, event);
+      }
+   }
+
+   private InterceptorProxyCreatorImpl createProxyCreator(ClassMetadata<?> targetClass, Class<?> interceptorClass)
+   {
+      InterceptionModelBuilder<ClassMetadata<?>,?> builder = InterceptionModelBuilder.<ClassMetadata<?>>newBuilderFor(targetClass);
+      builder.interceptAroundInvoke(new MethodSignature("getName")).with(metadataCachingReader.getInterceptorMetadata(interceptorClass));
+      return new InterceptorProxyCreatorImpl(interceptorInstantiator, new DefaultInvocationContextFactory(), (InterceptionModel<ClassMetadata<?>, Object>) builder.build());
+   }
+
+   @Test
+   public void testLazyInterceptorInstantiation() throws Exception
+   {
+      InterceptorTestLogger.reset();
+      ClassMetadata<FootballTeam> footballTeamClass = metadataCachingReader.getClassMetadata(FootballTeam.class);
+      InterceptionModelBuilder<ClassMetadata<?>,?> builder = InterceptionModelBuilder.<ClassMetadata<?>>newBuilderFor(footballTeamClass);
+      builder.interceptAroundInvoke(new MethodSignature("getName")).with(metadataCachingReader.getInterceptorMetadata(SecondInterceptor.class));
+      builder.interceptPostConstruct().with(metadataCachingReader.getInterceptorMetadata(FirstInterceptor.class));
+      final List<Class<?>> instantiatedClasses = new ArrayList<Class<?>>();
+      InterceptorInstantiator<Object, ClassMetadata<?>> recordingInstantiator = new DirectClassInterceptorInstantiator()
+      {
+         @Override
+         public Object createFor(InterceptorReference<ClassMetadata<?>> interceptorReference)
+         {
+            instantiatedClasses.add(interceptorReference.getClassMetadata().getJavaClass());
+            return super.createFor(interceptorReference);
+         }
+      };
+      InterceptorProxyCreatorImpl ipc = new InterceptorProxyCreatorImpl(recordingInstantiator, new DefaultInvocationContextFactory(), (InterceptionModel<ClassMetadata<?>, Object>) builder.build());
+      ipc.setLazyInterceptorInstantiation(true);
+      FootballTeam proxy = ipc.createSubclassingProxy(footballTeamClass, new Class<?>[]{String.class}, new Object[]{TEAM_NAME});
+      Assert.assertTrue(instantiatedClasses.isEmpty());
+      Assert.assertEquals(TEAM_NAME, proxy.getName());
+      Assert.assertEquals(TEAM_NAME, proxy.getName());
+      Assert.assertEquals(Arrays.<Class<?>>asList(SecondInterceptor.class), instantiatedClasses);
+      InterceptionUtils.executePostConstruct(proxy);
+      Assert.assertEquals(Arrays.<Class<?>>asList(SecondInterceptor.class, FirstInterceptor.class), instantiatedClasses);
+      Assert.assertTrue(InterceptorTestLogger.getLog().contains("org.jboss.interceptors.proxy.FirstInterceptor_postConstruct"));
+   }
+
+   /**
+    * Tests that the proxies created by a proxy creator share the instances of the stateless interceptors, whatever
+    * the other proxy creators of the same model do in the meantime
+    */
+   @Test
+   public void testStatelessInterceptorInstancesAreSharedByTheProxiesOfACreator() throws Exception
+   {
+      ClassMetadata<FootballTeam> footballTeamClass = metadataCachingReader.getClassMetadata(FootballTeam.class);
+      InterceptionModelBuilder<ClassMetadata<?>,?> builder = InterceptionModelBuilder.<ClassMetadata<?>>newBuilderFor(footballTeamClass);
+      builder.interceptAroundInvoke(new MethodSignature("getName")).with(metadataCachingReader.getInterceptorMetadata(SecondInterceptor.class));
+      builder.markStateless(metadataCachingReader.getInterceptorMetadata(SecondInterceptor.class));
+      InterceptionModel<ClassMetadata<?>, Object> interceptionModel = (InterceptionModel<ClassMetadata<?>, Object>) builder.build();
+      final List<Class<?>> instantiatedClasses = new ArrayList<Class<?>>();
+      InterceptorInstantiator<Object, ClassMetadata<?>> recordingInstantiator = new DirectClassInterceptorInstantiator()
+      {
+         @Override
+         public Object createFor(InterceptorReference<ClassMetadata<?>> interceptorReference)
+         {
+            instantiatedClasses.add(interceptorReference.getClassMetadata().getJavaClass());
+            return super.createFor(interceptorReference);
+         }
+      };
+      InterceptorProxyCreatorImpl ipc = new InterceptorProxyCreatorImpl(recordingInstantiator, new DefaultInvocationContextFactory(), interceptionModel);
+      InterceptorProxyCreatorImpl reflectiveIpc = new InterceptorProxyCreatorImpl(recordingInstantiator, new DefaultInvocationContextFactory(), interceptionModel);
+      reflectiveIpc.setInvocationBackend(InvocationBackend.REFLECTION);
+      Assert.assertEquals(TEAM_NAME, ipc.createSubclassingProxy(footballTeamClass, new Class<?>[]{String.class}, new Object[]{TEAM_NAME}).getName());
+      Assert.assertEquals(TEAM_NAME, reflectiveIpc.createSubclassingProxy(footballTeamClass, new Class<?>[]{String.class}, new Object[]{TEAM_NAME}).getName());
+      Assert.assertEquals(TEAM_NAME, ipc.createSubclassingProxy(footballTeamClass, new Class<?>[]{String.class}, new Object[]{TEAM_NAME}).getName());
+      Assert.assertEquals(Arrays.<Class<?>>asList(SecondInterceptor.class, SecondInterceptor.class), instantiatedClasses);
+   }
+
+   @Test
+   public void testInterceptionModelSwapping() throws Exception
+   {
+      InterceptorTestLogger.reset();
+      ClassMetadata<FootballTeam> footballTeamClass = metadataCachingReader.getClassMetadata(FootballTeam.class);
+      InterceptionModelBuilder<ClassMetadata<?>,?> builder = InterceptionModelBuilder.<ClassMetadata<?>>newBuilderFor(footballTeamClass);
+      builder.interceptAroundInvoke(new MethodSignature("getName")).with(metadataCachingReader.getInterceptorMetadata(SecondInterceptor.class));
+      InterceptionModel<ClassMetadata<?>, ?> initialModel = builder.build();
+      final List<Class<?>> instantiatedClasses = new ArrayList<Class<?>>();
+      InterceptorInstantiator<Object, ClassMetadata<?>> recordingInstantiator = new DirectClassInterceptorInstantiator()
+      {
+         @Override
+         public Object createFor(InterceptorReference<ClassMetadata<?>> interceptorReference)
+         {
+            instantiatedClasses.add(interceptorReference.getClassMetadata().getJavaClass());
+            return super.createFor(interceptorReference);
+         }
+      };
+      InterceptorProxyCreatorImpl ipc = new InterceptorProxyCreatorImpl(recordingInstantiator, new DefaultInvocationContextFactory(), (InterceptionModel<ClassMetadata<?>, Object>) initialModel);
+      ipc.setInterceptionModelSwapping(true);
+      FootballTeam proxy = ipc.createSubclassingProxy(footballTeamClass, new Class<?>[]{String.class}, new Object[]{TEAM_NAME});
+      Assert.assertEquals(TEAM_NAME, proxy.getName());
+      Assert.assertEquals(1, proxy.echo("1"));
+      Assert.assertFalse(InterceptorTestLogger.getLog().contains("org.jboss.interceptors.proxy.FirstInterceptor_aroundInvokeBefore"));
+
+      builder = InterceptionModelBuilder.<ClassMetadata<?>>newBuilderFor(footballTeamClass);
+      builder.interceptAroundInvoke(new MethodSignature("getName")).with(metadataCachingReader.getInterceptorMetadata(FirstInterceptor.class), metadataCachingReader.getInterceptorMetadata(SecondInterceptor.class));
+      builder.interceptAroundInvoke(new MethodSignature("echo", String.class)).with(metadataCachingReader.getInterceptorMetadata(ParameterOverridingInterceptor.class));
+      ipc.swapInterceptionModel((InterceptionModel<ClassMetadata<?>, Object>) builder.build());
+      InterceptorTestLogger.reset();
+      Assert.assertEquals(TEAM_NAME, proxy.getName());
+      Assert.assertEquals(42, proxy.echo("1"));
+      Assert.assertTrue(InterceptorTestLogger.getLog().contains("org.jboss.interceptors.proxy.FirstInterceptor_aroundInvokeBefore"));
+      // the instance of the interceptor that belongs to both models is kept
+      Assert.assertEquals(Arrays.<Class<?>>asList(SecondInterceptor.class, FirstInterceptor.class, ParameterOverridingInterceptor.class), instantiatedClasses);
+
+      ipc.swapInterceptionModel((InterceptionModel<ClassMetadata<?>, Object>) initialModel);
+      Assert.assertEquals(1, proxy.echo("1"));
+   }
+
    @Test
    public void testSerialization() throws Exception
    {
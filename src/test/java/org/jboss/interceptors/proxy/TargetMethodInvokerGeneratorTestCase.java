@@ -0,0 +1,72 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.interceptors.proxy;
+
+import java.lang.reflect.Method;
+
+import org.jboss.interceptor.proxy.InvocationBackend;
+import org.jboss.interceptor.proxy.ReflectiveTargetMethodInvoker;
+import org.jboss.interceptor.proxy.TargetMethodInvoker;
+import org.jboss.interceptor.proxy.javassist.TargetMethodInvokerGenerator;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TargetMethodInvokerGeneratorTestCase
+{
+   @Test
+   public void testTargetMethodIsInvokedDirectly() throws Exception
+   {
+      Method getName = FootballTeam.class.getMethod("getName");
+      TargetMethodInvoker invoker = TargetMethodInvokerGenerator.createInvoker(getName);
+      Assert.assertFalse(invoker instanceof ReflectiveTargetMethodInvoker);
+      Assert.assertEquals("Ajax Amsterdam", invoker.invoke(new FootballTeam("Ajax Amsterdam"), null));
+   }
+
+   @Test
+   public void testGeneratedInvokerIsSharedByCopiesOfTheMethod() throws Exception
+   {
+      TargetMethodInvoker invoker = TargetMethodInvokerGenerator.createInvoker(FootballTeam.class.getMethod("getName"));
+      Assert.assertSame(invoker, TargetMethodInvokerGenerator.createInvoker(FootballTeam.class.getMethod("getName")));
+   }
+
+   @Test
+   public void testPrimitiveParametersAreWidened() throws Exception
+   {
+      FootballTeam footballTeam = new FootballTeam("Ajax Amsterdam");
+      for (InvocationBackend invocationBackend : InvocationBackend.values())
+      {
+         TargetMethodInvoker invoker = invocationBackend.getTargetMethodInvoker(FootballTeam.class.getMethod("echoLong", long.class));
+         Assert.assertEquals(42l, invoker.invoke(footballTeam, new Object[]{42}));
+         Assert.assertEquals((long) 'z', invoker.invoke(footballTeam, new Object[]{'z'}));
+      }
+   }
+
+   @Test
+   public void testVoidTargetMethodReturnsNull() throws Exception
+   {
+      Method doNothing = FootballTeam.class.getMethod("doNothing");
+      Assert.assertNull(TargetMethodInvokerGenerator.createInvoker(doNothing).invoke(new FootballTeam("Ajax Amsterdam"), null));
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void testIncompatibleParameterIsRejected() throws Exception
+   {
+      Method echoInt = FootballTeam.class.getMethod("echoInt", int.class);
+      TargetMethodInvokerGenerator.createInvoker(echoInt).invoke(new FootballTeam("Ajax Amsterdam"), new Object[]{42l});
+   }
+}